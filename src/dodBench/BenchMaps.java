@@ -0,0 +1,91 @@
+/**
+ * Generates the text maps the benchmarks and load tests play on, so that every run of a driver uses exactly the same
+ * map without any map files being checked in.
+ */
+
+package dodBench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+final class BenchMaps {
+
+	private BenchMaps(){
+	}
+
+	/**
+	 * Writes an open map: floor everywhere, walls round the edge, an exit in the bottom right corner and gold on some
+	 * of the floor. The same arguments always give the same map.
+	 * @param width Width of the map, including its walls.
+	 * @param height Height of the map, including its walls.
+	 * @param goldEvery One floor cell in this many holds a gold, or 0 for just the gold needed to win.
+	 * @return The map file, which is deleted when the JVM exits.
+	 */
+	static File open(int width, int height, int goldEvery)
+			throws IOException{
+		return open(width, height, goldEvery, "", 1);
+	}
+
+	/**
+	 * Writes an open map as above, with some items in a line along the top row.
+	 * @param items The item characters, e.g. "LS", placed from the third column of the top row inside the walls.
+	 * @param goal The gold needed to win, which must be no more than the map holds.
+	 */
+	static File open(int width, int height, int goldEvery, String items, int goal)
+			throws IOException{
+		File file = File.createTempFile("dod-bench-" + width + "x" + height + "-", ".txt");
+		file.deleteOnExit();
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16);
+		try{
+			out.write("name Bench " + width + "x" + height);
+			out.newLine();
+			out.write("win " + goal);
+			out.newLine();
+
+			char[] row = new char[width];
+			long cell = 0;
+			for(int r = 0; r < height; r++){
+				for(int c = 0; c < width; c++){
+					if(r == 0 || c == 0 || r == height - 1 || c == width - 1){
+						row[c] = '#';
+					}
+					else if(r == height - 2 && c == width - 2){
+						row[c] = 'E';
+					}
+					else if(r == 1 && c == 1){
+						//Always enough gold to win.
+						row[c] = 'G';
+					}
+					else if(r == 1 && c >= 2 && c < 2 + items.length()){
+						row[c] = items.charAt(c - 2);
+					}
+					else if(goldEvery > 0 && mix(cell) % goldEvery == 0){
+						row[c] = 'G';
+					}
+					else{
+						row[c] = '.';
+					}
+					cell++;
+				}
+				out.write(row);
+				out.newLine();
+			}
+		}
+		finally{
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Scatters the gold without a Random, so maps are the same on every JVM.
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return (z ^ (z >>> 31)) & Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * A player for the in-process benchmarks, with no client behind it. It counts what the game sends it and otherwise
+ * drops it.
+ */
+
+package dodBench;
+
+import dodServer.game.LookView;
+import dodServer.game.PlayerListener;
+import dodServer.game.Shout;
+
+class BenchPlayer implements PlayerListener {
+
+	int messages = 0; //Everything the game has sent, of any kind.
+	boolean lost = false;
+
+	public void sendMessage(String message){
+		messages++;
+	}
+
+	public void startTurn(){
+		messages++;
+	}
+
+	public void endTurn(){
+		messages++;
+	}
+
+	public void win(){
+		messages++;
+	}
+
+	public void lose(){
+		messages++;
+		lost = true;
+	}
+
+	public void lookChange(){
+		messages++;
+	}
+
+	public boolean wantsViewPush(){
+		return false;
+	}
+
+	public void viewChange(LookView look){
+		messages++;
+	}
+
+	public void hpChange(int value){
+		messages++;
+	}
+
+	public void treasureChange(int value){
+		messages++;
+	}
+
+	public void sendName(String name){
+		messages++;
+	}
+
+	public void sendShout(Shout shout){
+		messages++;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Times the whole path of a text command through a NetworkedUser: reading the line, finding the verb, running it on
+ * the game and queueing the response. The script is read from a MemorySocket as fast as the session can take it.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import dodServer.NetworkedUser;
+import dodServer.SessionExecutors;
+import dodServer.game.GameLogic;
+
+public class DispatchBench {
+
+	//Read only, look, and write: the commands a client sends most, none of which needs its turn.
+	private static final String[] COMMANDS = {"LOOK", "APGET", "SETPLAYERPOS 21 20", "LOOK", "APGET",
+			"SETPLAYERPOS 20 20"};
+
+	public static void main(String[] args){
+		if(args.length > 1){
+			System.err.println("Usage: DispatchBench [commands]");
+			System.exit(1);
+		}
+
+		//Everything the session answers is queued until the writer gets to it, so make room for all of it.
+		if(System.getProperty("dod.outboundCapacity") == null){
+			System.setProperty("dod.outboundCapacity", "100000000");
+		}
+
+		try{
+			int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+			File map = BenchMaps.open(64, 64, 0);
+			GameLogic game = new GameLogic(map.getPath());
+
+			//Warm up on a session of its own.
+			session(game, count / 5);
+
+			long nanos = session(game, count);
+			System.out.println(count + " commands in " + nanos / 1000000 + "ms, " + nanos / count + "ns a command");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Commands must be a number.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs a session of the given number of commands and waits for its output to be written.
+	 * @return How long the session spent reading and running the commands, in nanoseconds.
+	 */
+	private static long session(GameLogic game, int count)
+			throws Exception{
+		StringBuilder script = new StringBuilder("HELLO bench\nSETPLAYERPOS 20 20\n");
+		for(int i = 0; i < count; i++){
+			script.append(COMMANDS[i % COMMANDS.length]).append('\n');
+		}
+
+		MemorySocket socket = new MemorySocket(script.toString().getBytes(StandardCharsets.US_ASCII), false);
+		NetworkedUser user = new NetworkedUser(game, socket, SessionExecutors.writerPerSession());
+
+		long start = System.nanoTime();
+		user.run();
+		long nanos = System.nanoTime() - start;
+
+		socket.awaitClose();
+		return nanos;
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Counts the socket writes a NetworkedUser makes for each command. A scripted client plays turns of LOOK, MOVE E,
+ * LOOK, MOVE W, LOOK, ENDTURN through a MemorySocket, and every write that reaches the socket is counted. Optionally a
+ * neighbour keeps stepping about in the client's view, so the client is also sent CHANGE between its own commands.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import dodServer.NetworkedUser;
+import dodServer.SessionExecutors;
+import dodServer.game.GameLogic;
+import dodUtil.CommandException;
+
+public class FlushBench {
+
+	private static final String[] TURN = {"LOOK", "MOVE E", "LOOK", "MOVE W", "LOOK", "ENDTURN"};
+
+	public static void main(String[] args){
+		if(args.length > 2){
+			System.err.println("Usage: FlushBench [turns] [neighbour step micros]");
+			System.exit(1);
+		}
+
+		try{
+			int turns = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+			long stepMicros = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+			StringBuilder script = new StringBuilder("HELLO bench\nSETPLAYERPOS 20 20\n");
+			for(int t = 0; t < turns; t++){
+				for(String command : TURN){
+					script.append(command).append('\n');
+				}
+			}
+			int commands = 2 + turns * TURN.length;
+
+			File map = BenchMaps.open(64, 64, 0);
+			GameLogic game = new GameLogic(map.getPath());
+			MemorySocket socket = new MemorySocket(script.toString().getBytes(StandardCharsets.US_ASCII), true);
+			NetworkedUser user = new NetworkedUser(game, socket, SessionExecutors.writerPerSession());
+
+			AtomicBoolean stop = new AtomicBoolean(false);
+			long start = System.nanoTime();
+			if(stepMicros > 0){
+				startNeighbour(game, stepMicros, stop);
+			}
+			user.run();
+			stop.set(true);
+			socket.awaitClose();
+			long nanos = System.nanoTime() - start;
+
+			System.out.println(commands + " commands, " + socket.getBytes() + " bytes in " + socket.getWrites()
+					+ " socket writes");
+			System.out.println("writes a command " + String.format("%.2f", socket.getWrites() / (double) commands)
+					+ ", bytes a write " + socket.getBytes() / Math.max(1, socket.getWrites()));
+			System.out.println("session took " + nanos / 1000000 + "ms");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Turns and the step time must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Adds a player who steps between two cells next to the client, which starts at 20,20, and ends its turn
+	 * whenever it has one so the client keeps getting its turns.
+	 */
+	private static void startNeighbour(final GameLogic game, final long stepMicros, final AtomicBoolean stop){
+		final int neighbour = game.addPlayer(new BenchPlayer());
+		Thread stepper = new Thread(new Runnable(){
+			public void run(){
+				int col = 21;
+				while(!stop.get()){
+					try{
+						game.setPlayerPosition(col, 21, neighbour);
+					}
+					catch(CommandException e){
+						//The client is standing there, try the other cell.
+					}
+					try{
+						game.clientEndTurn(neighbour);
+					}
+					catch(CommandException e){
+						//It is the client's turn.
+					}
+					col = (col == 21) ? 22 : 21;
+					LockSupport.parkNanos(stepMicros * 1000);
+				}
+			}
+		}, "dod-bench-neighbour");
+		stepper.setDaemon(true);
+		stepper.start();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Compares how fast one game runs commands with and without a journal. Every command timed is one the journal
+ * records: a player steps east and west until its AP runs out, then ends its turn. Runs alternate between a game
+ * without a journal and one with, so both see the same warm JVM.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import dodServer.game.CompassDirection;
+import dodServer.game.GameJournal;
+import dodServer.game.GameLogic;
+import dodServer.game.GameRandom;
+import dodUtil.CommandException;
+
+public class JournalBench {
+
+	private static final long SEED = 1;
+
+	public static void main(String[] args){
+		if(args.length > 2){
+			System.err.println("Usage: JournalBench [commands] [rounds]");
+			System.exit(1);
+		}
+
+		try{
+			int commands = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+			int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+			File map = BenchMaps.open(64, 64, 0);
+			File dir = Files.createTempDirectory("dod-bench-journal").toFile();
+
+			for(int r = 0; r < rounds; r++){
+				long off = run(map, null, commands);
+
+				File file = new File(dir, "round" + r + ".journal");
+				long on = run(map, file, commands);
+				file.delete();
+
+				System.out.println("round " + r + ": off " + commands * 1000000000L / off + "/s, on "
+						+ commands * 1000000000L / on + "/s");
+			}
+			dir.delete();
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Commands and rounds must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Plays a fresh game, journalled to the file if there is one.
+	 * @return How long the commands took, in nanoseconds, including writing out the journal.
+	 */
+	private static long run(File map, File journalFile, int commands)
+			throws IOException, CommandException, java.text.ParseException{
+		GameLogic game = new GameLogic(map.getPath(), new GameRandom(SEED));
+		if(journalFile != null){
+			game.recover(GameJournal.open(journalFile, map.getPath(), SEED), null);
+		}
+
+		int id = game.addPlayer(new BenchPlayer());
+		game.setPlayerPosition(20, 20, id);
+
+		long start = System.nanoTime();
+		boolean east = true;
+		for(int i = 0; i < commands; i++){
+			if(game.getAp(id) == 0){
+				game.clientEndTurn(id);
+			}
+			else{
+				game.clientMove(east ? CompassDirection.EAST : CompassDirection.WEST, id);
+				east = !east;
+			}
+		}
+
+		String stats = game.getJournalStats();
+		game.closeJournal();
+		long nanos = System.nanoTime() - start;
+
+		if(stats != null){
+			System.out.println("journal " + stats);
+		}
+		return nanos;
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Many game clients driven from a single selector thread, so a load test can open thousands of connections without
+ * needing a thread for each one. Every command is sent with a tag, and the time until the response with that tag
+ * comes back is recorded.
+ */
+
+package dodBench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+final class LoadClients {
+
+	private final Selector selector;
+	private final List<Client> clients = new ArrayList<Client>();
+
+	private long[] latencies = new long[1 << 16]; //Nanoseconds from sending each command to its response.
+	private int latencyCount = 0;
+
+	/**
+	 * Opens the connections and says HELLO on each of them.
+	 * @param address Address of the server.
+	 * @param count How many clients to connect.
+	 * @param namePrefix Clients are named this followed by their number.
+	 */
+	LoadClients(InetSocketAddress address, int count, String namePrefix)
+			throws IOException{
+		selector = Selector.open();
+
+		for(int i = 0; i < count; i++){
+			SocketChannel channel = SocketChannel.open(address);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.configureBlocking(false);
+
+			Client client = new Client(channel);
+			channel.register(selector, SelectionKey.OP_READ, client);
+			clients.add(client);
+		}
+
+		//Everyone says hello at once, then we wait for every reply.
+		for(int i = 0; i < clients.size(); i++){
+			clients.get(i).send("HELLO " + namePrefix + i, 0);
+		}
+		pump(0, null, 30000);
+		latencyCount = 0;
+	}
+
+	/**
+	 * Has every client send a command, wait for its response, think, and send it again, until the time is up.
+	 * @param command The command, without a tag.
+	 * @param thinkMillis How long each client waits after a response before its next command.
+	 * @param durationMillis How long to keep going.
+	 * @return How many responses came back.
+	 */
+	int run(String command, long thinkMillis, long durationMillis)
+			throws IOException{
+		latencyCount = 0;
+		long now = System.nanoTime();
+		for(Client client : clients){
+			client.send(command, now);
+		}
+		pump(thinkMillis, command, durationMillis);
+
+		//Let the last commands come back, so the next run starts clean.
+		pump(0, null, 30000);
+		return latencyCount;
+	}
+
+	/**
+	 * @param fraction e.g. 0.99 for the 99th percentile.
+	 * @return The latency below which that fraction of responses came back, in microseconds.
+	 */
+	long percentileMicros(double fraction){
+		if(latencyCount == 0){
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(sorted);
+		int index = (int) Math.min(latencyCount - 1, Math.ceil(fraction * latencyCount) - 1);
+		return sorted[Math.max(0, index)] / 1000;
+	}
+
+	/**
+	 * @return How many clients are still connected.
+	 */
+	int connected(){
+		int count = 0;
+		for(Client client : clients){
+			if(client.channel.isOpen()){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Disconnects every client.
+	 */
+	void close(){
+		for(Client client : clients){
+			try{
+				client.channel.close();
+			}
+			catch(IOException e){
+				//Closing anyway.
+			}
+		}
+		try{
+			selector.close();
+		}
+		catch(IOException e){
+			//Closing anyway.
+		}
+	}
+
+	/**
+	 * Reads responses and sends commands until the time is up. With no command, stops as soon as nothing is
+	 * waiting for a response.
+	 */
+	private void pump(long thinkMillis, String command, long durationMillis)
+			throws IOException{
+		long end = System.nanoTime() + durationMillis * 1000000L;
+		long think = thinkMillis * 1000000L;
+
+		while(true){
+			long now = System.nanoTime();
+			if(now >= end){
+				if(command == null){
+					throw new IOException(outstanding() + " responses never came back");
+				}
+				return;
+			}
+			if(command == null && outstanding() == 0){
+				return;
+			}
+
+			//Wake up for the next client due to send, if any are thinking.
+			long wait = end - now;
+			if(command != null && think > 0){
+				for(Client client : clients){
+					if(client.sentAt == 0 && client.dueAt - now < wait){
+						wait = Math.max(0, client.dueAt - now);
+					}
+				}
+			}
+
+			long waitMillis = wait / 1000000L;
+			if(waitMillis > 0){
+				selector.select(waitMillis);
+			}
+			else{
+				selector.selectNow();
+			}
+
+			now = System.nanoTime();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()){
+				SelectionKey key = keys.next();
+				keys.remove();
+				Client client = (Client) key.attachment();
+				if(!key.isValid()){
+					continue;
+				}
+				if(key.isWritable()){
+					client.write();
+				}
+				if(key.isValid() && key.isReadable() && client.read(now) && command != null){
+					if(think == 0){
+						client.send(command, now);
+					}
+					else{
+						client.dueAt = now + think;
+					}
+				}
+			}
+
+			if(command != null && think > 0){
+				for(Client client : clients){
+					if(client.sentAt == 0 && client.dueAt != 0 && client.dueAt <= now){
+						client.dueAt = 0;
+						client.send(command, now);
+					}
+				}
+			}
+		}
+	}
+
+	private int outstanding(){
+		int count = 0;
+		for(Client client : clients){
+			if(client.sentAt != 0 && client.channel.isOpen()){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void record(long nanos){
+		if(latencyCount == latencies.length){
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		}
+		latencies[latencyCount++] = nanos;
+	}
+
+	/**
+	 * One connection, with at most one command waiting for its response.
+	 */
+	private final class Client {
+
+		private final SocketChannel channel;
+		private final ByteBuffer in = ByteBuffer.allocate(8192);
+		private ByteBuffer out = ByteBuffer.allocate(256);
+		private final StringBuilder line = new StringBuilder();
+
+		private int nextTag = 1;
+		private String waitingTag; //The tag the response we are waiting for starts with.
+		private long sentAt; //When the command waiting for a response was sent, or 0.
+		private long dueAt; //When a thinking client sends its next command, or 0.
+
+		Client(SocketChannel setChannel){
+			channel = setChannel;
+		}
+
+		void send(String command, long now)
+				throws IOException{
+			String tag = "#" + nextTag++;
+			byte[] bytes = (tag + " " + command + "\n").getBytes(StandardCharsets.US_ASCII);
+			if(out.remaining() < bytes.length){
+				ByteBuffer bigger = ByteBuffer.allocate(out.position() + bytes.length * 2);
+				out.flip();
+				bigger.put(out);
+				out = bigger;
+			}
+			out.put(bytes);
+
+			waitingTag = tag + " ";
+			sentAt = Math.max(1, now == 0 ? System.nanoTime() : now);
+			write();
+		}
+
+		void write()
+				throws IOException{
+			out.flip();
+			try{
+				channel.write(out);
+			}
+			catch(IOException e){
+				channel.close();
+				return;
+			}
+			out.compact();
+
+			SelectionKey key = channel.keyFor(selector);
+			if(key != null && key.isValid()){
+				key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		}
+
+		/**
+		 * Reads what has arrived.
+		 * @return True if the response we were waiting for came back.
+		 */
+		boolean read(long now)
+				throws IOException{
+			int count;
+			try{
+				count = channel.read(in);
+			}
+			catch(IOException e){
+				count = -1;
+			}
+			if(count < 0){
+				channel.close();
+				return false;
+			}
+
+			boolean answered = false;
+			in.flip();
+			while(in.hasRemaining()){
+				char c = (char) (in.get() & 0xff);
+				if(c == '\n'){
+					if(sentAt != 0 && line.length() >= waitingTag.length()
+							&& line.substring(0, waitingTag.length()).equals(waitingTag)){
+						record(now - sentAt);
+						sentAt = 0;
+						answered = true;
+					}
+					line.setLength(0);
+				}
+				else if(c != '\r' && line.length() < 64){
+					//Only the start of a line is needed to find its tag.
+					line.append(c);
+				}
+			}
+			in.clear();
+			return answered;
+		}
+	}
+}
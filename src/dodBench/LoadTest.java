@@ -0,0 +1,96 @@
+/**
+ * Load test for the connection engines. Starts a server in this JVM, connects many clients to it and has each of them
+ * LOOK over and over, then reports how many clients got in, how many threads the server needed for them and how long
+ * the replies took.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import dodServer.ConnectionMode;
+import dodServer.ServerLogic;
+import dodUtil.CommandException;
+import dodUtil.ErrorListener;
+
+public class LoadTest {
+
+	public static void main(String[] args){
+		if(args.length < 3 || args.length > 5){
+			System.err.println("Usage: LoadTest <threaded|nio|virtual> <clients> <seconds> [think millis] [loop]");
+			System.exit(1);
+		}
+
+		try{
+			ConnectionMode mode = ConnectionMode.fromName(args[0]);
+			int clients = Integer.parseInt(args[1]);
+			int seconds = Integer.parseInt(args[2]);
+			long think = args.length > 3 ? Long.parseLong(args[3]) : 0;
+			boolean loop = args.length > 4 && args[4].equals("loop");
+
+			int threadsBefore = Thread.activeCount();
+			ServerLogic server = startServer(mode, loop, clients);
+			int serverThreads = Thread.activeCount() - threadsBefore;
+
+			long start = System.nanoTime();
+			LoadClients load = new LoadClients(new InetSocketAddress("localhost", server.getPort()), clients, "load");
+			long connectMillis = (System.nanoTime() - start) / 1000000;
+			int threadsConnected = Thread.activeCount() - threadsBefore;
+
+			int responses = load.run("LOOK", think, seconds * 1000L);
+
+			System.out.println("mode " + mode + (loop ? " with game loop" : ""));
+			System.out.println("clients connected " + load.connected() + " of " + clients + " in " + connectMillis + "ms");
+			System.out.println("server threads idle " + serverThreads + ", with clients " + threadsConnected);
+			System.out.println("LOOKs " + responses + " in " + seconds + "s, " + responses / seconds + "/s");
+			System.out.println("latency p50 " + load.percentileMicros(0.50) + "us p99 " + load.percentileMicros(0.99)
+					+ "us max " + load.percentileMicros(1.0) + "us");
+
+			load.close();
+			server.stopServer();
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Clients, seconds and think time must be numbers.");
+			System.exit(1);
+		}
+		catch(CommandException e){
+			System.err.println("Failed to start server: " + e.getMessage());
+			System.exit(1);
+		}
+		catch(IOException e){
+			System.err.println("Load test failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Starts a server on a free port, with a map roomy enough for the clients.
+	 */
+	static ServerLogic startServer(ConnectionMode mode, boolean loop, int clients)
+			throws IOException, CommandException{
+		int side = Math.max(64, (int) Math.sqrt(clients * 8.0));
+		File map = BenchMaps.open(side, side, 10);
+
+		ServerLogic server = new ServerLogic(map.getPath(), freePort(), new ErrorListener(){
+			public void errorOccured(String error){
+				System.err.println("Server error: " + error);
+			}
+		}, mode, loop);
+		return server;
+	}
+
+	private static int freePort()
+			throws IOException{
+		ServerSocket probe = new ServerSocket(0);
+		try{
+			return probe.getLocalPort();
+		}
+		finally{
+			probe.close();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Times LOOK at each look distance a player can have: 2 by default and 3 with a lantern. Reports the time and the
+ * bytes allocated for each LOOK, the reply string included.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import dodServer.game.GameLogic;
+
+public class LookBench {
+
+	private static int replyChars; //Keeps the replies from being optimised away.
+
+	public static void main(String[] args){
+		if(args.length > 1){
+			System.err.println("Usage: LookBench [looks]");
+			System.exit(1);
+		}
+
+		try{
+			int looks = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+
+			//A lantern next to the gold in the top left corner, and gold scattered round the player.
+			File map = BenchMaps.open(64, 64, 7, "L", 1);
+			GameLogic game = new GameLogic(map.getPath());
+			int id = game.addPlayer(new BenchPlayer());
+			game.setPlayerPosition(32, 32, id);
+			report("distance 2", game, id, looks);
+
+			game.setPlayerPosition(2, 1, id);
+			game.clientPickup(id);
+			game.setPlayerPosition(32, 32, id);
+			report("distance 3 (lantern)", game, id, looks);
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Looks must be a number.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	private static void report(String name, GameLogic game, int id, int looks){
+		for(int i = 0; i < looks / 10; i++){
+			replyChars += game.clientLook(id).toString().length();
+		}
+
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i = 0; i < looks; i++){
+			replyChars += game.clientLook(id).toString().length();
+		}
+		long nanos = System.nanoTime() - start;
+		long bytes = allocatedBytes() - bytesBefore;
+
+		System.out.println(name + ": " + nanos / looks + "ns, " + bytes / looks + " bytes allocated a LOOK, reply "
+				+ game.clientLook(id).toString().length() + " chars");
+	}
+
+	/**
+	 * @return The bytes allocated by this thread so far, or 0 if the JVM cannot tell.
+	 */
+	private static long allocatedBytes(){
+		if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Compares LOOK replies in full and as deltas, through a NetworkedUser reading a script from a MemorySocket. In the
+ * first half of a round the player steps between two cells and looks after every step, as a client redrawing its view
+ * would; in the second it stands still and looks again and again, as a client does on each CHANGE. Each half runs in
+ * LOOKMODE FULL and then LOOKMODE DELTA, so both see the same warm JVM, and reports the time a LOOK and the bytes sent
+ * for it.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import dodServer.NetworkedUser;
+import dodServer.SessionExecutors;
+import dodServer.game.GameLogic;
+
+public class LookDeltaBench {
+
+	public static void main(String[] args){
+		if(args.length > 2){
+			System.err.println("Usage: LookDeltaBench [looks] [rounds]");
+			System.exit(1);
+		}
+
+		//Everything the session answers is queued until the writer gets to it, so make room for all of it.
+		if(System.getProperty("dod.outboundCapacity") == null){
+			System.setProperty("dod.outboundCapacity", "100000000");
+		}
+
+		try{
+			int looks = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+			int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+			//Gold round the player, so the view changes as it steps.
+			File map = BenchMaps.open(64, 64, 3);
+			GameLogic game = new GameLogic(map.getPath());
+
+			//Warm up on sessions of their own.
+			session(game, "FULL", true, looks / 5);
+			session(game, "DELTA", true, looks / 5);
+
+			for(int r = 0; r < rounds; r++){
+				System.out.println("round " + r + " stepping: full " + session(game, "FULL", true, looks) + ", delta "
+						+ session(game, "DELTA", true, looks));
+				System.out.println("round " + r + " standing: full " + session(game, "FULL", false, looks) + ", delta "
+						+ session(game, "DELTA", false, looks));
+			}
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Looks and rounds must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs a session of looks in one LOOKMODE, stepping before each if asked, and waits for its output to be written.
+	 * @return The time and bytes a LOOK, step included.
+	 */
+	private static String session(GameLogic game, String mode, boolean step, int looks)
+			throws Exception{
+		StringBuilder script = new StringBuilder("HELLO bench\nSETPLAYERPOS 20 20\nLOOKMODE " + mode + "\nLOOK\n");
+		for(int i = 0; i < looks; i++){
+			if(step){
+				script.append((i % 2 == 0) ? "SETPLAYERPOS 21 20\n" : "SETPLAYERPOS 20 20\n");
+			}
+			script.append("LOOK\n");
+		}
+
+		MemorySocket socket = new MemorySocket(script.toString().getBytes(StandardCharsets.US_ASCII), false);
+		NetworkedUser user = new NetworkedUser(game, socket, SessionExecutors.writerPerSession());
+
+		long start = System.nanoTime();
+		user.run();
+		long nanos = System.nanoTime() - start;
+
+		socket.awaitClose();
+		return nanos / looks + "ns " + socket.getBytes() / looks + " bytes";
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Throughput of one game under many threads, with the game locked (monitor) or owned by its event loop (loop). Each
+ * thread plays its own player and alternates LOOK with SETPLAYERPOS between two cells of its own, so every other
+ * command changes the game. In loop mode every command goes through GameLogic.submit and waits for its future, as
+ * CommandLineUser does.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dodServer.game.GameLogic;
+import dodServer.game.LookView;
+import dodUtil.CommandException;
+
+public class LoopThroughput {
+
+	private static final int HOME_COL = 10; //Each player moves between this column and the next.
+
+	public static void main(String[] args){
+		if(args.length != 3){
+			System.err.println("Usage: LoopThroughput <monitor|loop> <threads> <seconds>");
+			System.exit(1);
+		}
+
+		try{
+			final boolean loop = args[0].equals("loop");
+			int threads = Integer.parseInt(args[1]);
+			int seconds = Integer.parseInt(args[2]);
+
+			File map = BenchMaps.open(64, Math.max(64, threads * 2 + 4), 0);
+			final GameLogic game = new GameLogic(map.getPath());
+			if(loop){
+				game.startEventLoop("dod-bench-game");
+			}
+
+			//Give every player a row of its own to move in.
+			final int[] ids = new int[threads];
+			final int[] rows = new int[threads];
+			final AtomicInteger nextRow = new AtomicInteger(1);
+			for(int i = 0; i < threads; i++){
+				final int index = i;
+				call(game, loop, new Callable<Void>(){
+					public Void call() throws Exception{
+						ids[index] = game.addPlayer(new BenchPlayer());
+						while(true){
+							int row = nextRow.getAndAdd(2);
+							try{
+								game.setPlayerPosition(HOME_COL + 1, row, ids[index]);
+								game.setPlayerPosition(HOME_COL, row, ids[index]);
+								rows[index] = row;
+								return null;
+							}
+							catch(CommandException e){
+								//Someone started on this row, try the next one.
+							}
+						}
+					}
+				});
+			}
+
+			final AtomicLong commands = new AtomicLong();
+			final long end = System.nanoTime() + seconds * 1000000000L;
+			final CountDownLatch done = new CountDownLatch(threads);
+			for(int i = 0; i < threads; i++){
+				final int id = ids[i];
+				final int row = rows[i];
+				new Thread(new Runnable(){
+					public void run(){
+						long count = 0;
+						int col = HOME_COL;
+						try{
+							while(System.nanoTime() < end){
+								call(game, loop, new Callable<LookView>(){
+									public LookView call(){
+										return game.clientLook(id);
+									}
+								});
+
+								col = (col == HOME_COL) ? HOME_COL + 1 : HOME_COL;
+								final int moveTo = col;
+								call(game, loop, new Callable<Void>(){
+									public Void call() throws Exception{
+										game.setPlayerPosition(moveTo, row, id);
+										return null;
+									}
+								});
+								count += 2;
+							}
+						}
+						catch(Exception e){
+							System.err.println("Command failed: " + e);
+						}
+						commands.addAndGet(count);
+						done.countDown();
+					}
+				}, "dod-bench-" + i).start();
+			}
+			done.await();
+
+			System.out.println("mode " + (loop ? "loop" : "monitor") + ", threads " + threads);
+			System.out.println("commands " + commands.get() + " in " + seconds + "s, " + commands.get() / seconds + "/s");
+			if(loop){
+				System.out.println("average command on the game thread " + game.getAverageTaskNanos() + "ns");
+			}
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Threads and seconds must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs a command the way the server would: straight away under the lock, or on the game thread.
+	 */
+	private static <T> T call(GameLogic game, boolean loop, Callable<T> command)
+			throws Exception{
+		if(!loop){
+			return command.call();
+		}
+		try{
+			return game.submit(command).get();
+		}
+		catch(ExecutionException e){
+			throw (Exception) e.getCause();
+		}
+	}
+}
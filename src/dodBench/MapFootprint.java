@@ -0,0 +1,122 @@
+/**
+ * Compares the heap a map keeps in the two tile layouts: the old Tile[][], one Tile object per cell and an item
+ * object for each item, against Map's byte per cell and table of items. Both are built from the same generated text
+ * map, and each is measured as the heap still used, after a collection, while it is held.
+ */
+
+package dodBench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import dodServer.game.Map;
+import dodServer.game.Tile;
+
+public class MapFootprint {
+
+	public static void main(String[] args){
+		if(args.length > 2){
+			System.err.println("Usage: MapFootprint [side] [gold every]");
+			System.exit(1);
+		}
+
+		try{
+			int side = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+			int goldEvery = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+			File file = BenchMaps.open(side, side, goldEvery);
+			long cells = (long) side * side;
+
+			long before = retainedHeap();
+			Tile[][] tiles = readTiles(file, side, side);
+			long tileBytes = retainedHeap() - before;
+			System.out.println("map " + side + "x" + side + ", " + countItems(tiles) + " items");
+			report("Tile[][]", tileBytes, cells);
+
+			//Let the tiles go before building the map.
+			tiles = null;
+
+			before = retainedHeap();
+			Map map = new Map(file.getPath());
+			long mapBytes = retainedHeap() - before;
+			report("byte[] and item table", mapBytes, cells);
+			System.out.println(map.getMapWidth() + "x" + map.getMapHeight() + " map is "
+					+ String.format("%.1f", tileBytes / (double) mapBytes) + "x smaller");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Side and gold must be numbers.");
+			System.exit(1);
+		}
+		catch(OutOfMemoryError e){
+			System.err.println("Ran out of heap; run with a bigger -Xmx.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Reads the map's cells into a Tile[][], as Map used to hold them.
+	 */
+	private static Tile[][] readTiles(File file, int width, int height)
+			throws IOException{
+		Tile[][] tiles = new Tile[height][width];
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try{
+			//The name and goal lines.
+			reader.readLine();
+			reader.readLine();
+
+			for(int row = 0; row < height; row++){
+				String line = reader.readLine();
+				for(int col = 0; col < width; col++){
+					tiles[row][col] = Tile.fromChar(line.charAt(col));
+				}
+			}
+		}
+		finally{
+			reader.close();
+		}
+		return tiles;
+	}
+
+	private static int countItems(Tile[][] tiles){
+		int count = 0;
+		for(Tile[] row : tiles){
+			for(Tile tile : row){
+				if(tile.hasItem()){
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static void report(String layout, long bytes, long cells){
+		System.out.println(layout + ": " + bytes / 1024 / 1024 + "MB, " + String.format("%.2f", bytes / (double) cells)
+				+ " bytes a cell");
+	}
+
+	/**
+	 * @return The heap in use once everything unreachable has been collected.
+	 */
+	private static long retainedHeap(){
+		long used = Long.MAX_VALUE;
+		//A few collections, until nothing more is freed.
+		for(int i = 0; i < 5; i++){
+			System.gc();
+			long now = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+			if(now >= used){
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+}
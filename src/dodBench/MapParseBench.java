@@ -0,0 +1,89 @@
+/**
+ * Times parsing a generated text map and measures the peak heap used while parsing it. Run each size in a JVM of its
+ * own, so the peak of one parse does not hide the next.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import dodServer.game.Map;
+
+public class MapParseBench {
+
+	public static void main(String[] args){
+		if(args.length != 1){
+			System.err.println("Usage: MapParseBench <million cells, e.g. 1, 16 or 64>");
+			System.exit(1);
+		}
+
+		try{
+			int millions = Integer.parseInt(args[0]);
+			int side = (int) Math.sqrt(millions * 1000000.0);
+
+			//Sparse gold, so the heap is mostly the tiles rather than the item table.
+			File file = BenchMaps.open(side, side, 1000);
+			long fileBytes = file.length();
+
+			System.gc();
+			long heapBefore = heapUsed();
+			resetPeaks();
+
+			long start = System.nanoTime();
+			Map map = new Map(file.getPath());
+			long nanos = System.nanoTime() - start;
+			long peak = heapPeak();
+
+			System.gc();
+			long heapAfter = heapUsed();
+
+			System.out.println("map " + map.getMapWidth() + "x" + map.getMapHeight() + ", file " + fileBytes / 1024
+					+ "KB");
+			System.out.println("parse " + nanos / 1000000 + "ms");
+			System.out.println("peak heap while parsing " + (peak - heapBefore) / 1024 / 1024 + "MB, map kept "
+					+ (heapAfter - heapBefore) / 1024 / 1024 + "MB");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("The size must be a number.");
+			System.exit(1);
+		}
+		catch(OutOfMemoryError e){
+			System.err.println("Ran out of heap parsing the map.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	private static void resetPeaks(){
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP){
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return The sum of the peaks of the heap pools. The pools may peak at different times, so this can be a little
+	 * more than the heap ever held at once.
+	 */
+	private static long heapPeak(){
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP){
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static long heapUsed(){
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * A socket with no network behind it, so a NetworkedUser can be driven from a script of commands in memory. Like a
+ * real client, the script waits for something to come back before it sends its next command. Every write call that
+ * reaches the socket is counted, as each would be a system call on a real one.
+ */
+
+package dodBench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class MemorySocket extends Socket {
+
+	private static final long REPLY_TIMEOUT = 10000; //Milliseconds to wait for a reply before giving up on it.
+
+	private final byte[] script;
+	private final boolean paced;
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	private int position = 0; //Where the next byte of the script comes from.
+	private long writes = 0;
+	private long bytes = 0;
+	private long writesSeen = 0; //The writes there had been when the last command was sent.
+
+	private final InputStream input = new InputStream(){
+		public int read()
+				throws IOException{
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) == -1) ? -1 : one[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len)
+				throws IOException{
+			return readScript(b, off, len);
+		}
+	};
+
+	private final OutputStream output = new OutputStream(){
+		public void write(int b){
+			wrote(1);
+		}
+
+		public void write(byte[] b, int off, int len){
+			wrote(len);
+		}
+	};
+
+	/**
+	 * @param setScript What the client sends, a command a line. The session ends when it has all been read.
+	 * @param setPaced True to wait for a reply to each command before sending the next.
+	 */
+	MemorySocket(byte[] setScript, boolean setPaced){
+		script = setScript;
+		paced = setPaced;
+	}
+
+	public InputStream getInputStream(){
+		return input;
+	}
+
+	public OutputStream getOutputStream(){
+		return output;
+	}
+
+	public InetAddress getInetAddress(){
+		return InetAddress.getLoopbackAddress();
+	}
+
+	public boolean isClosed(){
+		return closed.getCount() == 0;
+	}
+
+	public void close(){
+		closed.countDown();
+		synchronized(this){
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for the server to close the socket, which it does once everything queued has been written.
+	 */
+	void awaitClose()
+			throws IOException, InterruptedException{
+		if(!closed.await(30, TimeUnit.SECONDS)){
+			throw new IOException("The session was never closed");
+		}
+	}
+
+	/**
+	 * @return How many write calls reached the socket.
+	 */
+	synchronized long getWrites(){
+		return writes;
+	}
+
+	/**
+	 * @return How many bytes were written to the socket.
+	 */
+	synchronized long getBytes(){
+		return bytes;
+	}
+
+	private synchronized void wrote(int count){
+		writes++;
+		bytes += count;
+		notifyAll();
+	}
+
+	/**
+	 * Hands out the script a line at a time, waiting for a reply to each line first if paced.
+	 */
+	private synchronized int readScript(byte[] b, int off, int len)
+			throws IOException{
+		if(position == script.length){
+			return -1;
+		}
+
+		if(paced && position > 0 && script[position - 1] == '\n'){
+			long deadline = System.currentTimeMillis() + REPLY_TIMEOUT;
+			while(writes == writesSeen && !isClosed()){
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0){
+					throw new IOException("No reply to the last command");
+				}
+				try{
+					wait(wait);
+				}
+				catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for a reply");
+				}
+			}
+		}
+		writesSeen = writes;
+
+		int count = 0;
+		while(count < len && position < script.length){
+			byte next = script[position++];
+			b[off + count++] = next;
+			if(next == '\n' && paced){
+				break;
+			}
+		}
+		return count;
+	}
+}
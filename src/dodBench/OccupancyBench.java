@@ -0,0 +1,89 @@
+/**
+ * Times the GameLogic queries that need to know who is standing where, on a big map full of players: joining,
+ * SETPLAYERPOS onto random cells, and rendering the whole map with getMap.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.util.Random;
+
+import dodServer.game.GameLogic;
+import dodUtil.CommandException;
+
+public class OccupancyBench {
+
+	public static void main(String[] args){
+		if(args.length != 0 && args.length != 4){
+			System.err.println("Usage: OccupancyBench [<width> <height> <players> <moves>]");
+			System.exit(1);
+		}
+
+		try{
+			int width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+			int height = args.length > 0 ? Integer.parseInt(args[1]) : 1000;
+			int players = args.length > 0 ? Integer.parseInt(args[2]) : 500;
+			int moves = args.length > 0 ? Integer.parseInt(args[3]) : 1000000;
+
+			File map = BenchMaps.open(width, height, 0);
+			GameLogic game = new GameLogic(map.getPath());
+
+			long start = System.nanoTime();
+			int[] ids = new int[players];
+			for(int i = 0; i < players; i++){
+				ids[i] = game.addPlayer(new BenchPlayer());
+			}
+			long joinNanos = System.nanoTime() - start;
+
+			//Warm up, then time moves onto random cells. Moves onto a taken cell are refused, and still count.
+			Random random = new Random(1);
+			int refused = move(game, ids, random, width, height, moves / 10);
+			start = System.nanoTime();
+			refused = move(game, ids, random, width, height, moves);
+			long moveNanos = System.nanoTime() - start;
+
+			int renders = 20;
+			char[][] view = game.getMap();
+			start = System.nanoTime();
+			for(int i = 0; i < renders; i++){
+				//Move someone first, so the map has changed each time.
+				move(game, ids, random, width, height, 1);
+				view = game.getMap();
+			}
+			long renderNanos = System.nanoTime() - start;
+
+			System.out.println("map " + width + "x" + height + ", " + players + " players");
+			System.out.println("join " + joinNanos / players + "ns each");
+			System.out.println("SETPLAYERPOS " + moveNanos / moves + "ns each, " + refused + " of " + moves + " refused");
+			System.out.println("getMap " + renderNanos / renders / 1000 + "us each, " + view.length + " rows");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Width, height, players and moves must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Moves random players onto random cells inside the walls.
+	 * @return How many moves were refused because the cell was taken.
+	 */
+	private static int move(GameLogic game, int[] ids, Random random, int width, int height, int moves){
+		int refused = 0;
+		for(int i = 0; i < moves; i++){
+			int col = 1 + random.nextInt(width - 3);
+			int row = 1 + random.nextInt(height - 3);
+			try{
+				game.setPlayerPosition(col, row, ids[random.nextInt(ids.length)]);
+			}
+			catch(CommandException e){
+				refused++;
+			}
+		}
+		return refused;
+	}
+}
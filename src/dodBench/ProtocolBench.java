@@ -0,0 +1,253 @@
+/**
+ * Compares the text and binary protocols on the same turns. A client on each protocol plays a scripted turn against a
+ * server in this JVM, the bytes it receives are counted, and then those bytes are parsed over and over the way
+ * NetworkClient and LookParser parse them.
+ */
+
+package dodBench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import dodClients.LookParser;
+import dodServer.ConnectionMode;
+import dodServer.ServerLogic;
+import dodUtil.BinaryProtocol;
+
+public class ProtocolBench {
+
+	//One turn: look round, step out and back, looking each time, then end the turn.
+	private static final String[] TURN = {"LOOK", "MOVE E", "LOOK", "MOVE W", "LOOK", "ENDTURN"};
+
+	private static int parsedLooks; //Keeps the parsing from being optimised away.
+
+	public static void main(String[] args){
+		if(args.length > 2){
+			System.err.println("Usage: ProtocolBench [turns] [parse rounds]");
+			System.exit(1);
+		}
+
+		try{
+			int turns = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+			int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+			ServerLogic server = LoadTest.startServer(ConnectionMode.THREADED, false, 1);
+
+			byte[] text = play(server.getPort(), false, turns);
+			byte[] binary = play(server.getPort(), true, turns);
+			byte[] textLook = play(server.getPort(), false, 0);
+			byte[] binaryLook = play(server.getPort(), true, 0);
+
+			System.out.println("bytes a turn (" + String.join(", ", TURN) + "): text " + text.length / turns
+					+ ", binary " + binary.length / turns);
+			System.out.println("bytes a 5x5 LOOK: text " + textLook.length + ", binary " + binaryLook.length);
+
+			//Warm up, then time parsing.
+			parse(text, false, rounds / 10);
+			parse(binary, true, rounds / 10);
+			long start = System.nanoTime();
+			parse(text, false, rounds);
+			long textNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			parse(binary, true, rounds);
+			long binaryNanos = System.nanoTime() - start;
+
+			System.out.println("parse a turn: text " + textNanos / rounds / turns + "ns, binary "
+					+ binaryNanos / rounds / turns + "ns");
+			server.stopServer();
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Turns and rounds must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Joins the game, puts the player in the same place each time and plays the turns.
+	 * @param turns How many turns to play, or 0 for a single LOOK.
+	 * @return Every byte received while playing.
+	 */
+	private static byte[] play(int port, boolean binary, int turns)
+			throws IOException{
+		Socket socket = new Socket("localhost", port);
+		try{
+			OutputStream out = socket.getOutputStream();
+			CountingInputStream in = new CountingInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			send(out, "HELLO bench");
+			while(!readLine(in).startsWith("HELLO")){
+			}
+			if(binary){
+				send(out, BinaryProtocol.NEGOTIATE);
+				while(!readLine(in).equals(BinaryProtocol.NEGOTIATE)){
+				}
+			}
+			send(out, "SETPLAYERPOS 20 20");
+			awaitResponse(in, binary, "SETPLAYERPOS");
+
+			in.record();
+			if(turns == 0){
+				send(out, "LOOK");
+				awaitResponse(in, binary, "LOOK");
+			}
+			for(int t = 0; t < turns; t++){
+				for(String command : TURN){
+					send(out, command);
+					awaitResponse(in, binary, command);
+				}
+			}
+			return in.recorded();
+		}
+		finally{
+			socket.close();
+		}
+	}
+
+	/**
+	 * Reads messages until the one that answers the command has arrived.
+	 */
+	private static void awaitResponse(CountingInputStream in, boolean binary, String command)
+			throws IOException{
+		List<String> lines = new ArrayList<String>();
+		int lookRows = -1; //Rows of the look still to come, or -1 if no look has started.
+		while(true){
+			if(binary){
+				BinaryProtocol.decode(in, lines);
+			}
+			else{
+				lines.add(readLine(in));
+			}
+
+			for(String line : lines){
+				if(line.startsWith("FAIL")){
+					throw new IOException(command + " failed: " + line);
+				}
+				if(lookRows > 0){
+					lookRows--;
+				}
+				else if(line.equals("LOOKREPLY")){
+					lookRows = 5;
+				}
+				if((command.equals("LOOK") && lookRows == 0)
+						|| (command.equals("ENDTURN") && line.equals("STARTTURN"))
+						|| (!command.equals("LOOK") && !command.equals("ENDTURN") && line.equals("SUCCESS"))){
+					return;
+				}
+			}
+			lines.clear();
+		}
+	}
+
+	/**
+	 * Parses what a client received, as NetworkClient and LookParser would.
+	 */
+	private static void parse(byte[] received, boolean binary, int rounds)
+			throws IOException{
+		for(int r = 0; r < rounds; r++){
+			LookParser looks = new LookParser();
+			if(binary){
+				ByteArrayInputStream in = new ByteArrayInputStream(received);
+				List<String> lines = new ArrayList<String>();
+				while(in.available() > 0){
+					BinaryProtocol.decode(in, lines);
+					for(String line : lines){
+						handle(looks, line);
+					}
+					lines.clear();
+				}
+			}
+			else{
+				BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(received),
+						StandardCharsets.UTF_8));
+				String line;
+				while((line = in.readLine()) != null){
+					handle(looks, line);
+				}
+			}
+		}
+	}
+
+	private static void handle(LookParser looks, String line){
+		if(looks.isPartOfLook(line) && looks.hasLook()){
+			parsedLooks += looks.getLook().length;
+		}
+	}
+
+	private static void send(OutputStream out, String command)
+			throws IOException{
+		out.write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	/**
+	 * Reads a text line without reading past it, so the frames after a protocol switch are left in the stream.
+	 */
+	private static String readLine(InputStream in)
+			throws IOException{
+		StringBuilder line = new StringBuilder();
+		int c;
+		while((c = in.read()) != '\n'){
+			if(c == -1){
+				throw new IOException("Server closed the connection");
+			}
+			if(c != '\r'){
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Keeps a copy of every byte read once recording starts.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private ByteArrayOutputStream copy = null;
+
+		CountingInputStream(InputStream in){
+			super(in);
+		}
+
+		void record(){
+			copy = new ByteArrayOutputStream();
+		}
+
+		byte[] recorded(){
+			return copy.toByteArray();
+		}
+
+		public int read()
+				throws IOException{
+			int b = super.read();
+			if(b != -1 && copy != null){
+				copy.write(b);
+			}
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len)
+				throws IOException{
+			int n = super.read(b, off, len);
+			if(n > 0 && copy != null){
+				copy.write(b, off, n);
+			}
+			return n;
+		}
+	}
+}
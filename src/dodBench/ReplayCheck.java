@@ -0,0 +1,205 @@
+/**
+ * Checks that seeded games can be reproduced. Plays the same random stream of commands into games and compares what
+ * they end up as: the rendered map, every player's AP and how many numbers the dice have rolled.
+ * <ul>
+ * <li>Two games with the same seed must end identical.</li>
+ * <li>A game with another seed should not.</li>
+ * <li>Games recovered from the journal, with and without snapshots, must match the live game.</li>
+ * <li>nextInt(13) must be flat.</li>
+ * </ul>
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import dodServer.game.CompassDirection;
+import dodServer.game.GameJournal;
+import dodServer.game.GameLogic;
+import dodServer.game.GameRandom;
+import dodServer.game.SnapshotWriter;
+import dodUtil.CommandException;
+
+public class ReplayCheck {
+
+	private static final int PLAYERS = 4;
+
+	public static void main(String[] args){
+		if(args.length > 2){
+			System.err.println("Usage: ReplayCheck [commands] [seed]");
+			System.exit(1);
+		}
+
+		//Snapshot often, so recovery starts from one part way through. Read once, when snapshots are first used.
+		if(System.getProperty("dod.snapshotRecords") == null){
+			System.setProperty("dod.snapshotRecords", "100");
+		}
+
+		try{
+			int commands = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+			long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+			File map = BenchMaps.open(12, 12, 4, "", 20);
+			File dir = Files.createTempDirectory("dod-bench-replay").toFile();
+			File journalFile = new File(dir, "replay.journal");
+			File snapshotFile = new File(dir, "replay.snapshot");
+			journalFile.deleteOnExit();
+			snapshotFile.deleteOnExit();
+			dir.deleteOnExit();
+
+			boolean passed = true;
+
+			GameRandom firstDice = new GameRandom(seed);
+			GameLogic first = new GameLogic(map.getPath(), firstDice);
+			first.recover(GameJournal.open(journalFile, map.getPath(), seed), new SnapshotWriter(snapshotFile));
+			int[] firstIDs = play(first, commands);
+
+			GameRandom secondDice = new GameRandom(seed);
+			GameLogic second = new GameLogic(map.getPath(), secondDice);
+			int[] secondIDs = play(second, commands);
+			boolean same = same(first, firstIDs, second, secondIDs) && firstDice.getCounter() == secondDice.getCounter();
+			System.out.println("same seed: " + (same ? "identical" : "DIFFERENT") + ", dice rolled "
+					+ firstDice.getCounter() + " and " + secondDice.getCounter());
+			passed &= same;
+
+			GameRandom otherDice = new GameRandom(seed + 1);
+			GameLogic other = new GameLogic(map.getPath(), otherDice);
+			int[] otherIDs = play(other, commands);
+			boolean diverged = !same(first, firstIDs, other, otherIDs);
+			System.out.println("other seed: " + (diverged ? "diverged" : "IDENTICAL") + ", dice rolled "
+					+ otherDice.getCounter());
+			passed &= diverged;
+
+			//Wait for the last snapshot to be written, then close the journal.
+			Thread.sleep(500);
+			String stats = first.getJournalStats();
+			first.closeJournal();
+			Thread.sleep(500);
+			System.out.println("journal " + stats);
+
+			GameRandom snapshotDice = new GameRandom(seed);
+			GameLogic fromSnapshot = new GameLogic(map.getPath(), snapshotDice);
+			int tail = fromSnapshot.recover(GameJournal.open(journalFile, null, seed), new SnapshotWriter(snapshotFile));
+			fromSnapshot.closeJournal();
+			boolean matched = same(first, firstIDs, fromSnapshot, firstIDs)
+					&& snapshotDice.getCounter() == firstDice.getCounter();
+			System.out.println("snapshot and " + tail + " records: " + (matched ? "matches" : "DOES NOT MATCH")
+					+ ", dice rolled " + snapshotDice.getCounter());
+			passed &= matched;
+
+			GameRandom replayDice = new GameRandom(seed);
+			GameLogic replayed = new GameLogic(map.getPath(), replayDice);
+			int all = replayed.recover(GameJournal.open(journalFile, null, seed), null);
+			replayed.closeJournal();
+			matched = same(first, firstIDs, replayed, firstIDs) && replayDice.getCounter() == firstDice.getCounter();
+			System.out.println("full replay of " + all + " records: " + (matched ? "matches" : "DOES NOT MATCH")
+					+ ", dice rolled " + replayDice.getCounter());
+			passed &= matched;
+
+			passed &= flat(seed);
+
+			System.out.println(passed ? "PASSED" : "FAILED");
+			System.exit(passed ? 0 : 1);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Commands and seed must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Check failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Adds the players, then has them try random commands. Commands the game refuses, e.g. out of turn, are part of
+	 * the stream too. A player who loses is replaced, so the fighting goes on. The stream depends only on the command
+	 * count, never on the game's dice.
+	 * @return The IDs of the players.
+	 */
+	private static int[] play(GameLogic game, int commands){
+		Random script = new Random(42);
+		CompassDirection[] directions = CompassDirection.values();
+
+		int[] ids = new int[PLAYERS];
+		BenchPlayer[] players = new BenchPlayer[PLAYERS];
+		for(int p = 0; p < PLAYERS; p++){
+			players[p] = new BenchPlayer();
+			ids[p] = game.addPlayer(players[p]);
+		}
+
+		for(int i = 0; i < commands; i++){
+			int p = script.nextInt(PLAYERS);
+			if(players[p].lost){
+				game.removePlayer(ids[p]);
+				players[p] = new BenchPlayer();
+				ids[p] = game.addPlayer(players[p]);
+			}
+
+			int id = ids[p];
+			CompassDirection direction = directions[script.nextInt(directions.length)];
+			try{
+				switch(script.nextInt(4)){
+				case 0:
+					game.clientMove(direction, id);
+					break;
+				case 1:
+					game.clientAttack(direction, id);
+					break;
+				case 2:
+					game.clientPickup(id);
+					break;
+				default:
+					game.clientEndTurn(id);
+					break;
+				}
+			}
+			catch(CommandException e){
+				//Refused, as it would be for a client.
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return True if the two games show the same map and their players have the same AP.
+	 */
+	private static boolean same(GameLogic a, int[] aIDs, GameLogic b, int[] bIDs){
+		if(!Arrays.deepEquals(a.getMap(), b.getMap())){
+			return false;
+		}
+		for(int p = 0; p < aIDs.length; p++){
+			if(a.getAp(aIDs[p]) != b.getAp(bIDs[p])){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Rolls nextInt(13) 1.3M times and checks the counts with a chi-squared test.
+	 */
+	private static boolean flat(long seed){
+		GameRandom dice = new GameRandom(seed);
+		int[] counts = new int[13];
+		int draws = 1300000;
+		for(int i = 0; i < draws; i++){
+			counts[dice.nextInt(13)]++;
+		}
+
+		double expected = draws / 13.0;
+		double chiSquared = 0;
+		for(int count : counts){
+			chiSquared += (count - expected) * (count - expected) / expected;
+		}
+
+		//The 99.9th percentile of chi-squared with 12 degrees of freedom.
+		boolean flat = chiSquared < 32.91;
+		System.out.println("nextInt(13) over " + draws + " draws: " + Arrays.toString(counts) + ", chi-squared "
+				+ String.format("%.1f", chiSquared) + (flat ? ", flat" : ", NOT FLAT"));
+		return flat;
+	}
+}
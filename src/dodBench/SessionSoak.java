@@ -0,0 +1,80 @@
+/**
+ * Soak test for the session executors. Opens many sessions against a server in this JVM and reports the threads and
+ * heap they cost while idle, then has every session LOOK now and again and reports the latency.
+ */
+
+package dodBench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+
+import dodServer.ConnectionMode;
+import dodServer.ServerLogic;
+import dodUtil.CommandException;
+
+public class SessionSoak {
+
+	public static void main(String[] args){
+		if(args.length < 2 || args.length > 4){
+			System.err.println("Usage: SessionSoak <threaded|virtual|nio> <sessions> [active seconds] [think millis]");
+			System.exit(1);
+		}
+
+		try{
+			ConnectionMode mode = ConnectionMode.fromName(args[0]);
+			int sessions = Integer.parseInt(args[1]);
+			int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+			long think = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			ServerLogic server = LoadTest.startServer(mode, false, sessions);
+			long heapBefore = usedHeap(memory);
+			int threadsBefore = Thread.activeCount();
+
+			long start = System.nanoTime();
+			LoadClients load = new LoadClients(new InetSocketAddress("localhost", server.getPort()), sessions, "soak");
+			long connectMillis = (System.nanoTime() - start) / 1000000;
+
+			Thread.sleep(1000);
+			long heapIdle = usedHeap(memory);
+			int threadsIdle = Thread.activeCount() - threadsBefore;
+
+			System.out.println("mode " + mode);
+			System.out.println("idle sessions " + load.connected() + " of " + sessions + " in " + connectMillis + "ms");
+			System.out.println("idle threads " + threadsIdle + ", heap " + (heapIdle - heapBefore) / 1024 / 1024 + "MB, "
+					+ (heapIdle - heapBefore) / Math.max(1, sessions) + " bytes a session");
+
+			int responses = load.run("LOOK", think, seconds * 1000L);
+			System.out.println("active sessions " + load.connected() + ", threads " + (Thread.activeCount() - threadsBefore)
+					+ ", LOOKs " + responses + " in " + seconds + "s");
+			System.out.println("latency p50 " + load.percentileMicros(0.50) + "us p99 " + load.percentileMicros(0.99)
+					+ "us max " + load.percentileMicros(1.0) + "us");
+
+			load.close();
+			server.stopServer();
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Sessions, seconds and think time must be numbers.");
+			System.exit(1);
+		}
+		catch(CommandException e){
+			System.err.println("Failed to start server: " + e.getMessage());
+			System.exit(1);
+		}
+		catch(IOException e){
+			System.err.println("Soak failed: " + e.getMessage());
+			System.exit(1);
+		}
+		catch(InterruptedException e){
+			System.exit(1);
+		}
+	}
+
+	private static long usedHeap(MemoryMXBean memory){
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
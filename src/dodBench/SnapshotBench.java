@@ -0,0 +1,123 @@
+/**
+ * Measures snapshots of a journalled game on a big map full of items: how large a snapshot is, how long the game
+ * pauses to take one and how long writing it takes, then how long recovery takes from the snapshot and its journal
+ * tail, against replaying the whole journal.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import dodServer.game.CompassDirection;
+import dodServer.game.GameJournal;
+import dodServer.game.GameLogic;
+import dodServer.game.GameRandom;
+import dodServer.game.SnapshotWriter;
+import dodUtil.CommandException;
+
+public class SnapshotBench {
+
+	private static final long SEED = 1;
+
+	public static void main(String[] args){
+		if(args.length != 0 && args.length != 3){
+			System.err.println("Usage: SnapshotBench [<side> <gold every> <commands>]");
+			System.exit(1);
+		}
+
+		//Read once, when snapshots are first used.
+		if(System.getProperty("dod.snapshotRecords") == null){
+			System.setProperty("dod.snapshotRecords", "10000");
+		}
+
+		try{
+			int side = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+			int goldEvery = args.length > 0 ? Integer.parseInt(args[1]) : 20;
+			int commands = args.length > 0 ? Integer.parseInt(args[2]) : 100000;
+
+			File map = BenchMaps.open(side, side, goldEvery);
+			File dir = Files.createTempDirectory("dod-bench-snapshot").toFile();
+			File journalFile = new File(dir, "bench.journal");
+			File snapshotFile = new File(dir, "bench.snapshot");
+			journalFile.deleteOnExit();
+			snapshotFile.deleteOnExit();
+			dir.deleteOnExit();
+
+			long start = System.nanoTime();
+			GameLogic game = new GameLogic(map.getPath(), new GameRandom(SEED));
+			long loadMillis = (System.nanoTime() - start) / 1000000;
+			game.recover(GameJournal.open(journalFile, map.getPath(), SEED), new SnapshotWriter(snapshotFile));
+
+			play(game, side, commands);
+
+			//Let the last snapshot be written before reading its figures.
+			Thread.sleep(2000);
+			System.out.println("map " + side + "x" + side + " loaded in " + loadMillis + "ms");
+			System.out.println(commands + " commands, " + game.getJournalStats());
+			game.closeJournal();
+			Thread.sleep(500);
+
+			start = System.nanoTime();
+			GameLogic recovered = new GameLogic(map.getPath(), new GameRandom(SEED));
+			long reloadNanos = System.nanoTime() - start;
+			int tail = recovered.recover(GameJournal.open(journalFile, null, SEED), new SnapshotWriter(snapshotFile));
+			long snapshotNanos = System.nanoTime() - start - reloadNanos;
+			recovered.closeJournal();
+
+			start = System.nanoTime();
+			GameLogic replayed = new GameLogic(map.getPath(), new GameRandom(SEED));
+			reloadNanos = System.nanoTime() - start;
+			int all = replayed.recover(GameJournal.open(journalFile, null, SEED), null);
+			long replayNanos = System.nanoTime() - start - reloadNanos;
+			replayed.closeJournal();
+
+			System.out.println("recovery from the snapshot and " + tail + " records " + snapshotNanos / 1000000
+					+ "ms, replaying all " + all + " records " + replayNanos / 1000000 + "ms (map load not included)");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Side, gold and commands must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Walks a player east along a row, picking up whatever it finds and ending its turn when its AP runs out, so the
+	 * items on the map keep changing.
+	 */
+	private static void play(GameLogic game, int side, int commands)
+			throws CommandException{
+		int id = game.addPlayer(new BenchPlayer());
+		int col = 2;
+		int row = side / 2;
+		game.setPlayerPosition(col, row, id);
+
+		for(int i = 0; i < commands; i++){
+			if(game.getAp(id) == 0){
+				game.clientEndTurn(id);
+				continue;
+			}
+			try{
+				game.clientPickup(id);
+				continue;
+			}
+			catch(CommandException e){
+				//Nothing here, so move on.
+			}
+			if(col >= side - 3){
+				col = 2;
+				row = (row + 1 < side - 2) ? row + 1 : 2;
+				game.setPlayerPosition(col, row, id);
+			}
+			else{
+				game.clientMove(CompassDirection.EAST, id);
+				col++;
+			}
+		}
+	}
+}
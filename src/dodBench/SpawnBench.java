@@ -0,0 +1,71 @@
+/**
+ * Times a join storm: many players joining one game at the same moment, each placed on a random free cell.
+ */
+
+package dodBench;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import dodServer.game.GameLogic;
+
+public class SpawnBench {
+
+	public static void main(String[] args){
+		if(args.length != 0 && args.length != 4){
+			System.err.println("Usage: SpawnBench [<width> <height> <joins> <threads>]");
+			System.exit(1);
+		}
+
+		try{
+			int width = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+			int height = args.length > 0 ? Integer.parseInt(args[1]) : 1500;
+			final int joins = args.length > 0 ? Integer.parseInt(args[2]) : 1000;
+			int threads = args.length > 0 ? Integer.parseInt(args[3]) : 16;
+
+			File map = BenchMaps.open(width, height, 10);
+			long start = System.nanoTime();
+			final GameLogic game = new GameLogic(map.getPath());
+			long loadMillis = (System.nanoTime() - start) / 1000000;
+
+			//Every thread waits at the gate, so the joins all arrive together.
+			final CountDownLatch gate = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(threads);
+			for(int t = 0; t < threads; t++){
+				final int share = joins / threads + (t < joins % threads ? 1 : 0);
+				new Thread(new Runnable(){
+					public void run(){
+						try{
+							gate.await();
+							for(int i = 0; i < share; i++){
+								game.addPlayer(new BenchPlayer());
+							}
+						}
+						catch(InterruptedException e){
+							Thread.currentThread().interrupt();
+						}
+						done.countDown();
+					}
+				}, "dod-bench-join-" + t).start();
+			}
+
+			start = System.nanoTime();
+			gate.countDown();
+			done.await();
+			long joinNanos = System.nanoTime() - start;
+
+			System.out.println("map " + width + "x" + height + " loaded in " + loadMillis + "ms");
+			System.out.println(joins + " joins from " + threads + " threads in " + joinNanos / 1000000
+					+ "ms, " + joinNanos / joins / 1000 + "us each");
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Width, height, joins and threads must be numbers.");
+			System.exit(1);
+		}
+		catch(Exception e){
+			System.err.println("Benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Soak test of clients that stop reading. Connects healthy clients that LOOK over and over, then stalled clients that
+ * fill their sockets with LOOK replies they never read and keep trickling commands in. Every second it reports how
+ * many LOOKs the healthy clients got back and the slowest of them, so a stalled client holding up anyone's output
+ * but its own shows up as a second with few LOOKs and a long wait.
+ *
+ * The outbound queues are made big enough that stalled clients are only disconnected by the write timeout, not for
+ * overflowing their queue, so each of them keeps its writer stuck for as long as the server lets it.
+ */
+
+package dodBench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dodServer.ConnectionMode;
+import dodServer.ServerLogic;
+import dodUtil.CommandException;
+
+public class StalledClientsSoak {
+
+	//How often a stalled client sends another LOOK once its socket is full.
+	private static final long TRICKLE_MILLIS = 100;
+
+	public static void main(String[] args){
+		if(args.length < 1 || args.length > 5){
+			System.err.println("Usage: StalledClientsSoak <threaded|nio|virtual> [stalled] [healthy] [seconds] [burst]");
+			System.exit(1);
+		}
+
+		//Read once, when the first client connects.
+		if(System.getProperty("dod.outboundCapacity") == null){
+			System.setProperty("dod.outboundCapacity", "10000000");
+		}
+
+		try{
+			ConnectionMode mode = ConnectionMode.fromName(args[0]);
+			//Twice as many as there used to be shared writer threads.
+			int stalled = args.length > 1 ? Integer.parseInt(args[1])
+					: 2 * Math.max(2, Runtime.getRuntime().availableProcessors());
+			int healthy = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+			int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+			int burst = args.length > 4 ? Integer.parseInt(args[4]) : 200000;
+
+			ServerLogic server = LoadTest.startServer(mode, false, healthy + stalled);
+			InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+			LoadClients load = new LoadClients(address, healthy, "healthy");
+
+			//A couple of seconds before anyone stalls, to compare against.
+			window(load, -2);
+			window(load, -1);
+
+			AtomicBoolean stop = new AtomicBoolean(false);
+			AtomicInteger disconnected = new AtomicInteger();
+			for(int i = 0; i < stalled; i++){
+				startStalled(address, i, burst, stop, disconnected);
+			}
+
+			long worstMillis = 0;
+			int fewest = Integer.MAX_VALUE;
+			for(int s = 0; s < seconds; s++){
+				long[] result = window(load, s);
+				fewest = (int) Math.min(fewest, result[0]);
+				worstMillis = Math.max(worstMillis, result[1]);
+			}
+			stop.set(true);
+
+			System.out.println("mode " + mode + ", " + stalled + " stalled clients, " + healthy + " healthy");
+			System.out.println("fewest LOOKs in a second " + fewest + ", slowest LOOK " + worstMillis + "ms");
+			System.out.println("stalled clients disconnected " + disconnected.get() + " of " + stalled
+					+ ", healthy still connected " + load.connected() + " of " + healthy);
+
+			load.close();
+			server.stopServer();
+			System.exit(0);
+		}
+		catch(NumberFormatException e){
+			System.err.println("Client counts, seconds and burst must be numbers.");
+			System.exit(1);
+		}
+		catch(CommandException e){
+			System.err.println("Failed to start server: " + e.getMessage());
+			System.exit(1);
+		}
+		catch(IOException e){
+			System.err.println("Soak failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Has the healthy clients LOOK for a second, and prints how it went.
+	 * @return How many LOOKs came back, and the slowest in milliseconds.
+	 */
+	private static long[] window(LoadClients load, int second)
+			throws IOException{
+		long start = System.nanoTime();
+		int looks = load.run("LOOK", 0, 1000);
+		long took = (System.nanoTime() - start) / 1000000;
+		long slowest = load.percentileMicros(1.0) / 1000;
+
+		System.out.println("second " + second + ": LOOKs " + looks + ", slowest " + slowest + "ms"
+				+ (took > 1500 ? ", waited " + took + "ms for the last replies" : ""));
+		return new long[]{looks, slowest};
+	}
+
+	/**
+	 * Starts a client that sends a burst of LOOKs without reading any of the replies, then another LOOK every so
+	 * often, until it is disconnected or told to stop.
+	 */
+	private static void startStalled(final InetSocketAddress address, final int number, final int burst,
+			final AtomicBoolean stop, final AtomicInteger disconnected)
+			throws IOException{
+		final Socket socket = new Socket();
+		socket.setReceiveBufferSize(4096); //Small, so it fills quickly.
+		socket.connect(address);
+
+		Thread sender = new Thread(new Runnable(){
+			public void run(){
+				try{
+					OutputStream out = socket.getOutputStream();
+					StringBuilder start = new StringBuilder("HELLO stalled" + number + "\n");
+					for(int i = 0; i < burst; i++){
+						start.append("LOOK\n");
+					}
+					out.write(start.toString().getBytes(StandardCharsets.US_ASCII));
+					out.flush();
+
+					byte[] look = "LOOK\n".getBytes(StandardCharsets.US_ASCII);
+					while(!stop.get()){
+						Thread.sleep(TRICKLE_MILLIS);
+						out.write(look);
+						out.flush();
+					}
+				}
+				catch(IOException e){
+					disconnected.incrementAndGet();
+				}
+				catch(InterruptedException e){
+					//Stopping.
+				}
+				finally{
+					try{
+						socket.close();
+					}
+					catch(IOException e){
+						//Closing anyway.
+					}
+				}
+			}
+		}, "dod-bench-stalled-" + number);
+		sender.setDaemon(true);
+		sender.start();
+	}
+}
@@ -50,6 +50,7 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 	private OutputPanel chatOutput;
 	
 	private NetworkClient nc;
+	private boolean binaryProtocol; //Whether to ask the server for the binary protocol.
 	
 	//This 'message stack' can be pushed to in order to queue up a command to be sent to the server.
 	private BlockingDeque<String> messageStack = new LinkedBlockingDeque<String>(1);
@@ -92,10 +93,13 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 	 */
 	public static void main(String[] args){
 		
+		//Pass "binary" to use the binary protocol.
+		final boolean binary = (args.length > 0 && args[0].equalsIgnoreCase("binary"));
+		
 		//Running on the event dispatch thread as per the java tutorial recommendation: https://docs.oracle.com/javase/tutorial/uiswing/concurrency/initial.html
 		SwingUtilities.invokeLater(new Runnable() {
 		    public void run() {
-		        new GUIGameClient();
+		        new GUIGameClient(binary);
 		    }
 		});
 	}
@@ -104,6 +108,15 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 	 * This constructor initiates the GUI and then sets up a NetworkClient and a scanner.
 	 */
 	public GUIGameClient(){
+		this(false);
+	}
+	
+	/**
+	 * This constructor initiates the GUI and then sets up a NetworkClient and a scanner.
+	 * @param setBinaryProtocol True to ask the server for the binary protocol.
+	 */
+	public GUIGameClient(boolean setBinaryProtocol){
+		binaryProtocol = setBinaryProtocol;
 		
 		//Create new interrupter and associated runnable.
 		interrupter = new Interrupter(new Runnable(){
@@ -154,7 +167,7 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 		
 		//Connect to client.
 		try {
-			nc = new NetworkClient(address, port, this);
+			nc = new NetworkClient(address, port, this, binaryProtocol);
 		} catch (CommandException ce) {
 			showError(ce.getMessage());
 			System.exit(0);
@@ -163,6 +176,8 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 		
 		try {
 			messageStack.put("HELLO " + playerName); //Say hello
+			messageStack.put("LOOKMODE DELTA"); //Only be sent the changes to what we can see.
+			messageStack.put("VIEWPUSH ON"); //Be sent what we can see when it changes, rather than CHANGE.
 			messageStack.put("LOOK"); //Look (and so draw the map).
 			messageStack.put("APGET"); //Get ap
 		} catch (InterruptedException e) {
@@ -199,6 +214,13 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 				this.validate();
 				this.repaint();
 			}
+			else if(lp.needsFullLook()){
+				//A look was missed, so get the whole thing again.
+				try {
+					messageStack.put("LOOK FULL");
+				} catch (InterruptedException e) {
+				}
+			}
 		}
 		else if(message.startsWith("AP")){
 			try{
@@ -647,7 +669,7 @@ public class GUIGameClient extends JFrame implements NetworkMessageListener{
 			public void actionPerformed(ActionEvent e) {
 				nc.stopClient();
 				thisFrame.dispose();
-				new GUIGameClient();
+				new GUIGameClient(binaryProtocol);
 			}
 		});
 		
@@ -10,6 +10,11 @@ public class LookParser {
 	
 	private boolean hasLook;
 	
+	//Handling delta looks (LOOKMODE DELTA).
+	private char[][] currentLook = null; //The last complete look.
+	private long lookSequence = -1; //Sequence number of the last complete look, or -1 if unknown.
+	private boolean needsFullLook = false;
+	
 	/**
 	 * Should be called by the class using the look parser every time it is given a server message to determine if it is part of a look reply.
 	 * @param message Message to check.
@@ -31,6 +36,24 @@ public class LookParser {
 			lookReplyDimensions = 0;	
 			lookLines = "";
 			hasLook = false;
+			
+			//In delta mode a full look carries a sequence number.
+			lookSequence = parseSequence(message.replace("LOOKREPLY", "").trim());
+			needsFullLook = false;
+			return true;
+		}
+		
+		//Changes to the last look.
+		if(message.startsWith("LOOKDIFF")){
+			waitingForLookReplies = false;
+			hasLook = false;
+			
+			if(applyDiff(message) == false){
+				//We have missed something, so the client should ask for the whole look again.
+				currentLook = null;
+				lookSequence = -1;
+				needsFullLook = true;
+			}
 			return true;
 		}
 		
@@ -45,7 +68,8 @@ public class LookParser {
 			if(numberLookLines == lookReplyDimensions){
 				//Let anyone who checks know we have a look, and stop waiting for more.
 				waitingForLookReplies = false;
-				hasLook = true;
+				currentLook = createLookArr();
+				hasLook = (currentLook != null);
 			}
 			return true;
 		}
@@ -66,10 +90,18 @@ public class LookParser {
 	 */
 	public char[][] getLook(){
 		if(hasLook()){
-			return createLookArr();
+			return currentLook;
 		}
 		return null;
 	}
+	/**
+	 * Lets the class using this parser check whether a delta look could not be applied, in which case it should
+	 * send LOOK FULL.
+	 * @return True if the whole look needs to be asked for again.
+	 */
+	public boolean needsFullLook(){
+		return needsFullLook;
+	}
 	public int lookDimension(){
 		return lookReplyDimensions;
 	}
@@ -97,6 +129,73 @@ public class LookParser {
 		
 		return lookArr;
 	}
+	/**
+	 * Applies a LOOKDIFF message to the current look.
+	 * LOOKDIFF seq dRow dCol cells... shifts the last look so that each cell takes the old cell at (row + dRow, col + dCol),
+	 * then sets each listed cell, given as its index (row * size + col) followed by its new character.
+	 * @return False if there is no look to apply it to, a look has been missed, or the message is unreadable.
+	 */
+	private boolean applyDiff(String message){
+		String[] parts = message.split(" ");
+		
+		if(currentLook == null || parts.length < 4){
+			return false;
+		}
+		
+		long sequence = parseSequence(parts[1]);
+		if(lookSequence == -1 || sequence != lookSequence + 1){
+			return false;
+		}
+		
+		int size = currentLook.length;
+		char[][] newLook = new char[size][size];
+		
+		try{
+			int dRow = Integer.parseInt(parts[2]);
+			int dCol = Integer.parseInt(parts[3]);
+			
+			//Shift the old look. Cells from outside it are always in the list.
+			for(int rowix = 0; rowix < size; rowix++){
+				for(int colix = 0; colix < size; colix++){
+					int oldRow = rowix + dRow;
+					int oldCol = colix + dCol;
+					
+					if(oldRow >= 0 && oldRow < size && oldCol >= 0 && oldCol < size){
+						newLook[rowix][colix] = currentLook[oldRow][oldCol];
+					}
+				}
+			}
+			
+			//Then set the changed cells.
+			for(int i = 4; i < parts.length; i++){
+				int cell = Integer.parseInt(parts[i].substring(0, parts[i].length() - 1));
+				newLook[cell / size][cell % size] = parts[i].charAt(parts[i].length() - 1);
+			}
+		}
+		catch(NumberFormatException e){
+			return false;
+		}
+		catch(IndexOutOfBoundsException e){
+			return false;
+		}
+		
+		currentLook = newLook;
+		lookSequence = sequence;
+		lookReplyDimensions = size;
+		hasLook = true;
+		return true;
+	}
+	/**
+	 * @return The sequence number in a look message, or -1 if it has none.
+	 */
+	private static long parseSequence(String sequence){
+		try{
+			return Long.parseLong(sequence);
+		}
+		catch(NumberFormatException e){
+			return -1;
+		}
+	}
 	
 
 }
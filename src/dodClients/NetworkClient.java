@@ -6,20 +6,27 @@
 
 package dodClients;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
+import dodUtil.BinaryProtocol;
 import dodUtil.CommandException;
 
 public class NetworkClient {
 	
 	private Socket sckt;
 	private BufferedReader rdr;
+	private InputStream binaryIn; //Used instead of rdr when asking for the binary protocol.
 	private PrintWriter wrtr;
 	private NetworkMessageListener listener;
 	
@@ -32,12 +39,26 @@ public class NetworkClient {
 	 */
 	public NetworkClient(String address, int port, NetworkMessageListener setListener) 
 			throws CommandException{
+		this(address, port, setListener, false);
+	}
+	/**
+	 * Constructor - sets up the connection, optionally asking the server to send messages in the binary protocol.
+	 * The listener is given the same text messages either way.
+	 * @param binaryProtocol True to ask for the binary protocol. Servers that do not support it are spoken to in text.
+	 */
+	public NetworkClient(String address, int port, NetworkMessageListener setListener, boolean binaryProtocol) 
+			throws CommandException{
 
 		//Setup ports.
 		try {
 			sckt = new Socket(address, port);
 			listener = setListener;
-			rdr = new BufferedReader(new InputStreamReader(sckt.getInputStream()));
+			if(binaryProtocol){
+				binaryIn = new BufferedInputStream(sckt.getInputStream());
+			}
+			else{
+				rdr = new BufferedReader(new InputStreamReader(sckt.getInputStream()));
+			}
 			wrtr = new PrintWriter(new OutputStreamWriter(sckt.getOutputStream()), true);
 			
 		} catch (UnknownHostException e) {
@@ -48,8 +69,15 @@ public class NetworkClient {
 			throw new CommandException("Invalid port or address");
 		}
 		
-		startInputThread();
-		startOutputThread();
+		if(binaryProtocol){
+			//Nothing else can be sent until the server has answered.
+			wrtr.println(BinaryProtocol.NEGOTIATE);
+			startBinaryInputThread();
+		}
+		else{
+			startInputThread();
+			startOutputThread();
+		}
 	}
 	/**
 	 * Stops the client from running by ditching both the input and output threads then closing the socket.
@@ -94,6 +122,78 @@ public class NetworkClient {
 			}
 		}).start();
 	}
+	/**
+	 * Called to start up the thread which reads from the host when the binary protocol has been asked for.
+	 * Messages are read as text until the server answers, then as binary frames if it agreed.
+	 */
+	private void startBinaryInputThread(){
+		(new Thread(){
+			public void run(){
+				try {
+					boolean binary = negotiate();
+					startOutputThread();
+					
+					List<String> lines = new ArrayList<String>();
+					while(runInputThread){
+						if(binary){
+							BinaryProtocol.decode(binaryIn, lines);
+						}
+						else{
+							lines.add(readTextLine());
+						}
+						
+						for(String line : lines){
+							listener.handleMessage(line);
+						}
+						lines.clear();
+					}
+				} catch (IOException e) {
+					//Something has gone wrong - this probably means we've disconnected.
+					System.err.println("Error reading from the host.");
+					runInputThread = false;
+					runOutputThread = false;
+				}
+			}
+		}).start();
+	}
+	/**
+	 * Reads text messages until the server answers the request for the binary protocol.
+	 * @return True if the server has switched to the binary protocol.
+	 */
+	private boolean negotiate()
+			throws IOException{
+		while(true){
+			String line = readTextLine();
+			
+			if(line.equals(BinaryProtocol.NEGOTIATE)){
+				return true;
+			}
+			else if(line.startsWith("FAIL")){
+				//The only command sent so far was the request, so this is the answer to it.
+				return false;
+			}
+			listener.handleMessage(line);
+		}
+	}
+	/**
+	 * Reads one text line from the binary input stream, without reading any further.
+	 * @return The line, without its line ending.
+	 */
+	private String readTextLine()
+			throws IOException{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		
+		int b;
+		while((b = binaryIn.read()) != '\n'){
+			if(b < 0){
+				throw new IOException("Connection closed");
+			}
+			if(b != '\r'){
+				line.write(b);
+			}
+		}
+		return line.toString();
+	}
 	/**
 	 * Called to start up the thread which sends to the host.
 	 */
@@ -0,0 +1,217 @@
+/**
+ * A connection to the server which can have many commands in flight at once, rather than waiting for the response to
+ * each before sending the next. Every command is sent with a tag, e.g. "#12 MOVE N", and its response comes back with
+ * the same tag, so responses are matched to commands however many are outstanding. Messages which are not responses,
+ * e.g. shouts or CHANGE, are passed to an EventListener as they arrive.
+ */
+
+package dodClients;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dodUtil.CommandException;
+
+public class PipelinedClient {
+
+	/**
+	 * Told of every message from the server that is not the response to a command.
+	 */
+	public interface EventListener {
+		/**
+		 * @param message Message from the server, one line at a time.
+		 */
+		public void handleEvent(String message);
+	}
+
+	private Socket sckt;
+	private BufferedReader rdr;
+	private PrintWriter wrtr;
+	private EventListener listener;
+
+	private final AtomicInteger nextTag = new AtomicInteger(1);
+	private final Map<Integer, CompletableFuture<List<String>>> pending =
+			new ConcurrentHashMap<Integer, CompletableFuture<List<String>>>();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor - sets up the connection.
+	 * @param address Address of the server.
+	 * @param port Port the server is listening on.
+	 * @param setListener Listener for messages that are not responses.
+	 */
+	public PipelinedClient(String address, int port, EventListener setListener)
+			throws CommandException{
+		try {
+			sckt = new Socket(address, port);
+			listener = setListener;
+			rdr = new BufferedReader(new InputStreamReader(sckt.getInputStream()));
+			wrtr = new PrintWriter(new OutputStreamWriter(sckt.getOutputStream()), false);
+		} catch (UnknownHostException e) {
+			throw new CommandException("Host not found.");
+		} catch (IOException e) {
+			throw new CommandException("Error connecting to host. Are you sure the host listening is on this port?");
+		} catch (IllegalArgumentException e){
+			throw new CommandException("Invalid port or address");
+		}
+
+		startInputThread();
+	}
+
+	/**
+	 * Sends a command without waiting for the response to it, or to any command before it.
+	 * @param command The command, e.g. "MOVE N".
+	 * @return The response, a line per list element. A LOOKREPLY includes its rows.
+	 */
+	public Future<List<String>> send(String command){
+		return send(Collections.singletonList(command)).get(0);
+	}
+
+	/**
+	 * Sends several commands together, e.g. LOOK, MOVE N and LOOK, in one write.
+	 * @param commands The commands, in the order the server should run them.
+	 * @return The response to each command, in the same order.
+	 */
+	public List<Future<List<String>>> send(List<String> commands){
+		List<Future<List<String>>> responses = new ArrayList<Future<List<String>>>(commands.size());
+
+		synchronized(wrtr){
+			for(String command : commands){
+				int tag = nextTag.getAndIncrement();
+				CompletableFuture<List<String>> response = new CompletableFuture<List<String>>();
+
+				pending.put(tag, response);
+				responses.add(response);
+				wrtr.println("#" + tag + " " + command);
+			}
+			wrtr.flush();
+		}
+
+		//In case the connection went while we were sending.
+		if(running == false){
+			failPending();
+		}
+		return responses;
+	}
+
+	/**
+	 * Closes the connection. Commands still waiting for a response fail.
+	 */
+	public void stopClient(){
+		running = false;
+		try {
+			sckt.close();
+		} catch (IOException e) {
+			System.err.println("Failed to close old client socket!!! Maybe it is already closed?");
+		}
+		failPending();
+	}
+
+	/**
+	 * @return True if the connection has been closed.
+	 */
+	public boolean stopped(){
+		return running == false;
+	}
+
+	/**
+	 * Called to start up the thread which reads from the host, matching responses to commands.
+	 */
+	private void startInputThread(){
+		(new Thread(){
+			public void run(){
+				try {
+					String line;
+					while(running && (line = rdr.readLine()) != null){
+						if(line.isEmpty()){
+							continue; //Look replies end with a blank line.
+						}
+						else if(line.startsWith("#")){
+							handleResponse(line);
+						}
+						else if(listener != null){
+							listener.handleEvent(line);
+						}
+					}
+				} catch (IOException e) {
+					//Something has gone wrong - this probably means we've disconnected.
+					if(running){
+						System.err.println("Error reading from the host.");
+					}
+				}
+				running = false;
+				failPending();
+			}
+		}).start();
+	}
+
+	/**
+	 * Completes the command a tagged response is for.
+	 * @param line The first line of the response, e.g. "#12 SUCCESS".
+	 */
+	private void handleResponse(String line)
+			throws IOException{
+		int space = line.indexOf(' ');
+		if(space == -1){
+			return;
+		}
+
+		List<String> response = new ArrayList<String>();
+		String first = line.substring(space + 1);
+		response.add(first);
+
+		//A look reply is followed by as many rows as each row is long.
+		if(first.startsWith("LOOKREPLY")){
+			String row = rdr.readLine();
+			if(row == null){
+				throw new IOException("Connection closed part way through a look");
+			}
+			response.add(row);
+
+			for(int rowix = 1; rowix < row.length(); rowix++){
+				String next = rdr.readLine();
+				if(next == null){
+					throw new IOException("Connection closed part way through a look");
+				}
+				response.add(next);
+			}
+		}
+
+		CompletableFuture<List<String>> waiting;
+		try{
+			waiting = pending.remove(Integer.valueOf(line.substring(1, space)));
+		}
+		catch(NumberFormatException e){
+			return; //Not one of ours.
+		}
+		if(waiting != null){
+			waiting.complete(response);
+		}
+	}
+
+	/**
+	 * Fails every command still waiting for a response.
+	 */
+	private void failPending(){
+		Iterator<CompletableFuture<List<String>>> it = pending.values().iterator();
+		while(it.hasNext()){
+			it.next().completeExceptionally(new IOException("Connection to the host closed"));
+			it.remove();
+		}
+	}
+}
@@ -125,59 +125,83 @@ public class VisionPanel extends JPanel {
 		for(int rowix = 0; rowix < arr.length; rowix++){
 			for(int colix = 0; colix < arr[0].length; colix++){
 				
-				ImagePanel imgFrame = new ImagePanel();
-			
-				switch(arr[rowix][colix]){
-					case '.':
-						imgFrame.addImage(tile);
-						break;
-					case '#':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(wall);
-						break;
-					case 'X':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(unknown);
-						break;
-					case 'E':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(exit);
-						break;
-					case 'A':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(armour);
-						break;
-					case 'H':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(hp);
-						break;
-					case 'S':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(sword);
-						break;
-					case 'L':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(lantern);
-						break;
-					case 'G':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(gold);
-						break;
-					case 'P':
-						imgFrame.addImage(tile);
-						imgFrame.addImage(enemy);
-						break;
-				}
-				
 				//On the center, where we have the user, draw the user.
-				if((rowix == (arr.length-1)/2) && colix == ((arr[0].length-1)/2) && hasUser == true){
-					imgFrame.addImage(player);
-				}
+				boolean isCenter = (rowix == (arr.length-1)/2) && colix == ((arr[0].length-1)/2);
 				
-				gridPanel.add(imgFrame);
+				gridPanel.add(createCell(arr[rowix][colix], isCenter));
 				
 			}
 		}
 		refresh();	
 	}
+	/**
+	 * Redraws a single tile of the panel. Call refresh() once all the changed tiles have been written.
+	 * @param colix Column of the tile.
+	 * @param rowix Row of the tile.
+	 * @param content Char representation of the tile.
+	 */
+	public void writeCell(int colix, int rowix, char content){
+		int index = rowix * cols + colix;
+		boolean isCenter = (rowix == (rows-1)/2) && colix == ((cols-1)/2);
+		
+		gridPanel.remove(index);
+		gridPanel.add(createCell(content, isCenter), index);
+	}
+	/**
+	 * Creates the images for a single tile.
+	 * @param content Char representation of the tile.
+	 * @param isCenter Whether this is the center tile, where the user is drawn.
+	 * @return The panel for the tile.
+	 */
+	private ImagePanel createCell(char content, boolean isCenter){
+		ImagePanel imgFrame = new ImagePanel();
+		
+		switch(content){
+			case '.':
+				imgFrame.addImage(tile);
+				break;
+			case '#':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(wall);
+				break;
+			case 'X':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(unknown);
+				break;
+			case 'E':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(exit);
+				break;
+			case 'A':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(armour);
+				break;
+			case 'H':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(hp);
+				break;
+			case 'S':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(sword);
+				break;
+			case 'L':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(lantern);
+				break;
+			case 'G':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(gold);
+				break;
+			case 'P':
+				imgFrame.addImage(tile);
+				imgFrame.addImage(enemy);
+				break;
+		}
+		
+		if(isCenter && hasUser == true){
+			imgFrame.addImage(player);
+		}
+		
+		return imgFrame;
+	}
 }
@@ -0,0 +1,117 @@
+/**
+ * The last load reported by one server node, parsed from its LOAD line.
+ */
+
+package dodRouter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class NodeStatus {
+
+	private final String 		host;
+	private final int 			port;
+	private final int 			players;
+	private final int 			games;
+	private final long 			taskMicros;
+	private final List<String> 	gameNames;
+	private final long 			reportedAt;
+
+	//Clients sent to the node since it reported, which its report does not count yet.
+	private int routed = 0;
+
+	private NodeStatus(String setHost, int setPort, int setPlayers, int setGames, long setTaskMicros,
+			List<String> setGameNames){
+		host = setHost;
+		port = setPort;
+		players = setPlayers;
+		games = setGames;
+		taskMicros = setTaskMicros;
+		gameNames = setGameNames;
+		reportedAt = System.nanoTime();
+	}
+
+	/**
+	 * Parses a report.
+	 * @param host Address the report came from.
+	 * @param line The report, "LOAD port players games taskMicros name...".
+	 * @return The node's status, or null if the line is not a valid report.
+	 */
+	static NodeStatus parse(String host, String line){
+		String[] parts = line.split(" ");
+		if(parts.length < 5 || parts[0].equals("LOAD") == false){
+			return null;
+		}
+
+		try{
+			int port = Integer.parseInt(parts[1]);
+			int players = Integer.parseInt(parts[2]);
+			int games = Integer.parseInt(parts[3]);
+			long taskMicros = Long.parseLong(parts[4]);
+
+			if(port < 0 || port > 65535){
+				return null;
+			}
+
+			List<String> names = Collections.unmodifiableList(Arrays.asList(parts).subList(5, parts.length));
+			return new NodeStatus(host, port, players, games, taskMicros, names);
+		}
+		catch(NumberFormatException e){
+			return null;
+		}
+	}
+
+	/**
+	 * @return The name the node is known by, host:port.
+	 */
+	String getName(){
+		return host + ":" + port;
+	}
+
+	String getHost(){
+		return host;
+	}
+
+	int getPort(){
+		return port;
+	}
+
+	int getGames(){
+		return games;
+	}
+
+	long getTaskMicros(){
+		return taskMicros;
+	}
+
+	/**
+	 * @param game Name of a game.
+	 * @return True if the node is running it.
+	 */
+	boolean hasGame(String game){
+		return gameNames.contains(game);
+	}
+
+	/**
+	 * @return The players on the node, including clients sent to it since it reported.
+	 */
+	synchronized int getLoad(){
+		return players + routed;
+	}
+
+	/**
+	 * Counts a client sent to the node, until its next report.
+	 */
+	synchronized void routed(){
+		routed++;
+	}
+
+	/**
+	 * @param maxAgeNanos Longest time since the report for it to still count.
+	 * @return True if the report is too old to trust.
+	 */
+	boolean isStale(long maxAgeNanos){
+		return System.nanoTime() - reportedAt > maxAgeNanos;
+	}
+}
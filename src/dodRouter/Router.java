@@ -0,0 +1,311 @@
+/**
+ * A router that sits in front of several Dungeon of Doom servers ("nodes"), so that clients connect to one address
+ * however many servers are running. Each client is sent to a node, then its connection is spliced through to that node
+ * for as long as it lasts.
+ *
+ * Nodes are started with -Ddod.router=host:port, naming this router's report port, and report their load to it. A
+ * client may send "ROUTE game" as soon as it connects to be sent to a node running that game, which it can then JOIN;
+ * otherwise it goes to the node with the fewest players. Everything runs happily on one machine, with each node on a
+ * port of its own.
+ */
+
+package dodRouter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class Router {
+
+	//How long to wait for a client to say which game it wants, in milliseconds.
+	private static final int ROUTE_WAIT = Integer.getInteger("dod.routeWaitMillis", 50);
+	//How long a node may go without reporting before no more clients are sent to it, in milliseconds.
+	private static final long NODE_TIMEOUT = Long.getLong("dod.nodeTimeoutMillis", 3000);
+	//Longest line a client may send before it has been routed.
+	private static final int MAX_ROUTE_LINE = 256;
+
+	private final Map<String, NodeStatus> nodes = new ConcurrentHashMap<String, NodeStatus>();
+	private final Splicer splicer;
+	private final ExecutorService handshakes = Executors.newCachedThreadPool();
+
+	private ServerSocketChannel clientListener;
+	private ServerSocket 		reportListener;
+	private volatile boolean 	running = true;
+
+	/**
+	 * Starts a router.
+	 * @param args The port clients connect on, then the port nodes report on.
+	 */
+	public static void main(String[] args){
+		if(args.length != 2){
+			System.err.println("Usage: Router <client port> <report port>");
+			System.exit(1);
+		}
+
+		try{
+			new Router(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+		}
+		catch(NumberFormatException e){
+			System.err.println("Ports must be numbers.");
+			System.exit(1);
+		}
+		catch(IOException e){
+			System.err.println("Failed to start router: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Starts listening for clients and for node reports.
+	 * @param clientPort Port clients connect on.
+	 * @param reportPort Port nodes report their load on.
+	 */
+	public Router(int clientPort, int reportPort)
+			throws IOException{
+		splicer = new Splicer();
+
+		reportListener = new ServerSocket(reportPort);
+		clientListener = ServerSocketChannel.open();
+		clientListener.bind(new InetSocketAddress(clientPort));
+
+		new Thread(splicer, "dod-router-splicer").start();
+
+		new Thread("dod-router-reports"){
+			public void run(){
+				acceptReports();
+			}
+		}.start();
+
+		new Thread("dod-router-acceptor"){
+			public void run(){
+				acceptClients();
+			}
+		}.start();
+
+		System.out.println("Router listening for clients on " + clientPort + " and node reports on " + reportPort);
+	}
+
+	/**
+	 * Stops the router, closing every connection through it.
+	 */
+	public void stop(){
+		running = false;
+		try{
+			clientListener.close();
+		}
+		catch(IOException e){
+		}
+		try{
+			reportListener.close();
+		}
+		catch(IOException e){
+		}
+		splicer.shutdown();
+		handshakes.shutdown();
+	}
+
+	/**
+	 * Accepts node report connections, reading each on a thread of its own.
+	 */
+	private void acceptReports(){
+		while(running){
+			try{
+				final Socket node = reportListener.accept();
+				handshakes.execute(new Runnable(){
+					public void run(){
+						readReports(node);
+					}
+				});
+			}
+			catch(IOException e){
+				//The router has stopped.
+			}
+		}
+	}
+
+	/**
+	 * Reads the reports of one node until it disconnects.
+	 */
+	private void readReports(Socket node){
+		String host = node.getInetAddress().getHostAddress();
+		String name = null;
+
+		try{
+			BufferedReader rdr = new BufferedReader(new InputStreamReader(node.getInputStream()));
+			String line;
+
+			while((line = rdr.readLine()) != null){
+				NodeStatus status = NodeStatus.parse(host, line);
+				if(status == null){
+					System.err.println("Ignoring invalid report from " + host + ": " + line);
+					continue;
+				}
+
+				if(nodes.put(status.getName(), status) == null){
+					System.out.println("Node " + status.getName() + " is up, with " + status.getGames() + " game(s)");
+				}
+				name = status.getName();
+			}
+		}
+		catch(IOException e){
+			//The node has gone away.
+		}
+
+		if(name != null && nodes.remove(name) != null){
+			System.out.println("Node " + name + " has gone");
+		}
+		try{
+			node.close();
+		}
+		catch(IOException e){
+		}
+	}
+
+	/**
+	 * Accepts client connections, routing each on a handshake thread.
+	 */
+	private void acceptClients(){
+		while(running){
+			try{
+				final SocketChannel client = clientListener.accept();
+				handshakes.execute(new Runnable(){
+					public void run(){
+						route(client);
+					}
+				});
+			}
+			catch(IOException e){
+				//The router has stopped.
+			}
+		}
+	}
+
+	/**
+	 * Picks a node for a client, connects to it, and splices the two together.
+	 */
+	private void route(SocketChannel client){
+		try{
+			//See whether the client asks for a game, without holding it up for long if it doesn't.
+			byte[] first = readFirstBytes(client);
+			String game = null;
+			int forwardFrom = 0;
+
+			int newline = indexOf(first, first.length, (byte) '\n');
+			if(newline != -1){
+				String line = new String(first, 0, newline).trim();
+				if(line.startsWith("ROUTE ")){
+					game = line.substring("ROUTE ".length()).trim();
+					forwardFrom = newline + 1;
+				}
+			}
+
+			NodeStatus node = pickNode(game);
+			if(node == null){
+				String reason = (game == null) ? "no servers are available" : "no server is running game " + game;
+				client.write(ByteBuffer.wrap(("FAIL " + reason + System.getProperty("line.separator")).getBytes()));
+				client.close();
+				return;
+			}
+
+			SocketChannel server = SocketChannel.open(new InetSocketAddress(node.getHost(), node.getPort()));
+			node.routed();
+
+			//Pass on whatever the client sent after its ROUTE.
+			ByteBuffer rest = ByteBuffer.wrap(first, forwardFrom, first.length - forwardFrom);
+			while(rest.hasRemaining()){
+				server.write(rest);
+			}
+
+			splicer.splice(client, server);
+		}
+		catch(IOException e){
+			try{
+				client.close();
+			}
+			catch(IOException e2){
+			}
+		}
+	}
+
+	/**
+	 * Reads whatever the client sends straight away, up to the end of its first line.
+	 * @return The bytes read, which may be none.
+	 */
+	private static byte[] readFirstBytes(SocketChannel client)
+			throws IOException{
+		Socket sckt = client.socket();
+		sckt.setSoTimeout(ROUTE_WAIT);
+		InputStream in = sckt.getInputStream();
+
+		byte[] buf = new byte[MAX_ROUTE_LINE];
+		int length = 0;
+
+		try{
+			while(length < buf.length && indexOf(buf, length, (byte) '\n') == -1){
+				int n = in.read(buf, length, buf.length - length);
+				if(n < 0){
+					throw new IOException("Client went before being routed");
+				}
+				length += n;
+			}
+		}
+		catch(SocketTimeoutException e){
+			//The client is waiting to hear from the server first.
+		}
+
+		sckt.setSoTimeout(0);
+		return Arrays.copyOf(buf, length);
+	}
+
+	/**
+	 * Picks the least loaded node, of those running a game if one is given.
+	 * @param game Name of the game the client wants, or null for any.
+	 * @return The node, or null if there is none.
+	 */
+	private NodeStatus pickNode(String game){
+		NodeStatus best = null;
+		long maxAge = NODE_TIMEOUT * 1000000L;
+
+		Iterator<NodeStatus> it = nodes.values().iterator();
+		while(it.hasNext()){
+			NodeStatus node = it.next();
+
+			if(node.isStale(maxAge)){
+				continue;
+			}
+			if(game != null && node.hasGame(game) == false){
+				continue;
+			}
+
+			//Fewest players first, then the quickest game thread.
+			if(best == null || node.getLoad() < best.getLoad()
+					|| (node.getLoad() == best.getLoad() && node.getTaskMicros() < best.getTaskMicros())){
+				best = node;
+			}
+		}
+		return best;
+	}
+
+	private static int indexOf(byte[] bytes, int length, byte b){
+		for(int i = 0; i < length; i++){
+			if(bytes[i] == b){
+				return i;
+			}
+		}
+		return -1;
+	}
+}
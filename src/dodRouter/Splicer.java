@@ -0,0 +1,199 @@
+/**
+ * Relays bytes between pairs of connected channels, each client with the server node it was routed to, on a single
+ * selector thread. Bytes are read into a direct buffer per direction and written straight out of it, so they are never
+ * copied onto the Java heap. When one side cannot keep up, reading from the other side stops until it has caught up.
+ */
+
+package dodRouter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class Splicer implements Runnable {
+
+	//Size of the buffer for each direction of each connection.
+	private static final int BUFFER_SIZE = 16384;
+
+	/**
+	 * One direction of a spliced connection.
+	 */
+	private static class Pipe {
+		final SocketChannel from;
+		final SocketChannel to;
+		final ByteBuffer 	buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		SelectionKey 		fromKey;
+		SelectionKey 		toKey;
+
+		Pipe(SocketChannel setFrom, SocketChannel setTo){
+			from = setFrom;
+			to = setTo;
+		}
+	}
+
+	/**
+	 * Both directions of a spliced connection. Attached to both keys.
+	 */
+	private static class Splice {
+		final Pipe up; 		//Client to node.
+		final Pipe down; 	//Node to client.
+
+		Splice(SocketChannel client, SocketChannel node){
+			up = new Pipe(client, node);
+			down = new Pipe(node, client);
+		}
+	}
+
+	private final Selector 		selector;
+	private final Queue<Splice> pending = new ConcurrentLinkedQueue<Splice>();
+
+	private volatile boolean 	running = true;
+
+	Splicer()
+			throws IOException{
+		selector = Selector.open();
+	}
+
+	/**
+	 * Starts relaying between a client and a node. Both must be connected.
+	 * @param client Channel to the client.
+	 * @param node Channel to the node the client was routed to.
+	 */
+	void splice(SocketChannel client, SocketChannel node){
+		pending.add(new Splice(client, node));
+		selector.wakeup();
+	}
+
+	/**
+	 * Stops relaying, closing every connection.
+	 */
+	void shutdown(){
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Running thread: relays until shut down.
+	 */
+	@Override
+	public void run(){
+		while(running){
+			try{
+				registerPending();
+				selector.select();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					Splice splice = (Splice) key.attachment();
+					try{
+						if(key.isValid() && key.isReadable()){
+							pump(key.channel() == splice.up.from ? splice.up : splice.down);
+						}
+						if(key.isValid() && key.isWritable()){
+							pump(key.channel() == splice.up.to ? splice.up : splice.down);
+						}
+					}
+					catch(IOException e){
+						close(splice);
+					}
+					catch(CancelledKeyException e){
+						//The other side has already been closed.
+						close(splice);
+					}
+				}
+			}
+			catch(IOException e){
+				System.err.println("Error relaying connections: " + e.getMessage());
+			}
+		}
+
+		for(SelectionKey key : selector.keys()){
+			close((Splice) key.attachment());
+		}
+		try{
+			selector.close();
+		}
+		catch(IOException e){
+		}
+	}
+
+	/**
+	 * Registers spliced connections handed over since the last select.
+	 */
+	private void registerPending(){
+		Splice splice;
+
+		while((splice = pending.poll()) != null){
+			try{
+				SocketChannel client = splice.up.from;
+				SocketChannel node = splice.up.to;
+
+				client.configureBlocking(false);
+				node.configureBlocking(false);
+
+				SelectionKey clientKey = client.register(selector, SelectionKey.OP_READ, splice);
+				SelectionKey nodeKey = node.register(selector, SelectionKey.OP_READ, splice);
+
+				splice.up.fromKey = clientKey;
+				splice.up.toKey = nodeKey;
+				splice.down.fromKey = nodeKey;
+				splice.down.toKey = clientKey;
+			}
+			catch(IOException e){
+				close(splice);
+			}
+		}
+	}
+
+	/**
+	 * Moves as many bytes as will go along one direction, stopping reads from its source while its destination is
+	 * full.
+	 */
+	private void pump(Pipe pipe)
+			throws IOException{
+		if(pipe.buffer.position() == 0){
+			if(pipe.from.read(pipe.buffer) < 0){
+				throw new IOException("Connection closed");
+			}
+		}
+
+		pipe.buffer.flip();
+		pipe.to.write(pipe.buffer);
+		pipe.buffer.compact();
+
+		if(pipe.buffer.position() > 0){
+			//Wait for the destination to take the rest before reading more.
+			pipe.fromKey.interestOps(pipe.fromKey.interestOps() & ~SelectionKey.OP_READ);
+			pipe.toKey.interestOps(pipe.toKey.interestOps() | SelectionKey.OP_WRITE);
+		}
+		else{
+			pipe.fromKey.interestOps(pipe.fromKey.interestOps() | SelectionKey.OP_READ);
+			pipe.toKey.interestOps(pipe.toKey.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Closes both sides of a spliced connection.
+	 */
+	private static void close(Splice splice){
+		try{
+			splice.up.from.close();
+		}
+		catch(IOException e){
+		}
+		try{
+			splice.up.to.close();
+		}
+		catch(IOException e){
+		}
+	}
+}
@@ -19,10 +19,22 @@ public class CLUIServer implements ErrorListener {
 	
 	/**
 	 * Starts a server instance.
-	 * @param args Command line arguments.
+	 * @param args Command line arguments. May name the connection mode (threaded, virtual or nio), and "loop" to run the game on its own event loop.
 	 */
 	public static void main(String[] args) {
-		new CLUIServer(new Scanner(System.in));
+		ConnectionMode mode = ConnectionMode.THREADED;
+		boolean eventLoop = false;
+		
+		for(String arg : args){
+			if(arg.equalsIgnoreCase("loop")){
+				eventLoop = true;
+			}
+			else{
+				mode = ConnectionMode.fromName(arg);
+			}
+		}
+		
+		new CLUIServer(new Scanner(System.in), mode, eventLoop);
 	}
 	
 	/**
@@ -30,13 +42,23 @@ public class CLUIServer implements ErrorListener {
 	 * @param setScn Scanner to use to get data from.
 	 */
 	public CLUIServer(Scanner setScn){
+		this(setScn, ConnectionMode.THREADED, false);
+	}
+	
+	/**
+	 * Starts an instance of the CLUI server
+	 * @param setScn Scanner to use to get data from.
+	 * @param mode How the server should service client connections.
+	 * @param eventLoop Whether the game should run on its own event loop.
+	 */
+	public CLUIServer(Scanner setScn, ConnectionMode mode, boolean eventLoop){
 		scn = setScn;
 		
 		while(true){
 			try {				
 				int port = getPortNumber(scn);
 	
-				srv = new ServerLogic(getMapName(scn), port, this);
+				srv = new ServerLogic(getMapName(scn), port, this, mode, eventLoop);
 				break;
 			}
 			catch (CommandException e) {				
@@ -49,7 +71,6 @@ public class CLUIServer implements ErrorListener {
 			public void run(){
 				while(true){
 					String input = scn.nextLine();
-					input = input.toLowerCase();
 					
 					try {		
 						processCommand(input);	
@@ -60,7 +81,7 @@ public class CLUIServer implements ErrorListener {
 			}
 		}).start();
 		
-		println("Server started");
+		println("Server started (" + mode.name().toLowerCase() + " connections)");
 	}
 	
 	/**
@@ -70,13 +91,18 @@ public class CLUIServer implements ErrorListener {
 	public void processCommand(String input)
 			throws CommandException{
 		String[] command = input.split(" ");
+		command[0] = command[0].toLowerCase(); //Arguments such as map names keep their case.
 		
 		if(command[0].equals("help")){
 			//A help message.
 			println("Available server commands: "
 					+ "\nhelp - displays this message. "
-					+ "\nlook - a representation of the map will be printed"
+					+ "\nlook - a representation of the map will be printed. Takes a column, row, width and height to print part of it, which maps paged from disk need. "
 					+ "\nport - select a new port to run the server on. Requires an argument. "
+					+ "\nchunks - shows how the map chunk cache is doing, for maps paged from disk. "
+					+ "\njournal - shows what the journal and snapshots of the default game have written, if games are journalled. "
+					+ "\ngames - lists the games clients can JOIN. "
+					+ "\nnewgame - creates another game. Requires a name and a map name. "
 					+ "\nip - returns the IP address of this system. "
 					+ "\nstart - starts listening for new clients. "
 					+ "\nstop - stops listening for new clients. "
@@ -104,16 +130,63 @@ public class CLUIServer implements ErrorListener {
 			println("Changed port to " + newPort);
 		}
 		else if(command[0].equals("look")){
-			char[][] map = srv.getMap();
-			String printOut = "";
+			char[][] map;
 			
-			for(int rowix = 0; rowix < map.length; rowix++){
-				for(int colix = 0; colix < map[0].length; colix++){
-					printOut = printOut + map[rowix][colix];
+			if(command.length == 5){
+				try{
+					map = srv.getMapWindow(Integer.parseInt(command[1]), Integer.parseInt(command[2]),
+							Integer.parseInt(command[3]), Integer.parseInt(command[4]));
 				}
-				printOut = printOut + "\n";
+				catch(NumberFormatException e){
+					throw new CommandException("the arguments entered are not numbers");
+				}
+			}
+			else if(command.length != 1){
+				throw new CommandException("look takes no arguments, or a column, row, width and height");
+			}
+			else if(srv.isMapPaged()){
+				throw new CommandException("the map is paged from disk, so look needs a column, row, width and height");
+			}
+			else{
+				map = srv.getMap();
+			}
+			
+			if(map.length == 0 || map[0].length == 0){
+				throw new CommandException("the window is outside the map");
+			}
+			StringBuilder printOut = new StringBuilder(map.length * (map[0].length + 1));
+			
+			for(int rowix = 0; rowix < map.length; rowix++){
+				printOut.append(map[rowix]);
+				printOut.append('\n');
+			}
+			println(printOut.toString());	
+		}
+		else if(command[0].equals("chunks")){
+			String stats = srv.getChunkStats();
+			
+			if(stats == null){
+				throw new CommandException("the map is not paged from disk");
+			}
+			println(stats);
+		}
+		else if(command[0].equals("journal")){
+			String stats = srv.getJournalStats();
+			
+			if(stats == null){
+				throw new CommandException("games are not journalled");
+			}
+			println(stats);
+		}
+		else if(command[0].equals("games")){
+			println(String.join(" ", srv.getGameNames()));
+		}
+		else if(command[0].equals("newgame")){
+			if(command.length != 3){
+				throw new CommandException("newgame requires a name and a map name");
 			}
-			println(printOut);	
+			srv.createGame(command[1], command[2]);
+			println("Created game " + command[1]);
 		}
 		else if(command[0].equals("ip")){
 			println(srv.getIp());
@@ -122,7 +195,7 @@ public class CLUIServer implements ErrorListener {
 			srv.startListening();
 			println("Now listening for clients.");
 		}
-		else if(input.startsWith("stop")){
+		else if(command[0].startsWith("stop")){
 			srv.stopListening();
 			println("Stopped listening for clients.");
 		}
@@ -0,0 +1,27 @@
+package dodServer;
+
+import dodServer.game.GameLogic;
+import dodUtil.CommandException;
+
+/**
+ * A command clients can send, beyond those built in to CommandLineUser. Added
+ * with CommandLineUser.registerCommand().
+ */
+public interface CommandHandler {
+
+    /**
+     * Carries out the command for a player.
+     *
+     * @param game
+     *            the game the player is in
+     * @param playerID
+     *            the ID of the player sending the command
+     * @param arg
+     *            the text argument (null if no argument)
+     * @return the response to send the client, e.g. "SUCCESS"
+     * @throws CommandException
+     *             if the command fails, which is sent as FAIL
+     */
+    public String handle(GameLogic game, int playerID, String arg)
+	    throws CommandException;
+}
@@ -1,11 +1,21 @@
 package dodServer;
 
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import dodServer.game.CompassDirection;
 import dodServer.game.GameLogic;
+import dodServer.game.LookView;
 import dodServer.game.PlayerListener;
+import dodServer.game.Shout;
+import dodUtil.BinaryProtocol;
 import dodUtil.CommandException;
 
 /**
@@ -16,9 +26,62 @@ import dodUtil.CommandException;
  * connects over the network.
  */
 public abstract class CommandLineUser implements PlayerListener, Runnable {
+    // Opcodes of the built in commands
+    private static final int HELLO = 1;
+    private static final int APGET = 2;
+    private static final int LOOK = 3;
+    private static final int LOOKMODE = 4;
+    private static final int VIEWPUSH = 5;
+    private static final int PICKUP = 6;
+    private static final int MOVE = 7;
+    private static final int ATTACK = 8;
+    private static final int ENDTURN = 9;
+    private static final int SHOUT = 10;
+    private static final int PROTOCOL = 11;
+    private static final int SETPLAYERPOS = 12;
+    private static final int JOIN = 13;
+    private static final int GAMES = 14;
+
+    // Every command, found by its verb
+    private static final CommandRegistry COMMANDS = new CommandRegistry();
+
+    static {
+	COMMANDS.register("HELLO", HELLO);
+	COMMANDS.register("APGET", APGET);
+	COMMANDS.register("LOOK", LOOK);
+	COMMANDS.register("LOOKMODE", LOOKMODE);
+	COMMANDS.register("VIEWPUSH", VIEWPUSH);
+	COMMANDS.register("PICKUP", PICKUP);
+	COMMANDS.register("MOVE", MOVE);
+	COMMANDS.register("ATTACK", ATTACK);
+	COMMANDS.register("ENDTURN", ENDTURN);
+	COMMANDS.register("SHOUT", SHOUT);
+	COMMANDS.register("PROTOCOL", PROTOCOL);
+	COMMANDS.register("SETPLAYERPOS", SETPLAYERPOS);
+	COMMANDS.register("JOIN", JOIN);
+	COMMANDS.register("GAMES", GAMES);
+    }
+
+    // The characters allowed in names and messages, indexed by character
+    private static final boolean[] MESSAGE_CHARACTERS = characterClass("abcdefghijklmnopqrstuvwxyz"
+	    + "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_ .,:!()#");
+
     // The game which the command line user will operate on.
-    // This is private to enforce the use of "processCommand".
-    private final GameLogic game;
+    // This is private to enforce the use of "processCommand". It changes
+    // when the user JOINs another game of the lobby.
+    private volatile GameLogic game;
+
+    // The games the user can JOIN, or null if there is only this one
+    private final Lobby lobby;
+
+    // Commands waiting to be processed, in the order they were sent, and
+    // whether a game thread is processing them. They are only ever
+    // processed one at a time, on the thread of the game the player is in.
+    private final Deque<Runnable> commands = new ConcurrentLinkedDeque<Runnable>();
+    private final AtomicBoolean processing = new AtomicBoolean(false);
+
+    // Set by a JOIN to the task adding the player to the other game
+    private Future<Void> entry = null;
     
     //The name of this player.
     private String myName = "A Player";
@@ -31,14 +94,59 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
     // In order to ensure the specification is met, we need to ensure that
     // a response is sent after a command, before anything else is sent.
     // Therefore, we use "waitingForResponse" as a flag for this, and
-    // store any other messages, e.g. shouts from players, in a List
+    // store any other messages, e.g. shouts from players, in a List. Each is
+    // a String, a Shout or a View.
     private boolean waitingForResponse = false;
-    private final List<String> messageBuffer;
+    private final List<Object> messageBuffer;
+
+    // Guards waitingForResponse, messageBuffer and lookDelta. Messages from
+    // the game come from whichever thread holds the game, and shouts from the
+    // game's broadcaster, which does not. Nothing waits for the game while
+    // holding this.
+    private final Object outputLock = new Object();
+
+    /**
+     * A view waiting to be sent, which is only turned into a delta reply as
+     * it is sent, so that deltas follow the order the client sees them in.
+     */
+    private static final class View {
+	final LookView look;
+	final boolean full;
+
+	View(LookView setLook, boolean setFull) {
+	    this.look = setLook;
+	    this.full = setFull;
+	}
+    }
+
+    // A command may start with a tag, e.g. "#12 MOVE N", so that a client
+    // with several commands in flight can tell which response is which. The
+    // tag of the command being processed is put in front of its response,
+    // and a tagged command always gets exactly one response.
+    private String responseTag = null;
+    private boolean responded = false;
+
+    // Whether the client uses the binary protocol, and whether it has just
+    // asked to, in which case it starts straight after the reply
+    private boolean binaryProtocol = false;
+    private boolean binaryPending = false;
+
+    // Set if the client has asked for delta looks with LOOKMODE DELTA
+    private LookDelta lookDelta = null;
+
+    // Set if the client has asked to be sent its view when it changes,
+    // with VIEWPUSH ON, rather than be sent CHANGE
+    private volatile boolean viewPush = false;
 
     CommandLineUser(GameLogic game) {
+	this(game, null);
+    }
+
+    CommandLineUser(GameLogic game, Lobby lobby) {
 	this.game = game;
+	this.lobby = lobby;
 
-	this.messageBuffer = new ArrayList<String>();
+	this.messageBuffer = new ArrayList<Object>();
     }
 
     /**
@@ -69,6 +177,14 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
 		outputMessage("FROM " + name, false);
 	}
 
+    /**
+     * Sends a shout, after the response to any command that is running.
+     */
+    @Override
+    public void sendShout(Shout shout) {
+	outputMessage(shout, false);
+    }
+
     /**
      * Informs the user of the beginning of a player's turn
      */
@@ -104,6 +220,22 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
     	outputMessage("CHANGE", false);
     }
 
+    /**
+     * @return whether the user has asked to be sent its view when it changes
+     */
+    @Override
+    public boolean wantsViewPush() {
+	return this.viewPush;
+    }
+
+    /**
+     * Sends the user its new view, in the same form as a reply to LOOK.
+     */
+    @Override
+    public void viewChange(LookView look) {
+	outputMessage(new View(look, false), false);
+    }
+
     /**
      * Informs the user that the player's hit points have changed
      */
@@ -121,7 +253,8 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
     }
 
     /**
-     * Processes a text command from the user.
+     * Processes a text command from the user. A command starting with a tag,
+     * e.g. "#12 MOVE N", has the tag put in front of its response.
      * 
      * @param commandString
      *            the string containing the command and any argument
@@ -131,16 +264,163 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
 	// finger hurt...
 	//commandString = commandString.toUpperCase();
 	
-	// Process the command string e.g. MOVE N
-	final String commandStringSplit[] = commandString.split(" ", 2);
-	final String command = commandStringSplit[0];
-	final String arg = ((commandStringSplit.length == 2) ? commandStringSplit[1]
-		: null);
+	// Take off any tag, e.g. #12
+	int verbStart = 0;
+	if (commandString.startsWith("#")) {
+	    verbStart = commandString.indexOf(' ') + 1;
+
+	    if (verbStart == 0) {
+		outputMessage("FAIL a tag needs a command", true);
+		return;
+	    }
+	    this.responseTag = commandString.substring(0, verbStart - 1);
+	    this.responded = false;
+
+	    // Anything the command causes comes after its response
+	    expectResponse();
+	}
+
+	// Process the command string e.g. MOVE N, finding the verb where it is
+	final int space = commandString.indexOf(' ', verbStart);
+	final int verbEnd = (space == -1) ? commandString.length() : space;
+	final String arg = ((space == -1) ? null : commandString
+		.substring(space + 1));
 
 	try {
+	    final CommandRegistry.Entry command = COMMANDS.lookup(
+		    commandString, verbStart, verbEnd);
+
+	    if (command == null) {
+		// If it is none of the above then it must be a bad command.
+		throw new CommandException("invalid command");
+	    }
 	    processCommandAndArgument(command, arg);
+
+	    // Commands like ENDTURN have no response of their own
+	    if (this.responseTag != null && !this.responded) {
+		outputSuccess();
+	    }
 	} catch (final CommandException e) {
 	    outputMessage("FAIL " + e.getMessage(), true);
+	} finally {
+	    this.responseTag = null;
+	}
+    }
+
+    /**
+     * Queues a text command to be processed against the game. If the game has
+     * an event loop the command is applied on the game thread, otherwise it is
+     * processed straight away.
+     * 
+     * @param commandString
+     *            the string containing the command and any argument
+     * @return a future which completes once the command has been processed;
+     *         after a JOIN it holds the future of entering the other game
+     */
+    protected final Future<Future<Void>> submitCommand(
+	    final String commandString) {
+	final FutureTask<Future<Void>> command = new FutureTask<Future<Void>>(
+		new Callable<Future<Void>>() {
+		    @Override
+		    public Future<Void> call() {
+			processCommand(commandString);
+
+			final Future<Void> joined = CommandLineUser.this.entry;
+			CommandLineUser.this.entry = null;
+			return joined;
+		    }
+		});
+
+	this.commands.add(command);
+	processCommands();
+	return command;
+    }
+
+    /**
+     * Has the game the player is in process the queued commands, unless it
+     * already is.
+     */
+    private void processCommands() {
+	if (!this.commands.isEmpty() && this.processing.compareAndSet(false, true)) {
+	    final GameLogic target = this.game;
+
+	    target.submit(new Callable<Void>() {
+		@Override
+		public Void call() {
+		    processCommands(target);
+		    return null;
+		}
+	    });
+	}
+    }
+
+    /**
+     * Processes queued commands on the thread of a game, until there are none
+     * left or one of them JOINs another game. The other game's thread then
+     * carries on, without this one waiting for it.
+     * 
+     * @param target
+     *            the game whose thread this is
+     */
+    private void processCommands(GameLogic target) {
+	Runnable command;
+	while ((command = this.commands.poll()) != null) {
+	    command.run();
+
+	    if (this.game != target) {
+		// The first command there adds the player to the game
+		final GameLogic next = this.game;
+		next.submit(new Callable<Void>() {
+		    @Override
+		    public Void call() {
+			processCommands(next);
+			return null;
+		    }
+		});
+		return;
+	    }
+	}
+
+	this.processing.set(false);
+
+	// A command may have been queued after the last one was taken
+	processCommands();
+    }
+
+    /**
+     * Processes a text command against the game and waits for it to finish,
+     * including joining another game. Any runtime error from processing the
+     * command is thrown on to the caller, whichever thread it happened on.
+     * This must not be called from a game thread.
+     * 
+     * @param commandString
+     *            the string containing the command and any argument
+     */
+    protected final void runCommand(String commandString) {
+	final Future<Void> joined = awaitGame(submitCommand(commandString));
+	if (joined != null) {
+	    awaitGame(joined);
+	}
+    }
+
+    /**
+     * Waits for a task submitted to the game, passing on any runtime error.
+     * 
+     * @param future
+     *            the future of the submitted task
+     * @return what the task returned
+     */
+    private static <T> T awaitGame(Future<T> future) {
+	try {
+	    return future.get();
+	} catch (final InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException("interrupted waiting for the game", e);
+	} catch (final ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) e.getCause();
+	    }
+	    throw new RuntimeException(e.getCause());
 	}
     }
 
@@ -156,14 +436,39 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
 	}
 	this.playerAdded = true;
 
-	// The first message must be GOLD
-	outputMessage("GOLD " + this.game.getGoal(), true);
-	
-	
+	this.commands.add(enterGame(this.game, null));
+	processCommands();
+    }
+
+    /**
+     * Makes the task adding the player to a game, to be run on that game's
+     * thread before any command meant for it.
+     * 
+     * @param target
+     *            the game to join
+     * @param tag
+     *            the tag of the JOIN, to go in front of its response, or null
+     * @return a task which completes once the player is in the game
+     */
+    private FutureTask<Void> enterGame(final GameLogic target, final String tag) {
+	return new FutureTask<Void>(new Callable<Void>() {
+	    @Override
+	    public Void call() {
+		// The first message must be GOLD
+		CommandLineUser.this.responseTag = tag;
+		try {
+		    outputMessage("GOLD " + target.getGoal(), true);
+		} finally {
+		    CommandLineUser.this.responseTag = null;
+		}
 
-	// Ensures that the instance will listen to the player in the
-	// game for messages from the game
-	this.playerID = this.game.addPlayer(this);
+		// Ensures that the instance will listen to the player in the
+		// game for messages from the game
+		CommandLineUser.this.playerID = target
+			.addPlayer(CommandLineUser.this);
+		return null;
+	    }
+	});
     }
 
     protected void removePlayer() {
@@ -172,7 +477,15 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
 		}
 		this.playerAdded = false;
 		
-		this.game.removePlayer(this.playerID);
+		//After any commands still waiting, in whichever game they leave the player.
+		this.commands.add(new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() {
+				CommandLineUser.this.game.removePlayer(CommandLineUser.this.playerID);
+				return null;
+			}
+		}));
+		processCommands();
     }
 
     /*
@@ -185,91 +498,197 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
      */
     protected abstract void doOutputMessage(String message);
 
+    /**
+     * Outputs a shout. Sub-classes which can send the shared encoding of the
+     * shout in one go should override this; by default it is sent as FROM and
+     * then MESSAGE.
+     * 
+     * @param shout
+     *            the shout to output
+     */
+    protected void doOutputShout(Shout shout) {
+	doOutputMessage("FROM " + shout.getFrom());
+	doOutputMessage("MESSAGE " + shout.getMessage());
+    }
+
+    /**
+     * Sub-classes which can send the binary protocol of BinaryProtocol
+     * should return true, and switch to it in useBinaryProtocol().
+     * 
+     * @return whether or not the client may ask for the binary protocol
+     */
+    protected boolean supportsBinaryProtocol() {
+	return false;
+    }
+
+    /**
+     * Called once the reply to a request for the binary protocol has been
+     * output, after which every message must be sent in binary.
+     */
+    protected void useBinaryProtocol() {
+	throw new UnsupportedOperationException(
+		"binary protocol is not supported");
+    }
+
+    /**
+     * Adds a command that clients can send, alongside the built in ones.
+     * 
+     * @param verb
+     *            the first word of the command, e.g. "WHO"
+     * @param handler
+     *            carries out the command
+     * @throws IllegalArgumentException
+     *             if there is already a command with that verb
+     */
+    public static void registerCommand(String verb, CommandHandler handler) {
+	COMMANDS.register(verb, handler);
+    }
+
     /**
      * Processes the command and an optional argument
      * 
      * @param command
-     *            the text command
+     *            the command, as registered
      * @param arg
      *            the text argument (null if no argument)
      * @throws CommandException
      */
-    private void processCommandAndArgument(String command, String arg)
-	    throws CommandException {
+    private void processCommandAndArgument(CommandRegistry.Entry command,
+	    String arg) throws CommandException {
 	if (!this.playerAdded) {
 	    throw new RuntimeException("Player not added");
 	}
 
-	if (command.equals("HELLO")) {
+	switch (command.getOpcode()) {
+	case CommandRegistry.HANDLED:
+	    expectResponse();
+	    outputMessage(command.getHandler().handle(this.game, this.playerID,
+		    arg), true);
+	    break;
+
+	case HELLO:
 	    if (arg == null) {
 		throw new CommandException("HELLO needs an argument");
 	    }
 
 	    final String name = sanitiseMessage(arg);
 	    myName = name; //For new chat client functionality.
-	    this.waitingForResponse = true;
-	    this.game.clientHello(name, this.playerID);
+	    expectResponse();
+
+	    // Reconnecting to a player the game was rebuilt with takes it over
+	    final int reclaimed = this.game.reclaimPlayer(name, this.playerID, this);
+	    if (reclaimed != -1) {
+		this.playerID = reclaimed;
+	    } else {
+		this.game.clientHello(name, this.playerID);
+	    }
 	    outputMessage("HELLO " + name, true);
+	    break;
 
-	}
-	else if(command.equals("APGET")){
+	case APGET:
 	    if (arg != null) {
 		throw new CommandException("APGET does not take an argument");
 	    }
-	    this.waitingForResponse = true;
+	    expectResponse();
 	    outputMessage("AP " + this.game.getAp(this.playerID), true);
-	}
-	else if (command.equals("LOOK")) {
-	    if (arg != null) {
-		throw new CommandException("LOOK does not take an argument");
+	    break;
+
+	case LOOK:
+	    // LOOK FULL asks for the whole view, even in delta mode
+	    if (arg != null && !arg.equals("FULL")) {
+		throw new CommandException("LOOK only takes the argument FULL");
 	    }
-	    this.waitingForResponse = true;
-	    outputMessage("LOOKREPLY" + System.getProperty("line.separator") + 
-			  this.game.clientLook(this.playerID), true);
+	    expectResponse();
+
+	    outputMessage(new View(this.game.clientLook(this.playerID),
+		    arg != null), true);
+	    break;
 
-	} else if (command.equals("PICKUP")) {
+	case LOOKMODE:
+	    if (!"DELTA".equals(arg) && !"FULL".equals(arg)) {
+		throw new CommandException("LOOKMODE needs DELTA or FULL");
+	    }
+	    synchronized (this.outputLock) {
+		this.lookDelta = "DELTA".equals(arg) ? new LookDelta() : null;
+	    }
+	    expectResponse();
+	    outputSuccess();
+	    break;
+
+	case VIEWPUSH:
+	    if ("ON".equals(arg)) {
+		this.viewPush = true;
+	    } else if ("OFF".equals(arg)) {
+		this.viewPush = false;
+	    } else {
+		throw new CommandException("VIEWPUSH needs ON or OFF");
+	    }
+	    expectResponse();
+	    outputSuccess();
+	    break;
+
+	case PICKUP:
 	    if (arg != null) {
 		throw new CommandException("PICKUP does not take an argument");
 	    }
 
-	    this.waitingForResponse = true;
+	    expectResponse();
 	    this.game.clientPickup(this.playerID);
 	    outputSuccess();
+	    break;
 
-	} else if (command.equals("MOVE")) {
+	case MOVE:
 	    // We need to know which direction to move in.
 	    if (arg == null) {
 		throw new CommandException("MOVE needs a direction");
 	    }
 
-	    this.waitingForResponse = true;
+	    expectResponse();
 	    this.game.clientMove(getDirection(arg), this.playerID);
 
 	    outputSuccess();
+	    break;
 
-	} else if (command.equals("ATTACK")) {
+	case ATTACK:
 	    // We need to know which direction to move in.
 	    if (arg == null) {
 		throw new CommandException("ATTACK needs a direction");
 	    }
 
-	    this.waitingForResponse = true;
+	    expectResponse();
 	    this.game.clientAttack(getDirection(arg), this.playerID);
 
 	    outputSuccess();
+	    break;
 
-	} else if (command.equals("ENDTURN")) {
+	case ENDTURN:
 	    this.game.clientEndTurn(this.playerID);
+	    break;
 
-	} else if (command.equals("SHOUT")) {
+	case SHOUT:
 	    // Ensure they have given us something to shout.
 	    if (arg == null) {
 		throw new CommandException("need something to shout");
 	    }
 
-	    this.game.clientShout(arg, myName);
+	    this.game.clientShout(arg, myName, this.playerID);
+	    break;
+
+	case PROTOCOL:
+	    // Switch to the binary protocol, if we can
+	    if (!BinaryProtocol.NEGOTIATE.equals("PROTOCOL " + arg)) {
+		throw new CommandException("unknown protocol");
+	    }
+	    if (!supportsBinaryProtocol() || this.binaryProtocol) {
+		throw new CommandException("binary protocol is not available");
+	    }
+
+	    expectResponse();
+	    this.binaryPending = true;
+	    outputMessage(BinaryProtocol.NEGOTIATE, true);
+	    break;
 
-	} else if (command.equals("SETPLAYERPOS")) {
+	case SETPLAYERPOS:
 	    if (arg == null) {
 		throw new CommandException("need a position");
 	    }
@@ -291,10 +710,80 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
 		throw new CommandException("co-ordinates must be integers");
 	    }
 
-	} else {
-	    // If it is none of the above then it must be a bad command.
-	    throw new CommandException("invalid command");
+	    break;
+
+	case JOIN:
+	    if (arg == null) {
+		throw new CommandException("JOIN needs the name of a game");
+	    }
+	    if (this.lobby == null) {
+		throw new CommandException("there are no other games");
+	    }
+
+	    final GameLogic next = this.lobby.getGame(arg);
+	    if (next == null) {
+		throw new CommandException("there is no game called " + arg);
+	    }
+	    if (next == this.game) {
+		throw new CommandException("already in that game");
+	    }
+
+	    // The response is the GOLD of the new game
+	    expectResponse();
+	    moveToGame(next);
+	    break;
+
+	case GAMES:
+	    if (arg != null) {
+		throw new CommandException("GAMES does not take an argument");
+	    }
+	    if (this.lobby == null) {
+		throw new CommandException("there are no other games");
+	    }
+
+	    final StringBuilder names = new StringBuilder("GAMES");
+	    for (final String gameName : this.lobby.getGameNames()) {
+		names.append(' ').append(gameName);
+	    }
+	    expectResponse();
+	    outputMessage(names.toString(), true);
+	    break;
+
+	default:
+	    throw new IllegalStateException("No command has opcode "
+		    + command.getOpcode());
+	}
+    }
+
+    /**
+     * Moves the player from this game to another. Only called while a command
+     * is being processed on this game's thread, so the player is in this game.
+     * 
+     * @param next
+     *            the game to move to
+     */
+    private void moveToGame(GameLogic next) {
+	this.game.removePlayer(this.playerID);
+
+	synchronized (this.outputLock) {
+	    // Leaving kills the player in the old game. Nothing it has told us
+	    // since the command began matters any more, including that we lost.
+	    this.messageBuffer.clear();
+
+	    // The last view sent was of the old game
+	    if (this.lookDelta != null) {
+		this.lookDelta.reset();
+	    }
 	}
+
+	// The GOLD of the new game is the response, sent by its own thread
+	// once this command has finished. This thread never waits for another
+	// game's, which might be waiting for this one.
+	final FutureTask<Void> enter = enterGame(next, this.responseTag);
+	this.responded = true;
+	this.commands.addFirst(enter);
+	this.entry = enter;
+	this.game = next;
     }
 
     /**
@@ -325,30 +814,46 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
      * @return The sanitised message
      */
     private static String sanitiseMessage(String s) {
-	return sanitise(s, "[a-zA-Z0-9-_ \\.,:!\\(\\)#]");
+	return sanitise(s, MESSAGE_CHARACTERS);
     }
 
     /**
-     * Strip out anything that isn't in the specified regex.
+     * Strip out anything that isn't in the specified character class.
      * 
      * @param s
      *            The string to be sanitised
-     * @param regex
-     *            The regex to use for sanitisiation
+     * @param allowed
+     *            Whether each character is allowed, indexed by character
      * @return The sanitised string
      */
-    private static String sanitise(String s, String regex) {
-	String rv = "";
+    private static String sanitise(String s, boolean[] allowed) {
+	final StringBuilder rv = new StringBuilder(s.length());
 
 	for (int i = 0; i < s.length(); i++) {
-	    final String tmp = s.substring(i, i + 1);
+	    final char c = s.charAt(i);
 
-	    if (tmp.matches(regex)) {
-		rv += tmp;
+	    if (c < allowed.length && allowed[c]) {
+		rv.append(c);
 	    }
 	}
 
-	return rv;
+	return rv.toString();
+    }
+
+    /**
+     * Makes a character class for sanitise().
+     * 
+     * @param characters
+     *            every character that is allowed
+     * @return whether each character is allowed, indexed by character
+     */
+    private static boolean[] characterClass(String characters) {
+	final boolean[] allowed = new boolean[128];
+
+	for (int i = 0; i < characters.length(); i++) {
+	    allowed[characters.charAt(i)] = true;
+	}
+	return allowed;
     }
 
     /**
@@ -358,6 +863,16 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
 	outputMessage("SUCCESS", true);
     }
 
+    /**
+     * Notes that a command is under way, so that anything else sent to the
+     * player waits until its response has been sent.
+     */
+    private void expectResponse() {
+	synchronized (this.outputLock) {
+	    this.waitingForResponse = true;
+	}
+    }
+
     /**
      * Outputs a message to the player, using the abstract "doOutputMessage"
      * method, which allows the sub-class to handle it in different ways, e.g.
@@ -368,35 +883,76 @@ public abstract class CommandLineUser implements PlayerListener, Runnable {
      * the player after the response.
      * 
      * @param message
-     *            the message to send to the player.
+     *            the message to send to the player: a String, a Shout or a
+     *            View.
      * @param isResponse
      *            whether or not the message is a response to a command, e.g.
      *            "SUCCESS" or "FAIL".
      */
-    private final void outputMessage(String message, boolean isResponse) {
-	// If the user is waiting for a response, buffer the message
-	if (this.waitingForResponse) {
+    private final void outputMessage(Object message, boolean isResponse) {
+	synchronized (this.outputLock) {
 	    if (isResponse) {
+		// The response to a tagged command carries its tag
+		String response = render(message);
+		if (this.responseTag != null) {
+		    response = this.responseTag + " " + response;
+		    this.responded = true;
+		}
+
 		// Output the response
-		doOutputMessage(message);
+		doOutputMessage(response);
+
+		// The reply to a protocol switch is the last text message
+		if (this.binaryPending) {
+		    this.binaryPending = false;
+		    this.binaryProtocol = true;
+		    useBinaryProtocol();
+		}
 
 		// We can now send everything from the buffer and clear it
-		for (final String line : this.messageBuffer) {
-		    doOutputMessage(line);
+		for (final Object line : this.messageBuffer) {
+		    deliver(line);
 		}
 
 		this.messageBuffer.clear();
 
 		// We are no longer waiting for a response
 		this.waitingForResponse = false;
-	    } else {
+	    } else if (this.waitingForResponse) {
 		// Add it to the buffer to be sent when the response has been
 		// sent
 		this.messageBuffer.add(message);
+	    } else {
+		// The user is not waiting for a response. Send it immediately.
+		deliver(message);
 	    }
+	}
+    }
+
+    /**
+     * Outputs a message that is not a response, now that its turn has come.
+     */
+    private void deliver(Object message) {
+	if (message instanceof Shout) {
+	    doOutputShout((Shout) message);
 	} else {
-	    // The user is not waiting for a response. Send it immediately.
-	    doOutputMessage(message);
+	    doOutputMessage(render(message));
+	}
+    }
+
+    /**
+     * Turns a message into text, making a view into a LOOKREPLY, or a delta
+     * reply if the client has asked for them.
+     */
+    private String render(Object message) {
+	if (!(message instanceof View)) {
+	    return (String) message;
+	}
+
+	final View view = (View) message;
+	if (this.lookDelta != null) {
+	    return this.lookDelta.reply(view.look, view.full);
 	}
+	return "LOOKREPLY" + System.getProperty("line.separator") + view.look;
     }
 }
@@ -0,0 +1,173 @@
+package dodServer;
+
+/**
+ * Looks up the command a client has sent from its verb, without splitting the
+ * command line or creating a String for the verb.
+ *
+ * Each verb maps to an opcode, which CommandLineUser switches on for its own
+ * commands, or to a CommandHandler for commands registered from outside. The
+ * verbs are kept in an open addressed hash table, at most half full, using
+ * the same hash as String so a lookup hashes the characters where they are.
+ * The table is replaced rather than changed when a verb is added, so lookups
+ * need no lock.
+ */
+final class CommandRegistry {
+    /** The opcode of every command with a CommandHandler. */
+    static final int HANDLED = 0;
+
+    /**
+     * A registered verb.
+     */
+    static final class Entry {
+	private final String verb;
+	private final int hash;
+	private final int opcode;
+	private final CommandHandler handler;
+
+	private Entry(String verb, int opcode, CommandHandler handler) {
+	    this.verb = verb;
+	    this.hash = verb.hashCode();
+	    this.opcode = opcode;
+	    this.handler = handler;
+	}
+
+	/**
+	 * @return the opcode, or HANDLED if the command has a handler
+	 */
+	int getOpcode() {
+	    return this.opcode;
+	}
+
+	/**
+	 * @return the handler, or null for a built in command
+	 */
+	CommandHandler getHandler() {
+	    return this.handler;
+	}
+    }
+
+    private volatile Entry[] table = new Entry[16];
+    private int size = 0;
+
+    /**
+     * Adds a command which CommandLineUser handles itself.
+     *
+     * @param verb
+     *            the first word of the command, e.g. "MOVE"
+     * @param opcode
+     *            the opcode for it, which must not be HANDLED
+     * @throws IllegalArgumentException
+     *             if the verb is already registered
+     */
+    void register(String verb, int opcode) {
+	if (opcode == HANDLED) {
+	    throw new IllegalArgumentException("opcode " + HANDLED
+		    + " is for commands with a handler");
+	}
+	add(new Entry(verb, opcode, null));
+    }
+
+    /**
+     * Adds a command with a handler of its own.
+     *
+     * @param verb
+     *            the first word of the command
+     * @param handler
+     *            carries out the command
+     * @throws IllegalArgumentException
+     *             if the verb is already registered
+     */
+    void register(String verb, CommandHandler handler) {
+	if (handler == null) {
+	    throw new IllegalArgumentException("a command needs a handler");
+	}
+	add(new Entry(verb, HANDLED, handler));
+    }
+
+    /**
+     * Finds the command whose verb is part of a string.
+     *
+     * @param s
+     *            the string holding the verb
+     * @param start
+     *            the index of the first character of the verb
+     * @param end
+     *            the index after the last character of the verb
+     * @return the command, or null if there is no such verb
+     */
+    Entry lookup(CharSequence s, int start, int end) {
+	int hash = 0;
+	for (int i = start; i < end; i++) {
+	    hash = 31 * hash + s.charAt(i);
+	}
+
+	final Entry[] entries = this.table;
+	final int mask = entries.length - 1;
+
+	for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+	    final Entry entry = entries[slot];
+
+	    if (entry == null) {
+		return null;
+	    }
+	    if (entry.hash == hash && matches(entry.verb, s, start, end)) {
+		return entry;
+	    }
+	}
+    }
+
+    private synchronized void add(Entry entry) {
+	if (entry.verb.isEmpty() || entry.verb.indexOf(' ') != -1) {
+	    throw new IllegalArgumentException("invalid verb '" + entry.verb
+		    + "'");
+	}
+	if (lookup(entry.verb, 0, entry.verb.length()) != null) {
+	    throw new IllegalArgumentException(entry.verb
+		    + " is already a command");
+	}
+
+	// Keep the table at most half full, so probes stay short
+	int capacity = this.table.length;
+	while ((this.size + 1) * 2 > capacity) {
+	    capacity *= 2;
+	}
+
+	final Entry[] entries = new Entry[capacity];
+	for (final Entry e : this.table) {
+	    if (e != null) {
+		insert(entries, e);
+	    }
+	}
+	insert(entries, entry);
+
+	this.size++;
+	this.table = entries;
+    }
+
+    private static void insert(Entry[] entries, Entry entry) {
+	final int mask = entries.length - 1;
+	int slot = spread(entry.hash) & mask;
+
+	while (entries[slot] != null) {
+	    slot = (slot + 1) & mask;
+	}
+	entries[slot] = entry;
+    }
+
+    private static boolean matches(String verb, CharSequence s, int start,
+	    int end) {
+	if (verb.length() != end - start) {
+	    return false;
+	}
+	for (int i = 0; i < verb.length(); i++) {
+	    if (verb.charAt(i) != s.charAt(start + i)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static int spread(int hash) {
+	return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * The ways in which a server can service its client connections.
+ */
+
+package dodServer;
+
+public enum ConnectionMode {
+	/** One blocking thread per connected client. */
+	THREADED,
+	/** One blocking virtual thread per connected client, where the JVM supports them. */
+	VIRTUAL,
+	/** A small fixed pool of selector threads servicing non-blocking channels. */
+	NIO;
+
+	/**
+	 * Gets a connection mode from its name, ignoring case.
+	 * @param name Name of the mode, e.g. "nio".
+	 * @return The matching mode, or THREADED if the name is not recognised.
+	 */
+	public static ConnectionMode fromName(String name){
+		for(ConnectionMode mode : ConnectionMode.values()){
+			if(mode.name().equalsIgnoreCase(name)){
+				return mode;
+			}
+		}
+
+		return THREADED;
+	}
+}
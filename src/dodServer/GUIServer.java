@@ -23,6 +23,7 @@ import dodClients.AIGameClient;
 import dodGUI.ServerInfoPanel;
 import dodGUI.VisionPanel;
 import dodServer.game.GameLogic;
+import dodServer.game.MapUpdate;
 import dodUtil.CommandException;
 import dodUtil.ErrorListener;
 import dodUtil.UpdateWatcher;
@@ -37,23 +38,57 @@ public class GUIServer extends JFrame implements UpdateWatcher, ErrorListener{
 	
 	private String 			mapName;
 	private int				port;
+	private ConnectionMode	mode;
+	private boolean			eventLoop;
 	
 	private ServerLogic		srv;
 	
+	//The map as last drawn, and the version of it.
+	private char[][]		mapArr;
+	private long			mapVersion = -1;
+	
+	//How much of a map paged from disk is shown, from its top left corner.
+	private static final int PAGED_VIEW_SIZE = 64;
+	
 	
 	/**
 	 * Creates a new instance of this GUI.
-	 * @param args command line args (not used)
+	 * @param args command line args. May name the connection mode (threaded, virtual or nio), and "loop" to run the game on its own event loop.
 	 */
 	public static void main(String args[]){
+		ConnectionMode argMode = ConnectionMode.THREADED;
+		boolean argLoop = false;
+		
+		for(String arg : args){
+			if(arg.equalsIgnoreCase("loop")){
+				argLoop = true;
+			}
+			else{
+				argMode = ConnectionMode.fromName(arg);
+			}
+		}
+		
+		final ConnectionMode startMode = argMode;
+		final boolean startLoop = argLoop;
+		
 		//Running on the event dispatch thread as per the java tutorial recommendation: https://docs.oracle.com/javase/tutorial/uiswing/concurrency/initial.html
 		SwingUtilities.invokeLater(new Runnable() {
 		    public void run() {
-		    	new GUIServer();
+		    	new GUIServer(startMode, startLoop);
 		    }
 		});
 	}
 	public GUIServer(){
+		this(ConnectionMode.THREADED, false);
+	}
+	/**
+	 * Creates a new server GUI.
+	 * @param setMode How the server should service client connections.
+	 * @param setEventLoop Whether the game should run on its own event loop.
+	 */
+	public GUIServer(ConnectionMode setMode, boolean setEventLoop){
+		mode = setMode;
+		eventLoop = setEventLoop;
 		
 		this.setLayout(new BorderLayout());
 		
@@ -76,7 +111,7 @@ public class GUIServer extends JFrame implements UpdateWatcher, ErrorListener{
 		try {				
 			port = getPort();
 			mapName = getMapName();
-			srv = new ServerLogic(mapName, port, this);
+			srv = new ServerLogic(mapName, port, this, mode, eventLoop);
 		}
 		catch (CommandException e) {				
 			showWarning(e.getMessage());
@@ -187,7 +222,7 @@ public class GUIServer extends JFrame implements UpdateWatcher, ErrorListener{
 			public void actionPerformed(ActionEvent e) {
 				srv.stopServer();
 				thisFrame.dispose();
-				new GUIServer();
+				new GUIServer(mode, eventLoop);
 			}
 		});
 		
@@ -271,13 +306,36 @@ public class GUIServer extends JFrame implements UpdateWatcher, ErrorListener{
 	 * Updates the map from the server.
 	 */
 	private void updateMap(){
-		if(showMap == true){
-			char[][] mapArr = srv.getMap();
-			vp.changeSize(mapArr[0].length, mapArr.length);
+		if(showMap == true && srv.isMapPaged()){
+			//Paged maps have no versions to follow, so the window is drawn again.
+			char[][] window = srv.getMapWindow(0, 0, PAGED_VIEW_SIZE, PAGED_VIEW_SIZE);
+			
+			if(mapArr == null || mapArr.length != window.length || mapArr[0].length != window[0].length){
+				vp.changeSize(window[0].length, window.length);
+			}
+			mapArr = window;
 			vp.writeArr(mapArr);
 		}
+		else if(showMap == true){
+			MapUpdate changes = srv.getMapChangesSince(mapVersion);
+			mapArr = changes.applyTo(mapArr);
+			
+			if(changes.isFull()){
+				vp.changeSize(mapArr[0].length, mapArr.length);
+				vp.writeArr(mapArr);
+			}
+			else{
+				//Only redraw the cells that have changed.
+				for(int i = 0; i < changes.getCellCount(); i++){
+					vp.writeCell(changes.getCol(i), changes.getRow(i), changes.getChar(i));
+				}
+				vp.refresh();
+			}
+			mapVersion = changes.getVersion();
+		}
 		else{
 			vp.writeArr();
+			mapVersion = -1; //Draw everything when the map is shown again.
 		}
 		
 		this.validate();
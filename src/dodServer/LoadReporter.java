@@ -0,0 +1,127 @@
+/**
+ * Tells a router (see dodRouter.Router) how busy this server is, so it can send new clients to whichever server is
+ * least loaded, or to one running the game they ask for. Once a second by default, it sends one line:
+ * "LOAD port players games taskMicros name..." - the port clients connect on, the players in all games, the number of
+ * games, how long a command holds the busiest game thread on average, and the name of each game.
+ */
+
+package dodServer;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.List;
+
+class LoadReporter implements Runnable {
+
+	//How often to report, in milliseconds.
+	private static final long REPORT_INTERVAL = Long.getLong("dod.reportMillis", 1000);
+
+	private final ServerLogic 	server;
+	private final Lobby 		lobby;
+	private final String 		routerHost;
+	private final int 			routerPort;
+
+	private volatile boolean 	running = true;
+
+	/**
+	 * @param setServer The server to report on.
+	 * @param setLobby The games of that server.
+	 * @param router Address of the router's report port, as host:port.
+	 * @throws IllegalArgumentException If the router address is not host:port.
+	 */
+	LoadReporter(ServerLogic setServer, Lobby setLobby, String router){
+		server = setServer;
+		lobby = setLobby;
+
+		int colon = router.lastIndexOf(':');
+		if(colon <= 0){
+			throw new IllegalArgumentException("The router must be given as host:port");
+		}
+		routerHost = router.substring(0, colon);
+		routerPort = Integer.parseInt(router.substring(colon + 1));
+	}
+
+	/**
+	 * Stops reporting.
+	 */
+	void stop(){
+		running = false;
+	}
+
+	/**
+	 * Reporting thread: connects to the router, reconnecting whenever the connection is lost, and reports until
+	 * stopped.
+	 */
+	@Override
+	public void run(){
+		Socket sckt = null;
+		PrintWriter wrtr = null;
+
+		while(running){
+			try{
+				if(sckt == null){
+					sckt = new Socket(routerHost, routerPort);
+					wrtr = new PrintWriter(new OutputStreamWriter(sckt.getOutputStream()), true);
+				}
+
+				//Only servers that are listening are worth sending clients to.
+				if(server.isListening()){
+					wrtr.println(loadLine());
+					if(wrtr.checkError()){
+						throw new IOException("Lost the connection to the router");
+					}
+				}
+			}
+			catch(IOException e){
+				//The router may not be up yet, or has gone away. Try again next time.
+				if(sckt != null){
+					try{
+						sckt.close();
+					}
+					catch(IOException e2){
+					}
+					sckt = null;
+				}
+			}
+			catch(RuntimeException e){
+				//One bad report must not stop the reports after it.
+				System.err.println("Failed to report load to the router: " + e);
+			}
+
+			try{
+				Thread.sleep(REPORT_INTERVAL);
+			}
+			catch(InterruptedException e){
+				break;
+			}
+		}
+
+		if(sckt != null){
+			try{
+				sckt.close();
+			}
+			catch(IOException e){
+			}
+		}
+	}
+
+	/**
+	 * @return The report to send.
+	 */
+	private String loadLine(){
+		StringBuilder line = new StringBuilder("LOAD");
+		line.append(' ').append(server.getPort());
+		line.append(' ').append(lobby.getPlayerCount());
+
+		List<String> names = lobby.getGameNames();
+		line.append(' ').append(names.size());
+		line.append(' ').append(lobby.getAverageTaskNanos() / 1000);
+
+		for(String name : names){
+			line.append(' ').append(name);
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ * The games hosted by one server. Every client starts in the default game, and may move to any other with JOIN.
+ *
+ * Games share nothing with each other. With an event loop, each game is owned by a game thread of its own, so matches
+ * run on separate cores without ever waiting on each other's locks.
+ *
+ * Started with -Ddod.journalDir=<directory>, each game keeps a journal and a snapshot there named after it, and every
+ * game with a journal is rebuilt from them when the server next starts. The players of a rebuilt game are kept for
+ * -Ddod.reclaimSeconds (120 by default), for their clients to reconnect and take them over by saying HELLO with the
+ * same name.
+ *
+ * Started with -Ddod.seed=<number>, every new game rolls its dice from that seed, so a load test or benchmark sending
+ * the same commands plays out the same every time. Otherwise each game is given a seed of its own.
+ */
+
+package dodServer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import dodServer.game.GameJournal;
+import dodServer.game.GameLogic;
+import dodServer.game.GameRandom;
+import dodServer.game.SnapshotWriter;
+import dodUtil.CommandException;
+
+public class Lobby {
+
+	/** The name of the game clients join when they connect. */
+	public static final String DEFAULT_GAME = "main";
+	
+	//Directory games keep their journals in, or null if games are not journalled.
+	private static final String JOURNAL_DIR = System.getProperty("dod.journalDir");
+	private static final String JOURNAL_SUFFIX = ".journal";
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+	
+	//How long the players of a rebuilt game wait for their clients to reconnect.
+	private static final long RECLAIM_SECONDS = Long.getLong("dod.reclaimSeconds", 120);
+	
+	//Seed every new game's dice are rolled from, or null to give each game its own.
+	private static final Long SEED = Long.getLong("dod.seed");
+
+	private final Map<String, GameLogic> games = new LinkedHashMap<String, GameLogic>();
+	private final boolean eventLoop;
+	private ScheduledExecutorService reclaimTimer; //Created when a game is rebuilt with players.
+
+	/**
+	 * Creates a lobby, loading the default game.
+	 * @param mapName Name of the map to load into the default game.
+	 * @param setEventLoop If true, each game is owned by a game thread of its own, instead of being locked.
+	 */
+	public Lobby(String mapName, boolean setEventLoop)
+			throws CommandException{
+		eventLoop = setEventLoop;
+		createGame(DEFAULT_GAME, mapName);
+		
+		if(JOURNAL_DIR != null){
+			recoverGames();
+		}
+	}
+
+	/**
+	 * Creates a new game which clients can join. If games are journalled and the game has a journal already, the game
+	 * is rebuilt from it.
+	 * @param name Name clients join it by. Must be a single word.
+	 * @param mapName Name of the map to load into it, or null to use the map of its journal.
+	 * @return The new game.
+	 */
+	public GameLogic createGame(String name, String mapName)
+			throws CommandException{
+		if(name.isEmpty() || name.indexOf(' ') != -1){
+			throw new CommandException("a game name must be a single word");
+		}
+
+		synchronized(games){
+			if(games.containsKey(name)){
+				throw new CommandException("there is already a game called " + name);
+			}
+		}
+
+		long seed = SEED != null ? SEED : GameRandom.newSeed();
+		GameJournal journal = null;
+		if(JOURNAL_DIR != null){
+			journal = openJournal(name, mapName, seed);
+			mapName = journal.getMapName();
+			seed = journal.getSeed();
+		}
+
+		try{
+			return startGame(name, mapName, seed, journal);
+		}
+		catch(CommandException e){
+			if(journal != null){
+				journal.close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Loads a game, rebuilding it from its journal if it has one, and adds it to the lobby.
+	 */
+	private GameLogic startGame(String name, String mapName, long seed, GameJournal journal)
+			throws CommandException{
+		GameLogic game;
+		int detached = 0;
+
+		//Load in the map.
+		try{
+			game = new GameLogic(mapName, new GameRandom(seed));
+		}
+		catch (ParseException e){
+			throw new CommandException("Syntax error on line " + e.getErrorOffset() + ":" + System.getProperty("line.separator") + e.getMessage());
+		}
+		catch (FileNotFoundException e) {
+			throw new CommandException("Map file not found.");
+		}
+		catch (IllegalStateException e){
+			throw new CommandException("Entered map is not valid: " + e.getMessage());
+		}
+
+		if(journal != null){
+			try{
+				File snapshot = new File(JOURNAL_DIR, name + SNAPSHOT_SUFFIX);
+				boolean hadSnapshot = snapshot.exists();
+
+				int replayed = game.recover(journal, new SnapshotWriter(snapshot));
+				detached = game.getDetachedPlayerCount();
+				if(hadSnapshot){
+					System.out.println("Recovered game " + name + " from its snapshot and " + replayed + " journal records");
+				}
+				else if(replayed > 0){
+					System.out.println("Recovered game " + name + " from " + replayed + " journal records");
+				}
+			}
+			catch(IOException e){
+				throw new CommandException("failed to recover game " + name + ": " + e.getMessage());
+			}
+		}
+
+		synchronized(games){
+			if(games.containsKey(name)){
+				game.closeJournal();
+				throw new CommandException("there is already a game called " + name);
+			}
+
+			if(eventLoop){
+				game.startEventLoop("dod-game-" + name);
+			}
+			games.put(name, game);
+		}
+		
+		if(detached > 0){
+			expireDetachedPlayers(name, game, detached);
+		}
+		return game;
+	}
+
+	/**
+	 * Removes the players a game was rebuilt with, once their clients have had time to reclaim them.
+	 */
+	private void expireDetachedPlayers(final String name, final GameLogic game, int detached){
+		System.out.println("Game " + name + " keeps " + detached + " players for " + RECLAIM_SECONDS
+				+ " seconds, for their clients to reclaim");
+		
+		synchronized(this){
+			if(reclaimTimer == null){
+				ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+					public Thread newThread(Runnable r){
+						Thread t = new Thread(r, "dod-reclaim");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+				reclaimTimer = timer;
+			}
+		}
+		
+		reclaimTimer.schedule(new Runnable(){
+			public void run(){
+				//On the game's own thread, if it has one.
+				game.submit(new Callable<Void>(){
+					public Void call(){
+						int removed = game.removeDetachedPlayers();
+						if(removed > 0){
+							System.out.println("Removed " + removed + " unclaimed players from game " + name);
+						}
+						return null;
+					}
+				});
+			}
+		}, RECLAIM_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Opens the journal of a game, creating it if the game has none.
+	 * @param mapName Map the game is to be loaded from, or null to use the map of its journal.
+	 * @param seed Seed of the game's dice, if it has no journal yet.
+	 */
+	private static GameJournal openJournal(String name, String mapName, long seed)
+			throws CommandException{
+		File dir = new File(JOURNAL_DIR);
+		File file = new File(dir, name + JOURNAL_SUFFIX);
+		GameJournal journal;
+
+		if(mapName == null && file.exists() == false){
+			throw new CommandException("game " + name + " has no journal");
+		}
+		dir.mkdirs();
+
+		try{
+			journal = GameJournal.open(file, mapName, seed);
+		}
+		catch(IOException e){
+			throw new CommandException("failed to open the journal of game " + name + ": " + e.getMessage());
+		}
+
+		if(mapName != null && mapName.equals(journal.getMapName()) == false){
+			journal.close();
+			throw new CommandException("game " + name + " was journalled on map " + journal.getMapName()
+					+ ", so cannot be started on another");
+		}
+		return journal;
+	}
+
+	/**
+	 * Rebuilds every game with a journal that has not been created yet.
+	 */
+	private void recoverGames(){
+		File[] files = new File(JOURNAL_DIR).listFiles();
+		if(files == null){
+			return;
+		}
+
+		for(File file : files){
+			String fileName = file.getName();
+			if(fileName.endsWith(JOURNAL_SUFFIX) == false){
+				continue;
+			}
+
+			String name = fileName.substring(0, fileName.length() - JOURNAL_SUFFIX.length());
+			if(getGame(name) != null){
+				continue;
+			}
+
+			try{
+				createGame(name, null);
+			}
+			catch(CommandException e){
+				System.err.println("Failed to recover game " + name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param name Name of the game.
+	 * @return The game, or null if there is no game with that name.
+	 */
+	public GameLogic getGame(String name){
+		synchronized(games){
+			return games.get(name);
+		}
+	}
+
+	/**
+	 * @return The game clients join when they connect.
+	 */
+	public GameLogic getDefaultGame(){
+		return getGame(DEFAULT_GAME);
+	}
+
+	/**
+	 * @return The names of every game, oldest first.
+	 */
+	public List<String> getGameNames(){
+		synchronized(games){
+			return new ArrayList<String>(games.keySet());
+		}
+	}
+
+	/**
+	 * @return The number of players in all the games.
+	 */
+	public int getPlayerCount(){
+		int count = 0;
+		synchronized(games){
+			for(GameLogic game : games.values()){
+				count += game.getPlayerCount();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return How long a command holds the game thread on average, in the busiest game, in nanoseconds.
+	 */
+	public long getAverageTaskNanos(){
+		long slowest = 0;
+		synchronized(games){
+			for(GameLogic game : games.values()){
+				slowest = Math.max(slowest, game.getAverageTaskNanos());
+			}
+		}
+		return slowest;
+	}
+
+	/**
+	 * Stops the game thread of every game, and closes their journals.
+	 */
+	public void stopGames(){
+		synchronized(this){
+			if(reclaimTimer != null){
+				reclaimTimer.shutdown();
+			}
+		}
+		synchronized(games){
+			for(GameLogic game : games.values()){
+				game.closeJournal();
+				game.stopEventLoop();
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package dodServer;
+
+import dodServer.game.LookView;
+
+/**
+ * Remembers the last look reply sent to a client that has asked for delta
+ * looks, so that later looks can be sent as just the cells that have changed.
+ *
+ * Every reply carries a sequence number. A full reply is
+ * "LOOKREPLY seq" followed by a line per row, as usual. A delta is one line,
+ * "LOOKDIFF seq dRow dCol cells...", which means: shift the previous view so
+ * that each cell (row, col) takes the old cell (row + dRow, col + dCol), then
+ * set each listed cell, given as its index (row * size + col) followed by its
+ * new character. Cells shifted in from outside the old view are always
+ * listed. A delta is only sent if it is shorter than the view itself, so
+ * after a move, which changes a whole edge of the view, the reply is often a
+ * full one. A client which has missed a reply can ask for "LOOK FULL".
+ */
+class LookDelta {
+    private static final String LINE_SEPARATOR = System
+	    .getProperty("line.separator");
+
+    // The last view sent, or null if a full reply is needed
+    private LookView last = null;
+    private long sequence = 0;
+
+    /**
+     * Works out the reply to a look. The view is shifted by however far the
+     * player has moved since the last one, so at most one pass over the cells
+     * is needed.
+     *
+     * @param view
+     *            the view from the game
+     * @param full
+     *            true to send the whole view whatever the client has
+     * @return the reply to send
+     */
+    String reply(LookView view, boolean full) {
+	final LookView previous = this.last;
+	final int size = view.getSize();
+
+	this.last = view;
+	this.sequence++;
+
+	if (full || previous == null || previous.getSize() != size) {
+	    return "LOOKREPLY " + this.sequence + LINE_SEPARATOR + view;
+	}
+
+	// The old cell at (row + dRow, col + dCol) shows the same place
+	final int dRow = view.getRow() - previous.getRow();
+	final int dCol = view.getCol() - previous.getCol();
+
+	if (Math.abs(dRow) >= size || Math.abs(dCol) >= size) {
+	    // Nothing the client has is still in view
+	    return "LOOKREPLY " + this.sequence + LINE_SEPARATOR + view;
+	}
+
+	final StringBuilder diff = new StringBuilder(32);
+	diff.append("LOOKDIFF ").append(this.sequence);
+
+	// The length of "LOOKREPLY <sequence>" and the view after it
+	final int limit = diff.length() + 1 + LINE_SEPARATOR.length() + size
+		* (size + LINE_SEPARATOR.length());
+
+	diff.append(' ').append(dRow).append(' ').append(dCol);
+
+	int cell = 0;
+	for (int row = 0; row < size; row++) {
+	    final int oldRow = row + dRow;
+
+	    for (int col = 0; col < size; col++, cell++) {
+		final int oldCol = col + dCol;
+		final char now = view.getCell(cell);
+
+		// Cells shifted in from outside the old view are always sent
+		if (oldRow < 0 || oldRow >= size || oldCol < 0 || oldCol >= size
+			|| previous.getCell(oldRow * size + oldCol) != now) {
+		    diff.append(' ').append(cell).append(now);
+
+		    if (diff.length() >= limit) {
+			return "LOOKREPLY " + this.sequence + LINE_SEPARATOR
+				+ view;
+		    }
+		}
+	    }
+	}
+
+	return diff.toString();
+    }
+
+    /**
+     * Forgets the last view, so the next reply is a full one.
+     */
+    void reset() {
+	this.last = null;
+    }
+}
@@ -7,6 +7,7 @@
 
 package dodServer;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,8 +16,17 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import dodServer.game.GameLogic;
+import dodServer.game.Shout;
+import dodUtil.BinaryProtocol;
 
 public class NetworkedUser extends CommandLineUser{
 	
@@ -29,20 +39,68 @@ public class NetworkedUser extends CommandLineUser{
 	PrintWriter writer;
 	BufferedReader reader;
 	boolean connectionOpen; //For trying to close the connection elegantly.
+	private volatile boolean binary = false; //Whether messages are sent as BinaryProtocol frames rather than text.
+	
+	//Output is queued and written by a writer of its own, so that whoever produces a message (usually the game) never
+	//waits on this client, and a client that stops reading only ever holds up its own output. Everything a command
+	//produces is written together; anything else waits at most this long.
+	private static final long MAX_FLUSH_DELAY = Long.getLong("dod.flushMillis", 5);
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+	
+	//How many messages may be waiting for a slow client, and what happens when there are more.
+	private static final int OUTBOUND_CAPACITY = Integer.getInteger("dod.outboundCapacity", 1024);
+	private static final OutboundPolicy SLOW_CLIENTS = OutboundPolicy.fromName(System.getProperty("dod.slowClients"));
+	
+	//Longest a client may take to accept one batch before it is disconnected, so it can't keep its writer forever.
+	private static final long WRITE_TIMEOUT = Long.getLong("dod.writeTimeoutMillis", 10000);
+	
+	//Times out writes.
+	private static final ScheduledExecutorService timer = newTimer();
+	
+	private final OutboundQueue queue = new OutboundQueue(OUTBOUND_CAPACITY, SLOW_CLIENTS);
+	
+	private final Runnable outputWriter = new Runnable(){
+		public void run(){
+			writeOutput();
+		}
+	};
+	
+	private final Runnable writeTimedOut = new Runnable(){
+		public void run(){
+			disconnectSlowClient();
+			closeConnection(); //Even if the session has already finished.
+		}
+	};
 	
 	/**
 	 * Constructor, sets up game
 	 * @param game Instance of GameLogic this player should be associated with.
 	 * @param setClient Instance of Socket where the client can be found.
+	 * @param setWriters Executor that starts the client's writer, which runs until the connection closes.
+	 */
+	public NetworkedUser(GameLogic game, Socket setClient, Executor setWriters) {
+		this(game, null, setClient, setWriters);
+	}
+	
+	/**
+	 * Constructor, puts the player in the default game of a lobby, from where they can JOIN any other.
+	 * @param lobby Lobby of the games this player can join.
+	 * @param setClient Instance of Socket where the client can be found.
+	 * @param setWriters Executor that starts the client's writer, which runs until the connection closes.
 	 */
-	public NetworkedUser(GameLogic game, Socket setClient) {
-		super(game);
+	public NetworkedUser(Lobby lobby, Socket setClient, Executor setWriters) {
+		this(lobby.getDefaultGame(), lobby, setClient, setWriters);
+	}
+	
+	private NetworkedUser(GameLogic game, Lobby lobby, Socket setClient, Executor setWriters) {
+		super(game, lobby);
 		connectionOpen = true;
 
 		client = setClient;
 		try{
 			in = client.getInputStream();
-			writer = new PrintWriter(new OutputStreamWriter(client.getOutputStream()), true);
+			out = new BufferedOutputStream(client.getOutputStream(), OUTPUT_BUFFER_SIZE);
+			writer = new PrintWriter(new OutputStreamWriter(out), false);
 			reader = new BufferedReader(new InputStreamReader(client.getInputStream()));
 		}
 		catch(IOException e){
@@ -51,16 +109,18 @@ public class NetworkedUser extends CommandLineUser{
 			System.exit(1);
 		}
 		
+		setWriters.execute(outputWriter);
 		addPlayer();
 	}
 	/**
 	 *Closes this client connection and makes it so that a running instance of this thread will finish what it is doing.
 	 */
-	public synchronized void end(){
+	public void end(){
 		connectionOpen = false;
 		
 		//Remove the associated player.
 		removePlayer();
+		queue.close();
 	}
 	
     /**
@@ -72,7 +132,19 @@ public class NetworkedUser extends CommandLineUser{
 		while (connectionOpen) {
 		    try {
 				String cmd = reader.readLine(); //Get the command from the client input stream.
-				processCommand(cmd);
+				
+				if(cmd == null){
+					break; //The client has gone away.
+				}
+				
+				//Everything the command produced goes out together.
+				queue.hold();
+				try{
+					runCommand(cmd);
+				}
+				finally{
+					queue.release();
+				}
 		    }
 		    catch (IOException e) {
 				System.err.println("IO error with client at " + client.getInetAddress().getHostAddress() + ". Stopping client thread..");    
@@ -87,7 +159,95 @@ public class NetworkedUser extends CommandLineUser{
 		connectionOpen = false;
 		removePlayer();
 		
-		//If the connection isn't closed, close it.
+		//The writer sends anything still queued, then closes the connection.
+		queue.close();
+    }
+    
+    /**
+     * Writer: Writes everything the queue has ready to the client, a batch at a time, until the queue is closed and
+     * empty. Then closes the connection.
+     */
+    private void writeOutput(){
+    	try{
+    		List<OutboundQueue.Entry> batch;
+    		while((batch = queue.take(MAX_FLUSH_DELAY)) != null){
+    			ScheduledFuture<?> timeout = timer.schedule(writeTimedOut, WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+    			try{
+    				writeBatch(batch);
+    			}
+    			finally{
+    				timeout.cancel(false);
+    			}
+    			
+    			if(writer.checkError()){
+    				break;
+    			}
+    		}
+    	}
+    	catch(IOException e){
+    		//Leave it to the reading thread to notice the connection has gone.
+    	}
+    	catch(InterruptedException e){
+    		Thread.currentThread().interrupt();
+    	}
+    	
+    	queue.close();
+    	closeConnection();
+    }
+    
+    /**
+     * Writes one batch of messages to the client.
+     */
+    private void writeBatch(List<OutboundQueue.Entry> batch)
+    		throws IOException{
+    	boolean textPending = false;
+    	
+    	for(OutboundQueue.Entry entry : batch){
+    		if(entry.getShout() != null){
+    			//Written straight from the encoding every recipient shares.
+    			if(textPending){
+    				writer.flush();
+    				textPending = false;
+    			}
+    			entry.getShout().writeTo(out, entry.isBinary());
+    		}
+    		else if(entry.isBinary()){
+    			//Text goes through the writer's own buffer, which must be emptied first to keep messages in order.
+    			if(textPending){
+    				writer.flush();
+    				textPending = false;
+    			}
+    			out.write(BinaryProtocol.encode(entry.getMessage()));
+    		}
+    		else{
+    			writer.println(entry.getMessage());
+    			textPending = true;
+    		}
+    	}
+    	
+    	//This also flushes the binary output, which shares the underlying stream.
+    	writer.flush();
+    }
+    
+    /**
+     * @return The write timer shared by every client, on a daemon thread of its own.
+     */
+    private static ScheduledExecutorService newTimer(){
+    	ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+    		public Thread newThread(Runnable r){
+    			Thread t = new Thread(r, "dod-write-timeout");
+    			t.setDaemon(true);
+    			return t;
+    		}
+    	});
+    	timer.setRemoveOnCancelPolicy(true);
+    	return timer;
+    }
+    
+    /**
+     * Closes the client connection, if it isn't closed already. The reading thread then stops.
+     */
+    private synchronized void closeConnection(){
 		if(client.isClosed() == false){
 			System.out.println("Closing client connection: '" +  client.getInetAddress().getHostAddress() + "'...");
 			
@@ -107,10 +267,53 @@ public class NetworkedUser extends CommandLineUser{
 
     @Override
     /**
-     * Prints a message to standard out.
-     * @param msg Message to send to standard out.
+     * Queues a message for the client.
+     * @param msg Message to send.
      */
-    protected synchronized void doOutputMessage(String msg) {
-    	writer.println(msg);
+    protected void doOutputMessage(String msg) {
+    	if(queue.offer(msg, binary) == false){
+    		disconnectSlowClient();
+    	}
+    }
+    
+    @Override
+    /**
+     * Queues a shout for the client.
+     * @param shout Shout to send.
+     */
+    protected void doOutputShout(Shout shout){
+    	if(queue.offer(shout, binary) == false){
+    		disconnectSlowClient();
+    	}
+    }
+    
+    /**
+     * Disconnects a client which has fallen too far behind.
+     */
+    private void disconnectSlowClient(){
+    	if(connectionOpen){
+    		//The client has fallen too far behind. Closing the socket does not wait on the client, and frees its
+    		//writer (which may be stuck writing to it) and stops the reading thread.
+    		connectionOpen = false;
+    		System.err.println("Client at " + client.getInetAddress().getHostAddress() + " is not keeping up. Disconnecting..");
+    		closeConnection();
+    	}
+    }
+    
+    /**
+     * Networked clients may switch to the binary protocol.
+     */
+    @Override
+    protected boolean supportsBinaryProtocol(){
+    	return true;
+    }
+    
+    /**
+     * Sends everything from now on as binary frames.
+     */
+    @Override
+    protected void useBinaryProtocol(){
+    	//Messages already queued keep the protocol they were queued with.
+    	binary = true;
     }
 }
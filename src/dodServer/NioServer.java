@@ -0,0 +1,159 @@
+/**
+ * A non-blocking connection engine for the Dungeon of Doom server. A single acceptor thread hands new
+ * connections out to a small, fixed pool of NioWorker threads, so the number of threads does not grow
+ * with the number of connected clients.
+ */
+
+package dodServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import dodUtil.ErrorListener;
+
+public class NioServer {
+
+	private final Lobby 		lobby;
+	private final ErrorListener errorHandler;
+	private final NioWorker[] 	workers;
+
+	private ServerSocketChannel serverChannel;
+	private Selector 			acceptSelector;
+	private volatile boolean 	running;
+	private int 				nextWorker = 0;
+
+	/**
+	 * Creates a new engine, which will not accept connections until told to.
+	 * @param setLobby Lobby of the games connecting users can join.
+	 * @param ioThreads Number of worker threads servicing client connections.
+	 * @param setErrorHandler Handler for server errors.
+	 */
+	public NioServer(Lobby setLobby, int ioThreads, ErrorListener setErrorHandler){
+		lobby = setLobby;
+		errorHandler = setErrorHandler;
+		workers = new NioWorker[Math.max(1, ioThreads)];
+	}
+
+	/**
+	 * Binds the listening socket and starts accepting connections. The worker threads are started the
+	 * first time this is called.
+	 * @param port Port to listen on.
+	 * @throws IOException If the port could not be bound.
+	 */
+	public synchronized void startAccepting(int port)
+			throws IOException{
+		if(workers[0] == null){
+			for(int i = 0; i < workers.length; i++){
+				workers[i] = new NioWorker(lobby);
+				new Thread(workers[i], "dod-nio-worker-" + i).start();
+			}
+		}
+
+		serverChannel = ServerSocketChannel.open();
+		try{
+			serverChannel.bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+
+			acceptSelector = Selector.open();
+			serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		}
+		catch(IOException e){
+			serverChannel.close();
+			throw e;
+		}
+
+		running = true;
+
+		//Start the acceptor thread.
+		final Selector selector = acceptSelector;
+		final ServerSocketChannel listener = serverChannel;
+		new Thread("dod-nio-acceptor"){
+			public void run(){
+				acceptLoop(selector, listener);
+			}
+		}.start();
+	}
+
+	/**
+	 * Stops accepting new connections. Clients that are already connected stay connected.
+	 */
+	public synchronized void stopAccepting(){
+		running = false;
+
+		try {
+			if(acceptSelector != null){
+				acceptSelector.close();
+			}
+			if(serverChannel != null){
+				serverChannel.close();
+			}
+		}
+		catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Stops accepting connections, and disconnects every connected client.
+	 */
+	public synchronized void shutdown(){
+		stopAccepting();
+
+		for(NioWorker w : workers){
+			if(w != null){
+				w.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of clients connected through this engine.
+	 */
+	public int getConnectionCount(){
+		int count = 0;
+
+		for(NioWorker w : workers){
+			if(w != null){
+				count += w.getConnectionCount();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Accepts connections until stopped, handing them to the workers round-robin.
+	 */
+	private void acceptLoop(Selector selector, ServerSocketChannel listener){
+		while(running && selector.isOpen()){
+			try {
+				selector.select();
+				selector.selectedKeys().clear();
+
+				SocketChannel client;
+				while((client = listener.accept()) != null){
+					client.configureBlocking(false);
+					workers[nextWorker].register(client);
+					nextWorker = (nextWorker + 1) % workers.length;
+				}
+			}
+			catch (ClosedChannelException e){
+				//The server has stopped listening.
+			}
+			catch (IOException e) {
+				if(running){
+					errorHandler.errorOccured("An error with a client occured.");
+				}
+			}
+			catch (RuntimeException e){
+				//Thrown if the selector was closed from under us while stopping.
+				if(running){
+					errorHandler.errorOccured("An error with a client occured.");
+				}
+			}
+		}
+	}
+}
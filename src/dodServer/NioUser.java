@@ -0,0 +1,211 @@
+/**
+ * A remote client serviced by a NioWorker rather than its own thread. Incoming bytes are framed into
+ * newline delimited commands, and outgoing messages are queued until the worker can write them.
+ */
+
+package dodServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import dodServer.game.Shout;
+import dodUtil.BinaryProtocol;
+
+class NioUser extends CommandLineUser {
+
+	//Longest command we will buffer before giving up on the client.
+	private static final int MAX_LINE_LENGTH = 65536;
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	
+	//How many messages may be waiting for a slow client, and what happens when there are more.
+	private static final int OUTBOUND_CAPACITY = Integer.getInteger("dod.outboundCapacity", 1024);
+	private static final OutboundPolicy SLOW_CLIENTS = OutboundPolicy.fromName(System.getProperty("dod.slowClients"));
+
+	private final SocketChannel channel;
+	private final NioWorker 	worker;
+
+	//Bytes of the command currently being received.
+	private byte[] 	lineBytes = new byte[128];
+	private int 	lineLength = 0;
+
+	//Messages waiting to be written to the channel, and the ones the worker has taken but not finished writing.
+	private final OutboundQueue 	queue = new OutboundQueue(OUTBOUND_CAPACITY, SLOW_CLIENTS);
+	private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<ByteBuffer>();
+
+	private volatile boolean connectionOpen = true;
+
+	//Whether messages are sent as BinaryProtocol frames rather than text.
+	private volatile boolean binary = false;
+
+	/**
+	 * @param lobby Lobby of the games this player can join. The player starts in the default game.
+	 * @param setChannel The channel the client is connected on.
+	 * @param setWorker The worker servicing the channel.
+	 */
+	NioUser(Lobby lobby, SocketChannel setChannel, NioWorker setWorker){
+		super(lobby.getDefaultGame(), lobby);
+		channel = setChannel;
+		worker = setWorker;
+	}
+
+	/**
+	 * Adds the player to the game, once the worker is ready to service the connection.
+	 */
+	void start(){
+		addPlayer();
+	}
+
+	/**
+	 * Closes this client connection, removing the associated player.
+	 */
+	synchronized void end(){
+		connectionOpen = false;
+		removePlayer();
+		queue.close();
+	}
+
+	/**
+	 * @return Indicates whether or not the connection is still open.
+	 */
+	boolean isConnectionOpen(){
+		return connectionOpen;
+	}
+
+	/**
+	 * @return The channel this client is connected on.
+	 */
+	SocketChannel getChannel(){
+		return channel;
+	}
+
+	/**
+	 * Splits received bytes into lines, processing each complete line as a command.
+	 * @param data Bytes read from the channel.
+	 */
+	void receive(ByteBuffer data){
+		while(data.hasRemaining()){
+			byte b = data.get();
+
+			if(b == '\n'){
+				int length = lineLength;
+				if(length > 0 && lineBytes[length - 1] == '\r'){
+					length--;
+				}
+
+				String cmd = new String(lineBytes, 0, length);
+				lineLength = 0;
+				
+				//Don't wait for the game here, or the whole worker would stall behind it.
+				submitCommand(cmd);
+			}
+			else{
+				if(lineLength == lineBytes.length){
+					if(lineLength >= MAX_LINE_LENGTH){
+						throw new IllegalStateException("command too long");
+					}
+					lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+				}
+				lineBytes[lineLength++] = b;
+			}
+		}
+	}
+
+	/**
+	 * Writes as much queued output as the channel will accept. Only called on the worker thread.
+	 * @return True if everything was written, false if the channel is full.
+	 * @throws IOException If the client has fallen too far behind, or the channel fails.
+	 */
+	boolean flush()
+			throws IOException{
+		if(queue.isOverflowed()){
+			throw new IOException("client is not keeping up");
+		}
+		
+		while(true){
+			ByteBuffer buf = writing.peek();
+			
+			if(buf == null){
+				List<OutboundQueue.Entry> batch = queue.poll(0);
+				if(batch == null){
+					return true;
+				}
+				for(OutboundQueue.Entry entry : batch){
+					writing.add(encode(entry));
+				}
+				continue;
+			}
+			
+			channel.write(buf);
+
+			if(buf.hasRemaining()){
+				return false;
+			}
+			writing.poll();
+		}
+	}
+	
+	/**
+	 * @return The bytes of a queued message or shout.
+	 */
+	private static ByteBuffer encode(OutboundQueue.Entry entry){
+		if(entry.getShout() != null){
+			return entry.getShout().toBuffer(entry.isBinary());
+		}
+		if(entry.isBinary()){
+			return ByteBuffer.wrap(BinaryProtocol.encode(entry.getMessage()));
+		}
+		return ByteBuffer.wrap((entry.getMessage() + LINE_SEPARATOR).getBytes());
+	}
+
+	/**
+	 * Not used - the connection is driven by its NioWorker rather than a thread of its own.
+	 */
+	@Override
+	public void run() {
+	}
+
+	/**
+	 * Queues a message to be sent to the client.
+	 * @param msg Message to send.
+	 */
+	@Override
+	protected void doOutputMessage(String msg) {
+		if(connectionOpen){
+			//Has the worker close the connection if the client has fallen too far behind.
+			queue.offer(msg, binary);
+			worker.requestWrite(this);
+		}
+	}
+
+	/**
+	 * Queues a shout, sharing its encoding with every other recipient.
+	 */
+	@Override
+	protected void doOutputShout(Shout shout){
+		if(connectionOpen){
+			queue.offer(shout, binary);
+			worker.requestWrite(this);
+		}
+	}
+
+	/**
+	 * Networked clients may switch to the binary protocol.
+	 */
+	@Override
+	protected boolean supportsBinaryProtocol(){
+		return true;
+	}
+
+	/**
+	 * Queues everything from now on as binary frames.
+	 */
+	@Override
+	protected void useBinaryProtocol(){
+		binary = true;
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * One of the selector threads of a NioServer. Reads newline delimited commands from each of its
+ * channels and passes them to the owning NioUser, and writes out anything queued for those users.
+ */
+
+package dodServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+class NioWorker implements Runnable {
+
+	//Size of the buffer used for every read from a channel.
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final Lobby 	lobby;
+	private final Selector 	selector;
+
+	//Channels waiting to be registered, and users waiting to have their output written.
+	private final Queue<SocketChannel> 	pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+	private final Queue<NioUser> 		pendingWrites = new ConcurrentLinkedQueue<NioUser>();
+
+	//Shared by all the channels of this worker, since only this thread reads.
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+	private volatile boolean 	running = true;
+	private volatile int 		connectionCount = 0;
+	private Thread 				workerThread;
+
+	/**
+	 * @param setLobby Lobby of the games users connecting through this worker can join.
+	 */
+	NioWorker(Lobby setLobby)
+			throws IOException{
+		lobby = setLobby;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Hands a newly accepted channel to this worker.
+	 * @param channel A non-blocking client channel.
+	 */
+	void register(SocketChannel channel){
+		pendingChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Asks for the queued output of a user to be written. Output produced on the worker thread itself
+	 * is written once the current read has been handled, so there is no need to wake the selector.
+	 * @param user User with output waiting.
+	 */
+	void requestWrite(NioUser user){
+		pendingWrites.add(user);
+
+		if(Thread.currentThread() != workerThread){
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Stops this worker and closes all of its connections.
+	 */
+	void shutdown(){
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * @return The number of clients this worker is servicing.
+	 */
+	int getConnectionCount(){
+		return connectionCount;
+	}
+
+	/**
+	 * Running thread: services the channels of this worker until shut down.
+	 */
+	@Override
+	public void run(){
+		workerThread = Thread.currentThread();
+
+		try{
+			while(running){
+				selector.select();
+
+				registerPendingChannels();
+				writePendingUsers();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					NioUser usr = (NioUser) key.attachment();
+
+					if(key.isValid() && key.isReadable()){
+						handleRead(key, usr);
+					}
+					if(key.isValid() && key.isWritable()){
+						handleWrite(key, usr);
+					}
+				}
+
+				writePendingUsers();
+			}
+		}
+		catch(IOException e){
+			System.err.println("Selector failed. Stopping worker thread.");
+		}
+		catch(ClosedSelectorException e){
+		}
+
+		//Close everything left over.
+		for(SelectionKey key : selector.keys()){
+			close(key, (NioUser) key.attachment());
+		}
+		try {
+			selector.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Registers any waiting channels with the selector and adds their players to the game.
+	 */
+	private void registerPendingChannels(){
+		SocketChannel channel;
+
+		while((channel = pendingChannels.poll()) != null){
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				NioUser usr = new NioUser(lobby, channel, this);
+				key.attach(usr);
+				connectionCount++;
+
+				usr.start();
+			}
+			catch (IOException e) {
+				System.err.println("Failed to set up client/server connection.");
+			}
+		}
+	}
+
+	/**
+	 * Writes out what it can for every user that has asked for a write.
+	 */
+	private void writePendingUsers(){
+		NioUser usr;
+
+		while((usr = pendingWrites.poll()) != null){
+			SelectionKey key = usr.getChannel().keyFor(selector);
+
+			if(key != null && key.isValid()){
+				handleWrite(key, usr);
+			}
+		}
+	}
+
+	/**
+	 * Reads whatever is available from the channel and passes it to the user.
+	 */
+	private void handleRead(SelectionKey key, NioUser usr){
+		try {
+			readBuffer.clear();
+			int read = usr.getChannel().read(readBuffer);
+
+			if(read < 0){
+				close(key, usr);
+				return;
+			}
+
+			readBuffer.flip();
+			usr.receive(readBuffer);
+		}
+		catch (IOException e) {
+			System.err.println("IO error with client. Stopping client connection..");
+			close(key, usr);
+		}
+		catch (RuntimeException e){
+			System.err.println("Error with client. Stopping client connection.");
+			close(key, usr);
+		}
+	}
+
+	/**
+	 * Writes as much of the users output as the channel will take, and waits for the channel to become
+	 * writable again if some is left over.
+	 */
+	private void handleWrite(SelectionKey key, NioUser usr){
+		try {
+			if(usr.flush()){
+				key.interestOps(SelectionKey.OP_READ);
+			}
+			else{
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+		catch (IOException e) {
+			System.err.println("IO error with client. Stopping client connection..");
+			close(key, usr);
+		}
+	}
+
+	/**
+	 * Closes a client connection and removes its player from the game.
+	 */
+	private void close(SelectionKey key, NioUser usr){
+		key.cancel();
+
+		if(usr != null && usr.isConnectionOpen()){
+			usr.end();
+			connectionCount--;
+		}
+
+		try {
+			key.channel().close();
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't remove client...?");
+		}
+	}
+}
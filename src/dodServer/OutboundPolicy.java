@@ -0,0 +1,28 @@
+/**
+ * What a connection does with a client that is not reading its messages as fast as they are produced, once its
+ * outbound queue is full.
+ */
+
+package dodServer;
+
+public enum OutboundPolicy {
+	/** Drop the oldest CHANGE or chat message to make room, disconnecting if there is nothing that can be dropped. */
+	DROP_OLDEST,
+	/** Disconnect the client straight away. */
+	DISCONNECT;
+
+	/**
+	 * Gets a policy from its name, ignoring case and allowing '-' in place of '_'.
+	 * @param name Name of the policy, e.g. "drop-oldest".
+	 * @return The matching policy, or DROP_OLDEST if the name is not recognised.
+	 */
+	public static OutboundPolicy fromName(String name){
+		for(OutboundPolicy policy : OutboundPolicy.values()){
+			if(policy.name().equalsIgnoreCase(name == null ? null : name.replace('-', '_'))){
+				return policy;
+			}
+		}
+
+		return DROP_OLDEST;
+	}
+}
@@ -0,0 +1,342 @@
+/**
+ * A bounded queue of messages waiting to be written to one client, so that whatever produces them (usually the game)
+ * never waits on the client's socket. Whoever writes to the client takes everything queued at once and writes it
+ * together: a NetworkedUser's own writer waits for it with take(), a NioWorker checks for it with poll().
+ *
+ * State updates are coalesced as they are queued: a CHANGE is dropped if one is already waiting, and consecutive
+ * HITMOD or TREASUREMOD messages are added together. Once the queue is full, the OutboundPolicy decides whether to make
+ * room by dropping the oldest CHANGE or chat message (FROM and its MESSAGE go together), or to give up on the client.
+ */
+
+package dodServer;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dodServer.game.Shout;
+
+class OutboundQueue {
+
+	/**
+	 * A queued message or shout, and whether it should be written in the binary protocol.
+	 */
+	static class Entry {
+		private String 			message;
+		private final Shout 	shout;
+		private final boolean 	binary;
+
+		Entry(String setMessage, Shout setShout, boolean setBinary){
+			message = setMessage;
+			shout = setShout;
+			binary = setBinary;
+		}
+
+		/**
+		 * @return The message, or null if this is a shout.
+		 */
+		String getMessage(){
+			return message;
+		}
+
+		/**
+		 * @return The shout, or null if this is a message.
+		 */
+		Shout getShout(){
+			return shout;
+		}
+
+		boolean isBinary(){
+			return binary;
+		}
+	}
+
+	private final int 			capacity;
+	private final OutboundPolicy policy;
+
+	private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+	//A lock rather than a monitor, so a writer on a virtual thread is never pinned by it.
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition 	changed = lock.newCondition();
+
+	private boolean held = false; 		//While held, the writer waits for the rest of a command's output.
+	private long 	heldSince;
+	private boolean closed = false;
+	private boolean overflowed = false; //Closed because the client could not keep up.
+
+	/**
+	 * @param setCapacity Most messages that can be waiting at once.
+	 * @param setPolicy What to do when the queue is full.
+	 */
+	OutboundQueue(int setCapacity, OutboundPolicy setPolicy){
+		capacity = Math.max(1, setCapacity);
+		policy = setPolicy;
+	}
+
+	/**
+	 * Queues a message. Never blocks on the client.
+	 * @param message Message to send.
+	 * @param binary Whether to write it in the binary protocol.
+	 * @return False if the client has fallen too far behind and should be disconnected, in which case the queue is
+	 * closed.
+	 */
+	boolean offer(String message, boolean binary){
+		return offer(message, null, binary);
+	}
+
+	/**
+	 * Queues a shout, which is written from its shared encoding. Never blocks on the client.
+	 * @param shout Shout to send.
+	 * @param binary Whether to write it in the binary protocol.
+	 * @return False if the client has fallen too far behind and should be disconnected, in which case the queue is
+	 * closed.
+	 */
+	boolean offer(Shout shout, boolean binary){
+		return offer(null, shout, binary);
+	}
+
+	private boolean offer(String message, Shout shout, boolean binary){
+		lock.lock();
+		try{
+			if(closed){
+				return !overflowed;
+			}
+
+			if(message != null && coalesce(message)){
+				return true;
+			}
+
+			if(entries.size() >= capacity){
+				if(policy == OutboundPolicy.DISCONNECT || dropOldest() == false){
+					overflowed = true;
+					closed = true;
+					entries.clear();
+					changed.signal();
+					return false;
+				}
+			}
+
+			entries.add(new Entry(message, shout, binary));
+			changed.signal();
+			return true;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes everything queued, without waiting. While the queue is held, nothing is taken until it is released or
+	 * has been held for maxHoldMillis.
+	 * @param maxHoldMillis Longest time to hold messages back.
+	 * @return The queued messages, oldest first, or null if there are none ready.
+	 */
+	List<Entry> poll(long maxHoldMillis){
+		lock.lock();
+		try{
+			if(isReady(maxHoldMillis) == false){
+				return null;
+			}
+
+			List<Entry> batch = new ArrayList<Entry>(entries);
+			entries.clear();
+			return batch;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes everything queued, waiting until there is something ready. While the queue is held, nothing is taken until
+	 * it is released or has been held for maxHoldMillis.
+	 * @param maxHoldMillis Longest time to hold messages back.
+	 * @return The queued messages, oldest first, or null once the queue is closed and empty.
+	 */
+	List<Entry> take(long maxHoldMillis)
+			throws InterruptedException{
+		lock.lock();
+		try{
+			while(isReady(maxHoldMillis) == false){
+				if(entries.isEmpty()){
+					if(closed){
+						return null;
+					}
+					changed.await();
+				}
+				else{
+					long held = TimeUnit.MILLISECONDS.toNanos(maxHoldMillis) - (System.nanoTime() - heldSince);
+					changed.awaitNanos(Math.max(1, held));
+				}
+			}
+
+			List<Entry> batch = new ArrayList<Entry>(entries);
+			entries.clear();
+			return batch;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param maxHoldMillis Longest time to hold messages back.
+	 * @return Whether poll() would return messages now.
+	 */
+	boolean hasReady(long maxHoldMillis){
+		lock.lock();
+		try{
+			return isReady(maxHoldMillis);
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Whether the queue has been closed and everything in it taken.
+	 */
+	boolean isFinished(){
+		lock.lock();
+		try{
+			return closed && entries.isEmpty();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Whether the queue has been closed because the client could not keep up.
+	 */
+	boolean isOverflowed(){
+		lock.lock();
+		try{
+			return overflowed;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	private boolean isReady(long maxHoldMillis){
+		if(entries.isEmpty()){
+			return false;
+		}
+		return !held || closed || System.nanoTime() - heldSince >= TimeUnit.MILLISECONDS.toNanos(maxHoldMillis);
+	}
+
+	/**
+	 * Holds queued messages back until release() is called, so that all the output of a command is written together.
+	 */
+	void hold(){
+		lock.lock();
+		try{
+			held = true;
+			heldSince = System.nanoTime();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lets the writer take the messages held back since hold().
+	 */
+	void release(){
+		lock.lock();
+		try{
+			held = false;
+			changed.signal();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the queue. Messages already queued can still be taken, but no more are accepted.
+	 */
+	void close(){
+		lock.lock();
+		try{
+			closed = true;
+			changed.signal();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Folds a state update into one that is already waiting.
+	 * @return True if the message no longer needs queueing.
+	 */
+	private boolean coalesce(String message){
+		if(message.equals("CHANGE")){
+			//One CHANGE makes the client look again, which will show every change since.
+			for(Entry e : entries){
+				if("CHANGE".equals(e.getMessage())){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Entry last = entries.peekLast();
+		if(last == null || last.getMessage() == null){
+			return false;
+		}
+
+		for(String update : new String[]{"HITMOD ", "TREASUREMOD "}){
+			if(message.startsWith(update) && last.getMessage().startsWith(update)){
+				try{
+					int total = Integer.parseInt(last.getMessage().substring(update.length()))
+							+ Integer.parseInt(message.substring(update.length()));
+					last.message = update + total;
+					return true;
+				}
+				catch(NumberFormatException e){
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops the oldest CHANGE, shout or other chat message.
+	 * @return False if there was nothing that could be dropped.
+	 */
+	private boolean dropOldest(){
+		Iterator<Entry> it = entries.iterator();
+
+		while(it.hasNext()){
+			Entry entry = it.next();
+			String message = entry.getMessage();
+
+			if(entry.getShout() != null || message.equals("CHANGE") || message.startsWith("MESSAGE ")){
+				it.remove();
+				return true;
+			}
+			if(message.startsWith("FROM ")){
+				it.remove();
+
+				//The message it introduces goes too.
+				if(it.hasNext()){
+					String next = it.next().getMessage();
+					if(next != null && next.startsWith("MESSAGE ")){
+						it.remove();
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -6,27 +6,37 @@
 
 package dodServer;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import dodServer.game.GameLogic;
+import dodServer.game.MapUpdate;
 import dodUtil.CommandException;
 import dodUtil.ErrorListener;
 import dodUtil.UpdateWatcher;
 
 public class ServerLogic{
 	
-	private GameLogic 		game;
+	//Number of selector threads used in NIO mode.
+	private static final int NIO_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
+	private Lobby 			lobby;
+	private GameLogic 		game; //The default game of the lobby.
 	private ServerSocket 	connectionListener;
+	private NioServer 		nioServer;
+	private ConnectionMode 	mode;
+	private Executor 		sessionExecutor;
+	private Executor 		writerExecutor; //Starts the writer of each NetworkedUser session.
 	private ErrorListener 	errorHandler;
 	private boolean 		acceptingConnections;
 	private int 			socket;
+	private LoadReporter 	loadReporter; //Reports to a router, if the dod.router property names one.
 	
 	/**
 	 * Creates an instance of a server object, which can be run to accept connections.
@@ -36,29 +46,74 @@ public class ServerLogic{
 	 */
 	public ServerLogic(String mapName, int setSocket, ErrorListener setErrorHandler) 
 			throws CommandException{
+		this(mapName, setSocket, setErrorHandler, ConnectionMode.THREADED);
+	}
+	
+	/**
+	 * Creates an instance of a server object, which can be run to accept connections.
+	 * @param mapName Name of map to load into the game.
+	 * @param setSocket Socket to listen on.
+	 * @param setErrorHandler Handler for server errors.
+	 * @param setMode How client connections should be serviced.
+	 */
+	public ServerLogic(String mapName, int setSocket, ErrorListener setErrorHandler, ConnectionMode setMode) 
+			throws CommandException{
+		this(mapName, setSocket, setErrorHandler, setMode, false);
+	}
+	
+	/**
+	 * Creates an instance of a server object, which can be run to accept connections.
+	 * @param mapName Name of map to load into the game.
+	 * @param setSocket Socket to listen on.
+	 * @param setErrorHandler Handler for server errors.
+	 * @param setMode How client connections should be serviced.
+	 * @param eventLoop If true, each game is owned by a game thread of its own that applies commands in order, instead of being locked.
+	 */
+	public ServerLogic(String mapName, int setSocket, ErrorListener setErrorHandler, ConnectionMode setMode, boolean eventLoop) 
+			throws CommandException{
 		
 		errorHandler = setErrorHandler;
+		mode = setMode;
+		
+		if(mode == ConnectionMode.VIRTUAL){
+			//Each session's writer gets a virtual thread too.
+			sessionExecutor = SessionExecutors.virtualThreadPerSession();
+			writerExecutor = sessionExecutor;
+		}
+		else if(mode == ConnectionMode.THREADED){
+			sessionExecutor = SessionExecutors.threadPerSession();
+			writerExecutor = SessionExecutors.writerPerSession();
+		}
+		else{
+			//NIO connections are written by their own selector threads.
+			sessionExecutor = SessionExecutors.threadPerSession();
+		}
 		
 		//Set the socket.
 		socket = setSocket;
 		
-		//Create new gamelogic and load in the map.
-		try{
-			game = new GameLogic(mapName);
-		}
-		catch (ParseException e){
-			throw new CommandException("Syntax error on line " + e.getErrorOffset() + ":" + System.getProperty("line.separator") + e.getMessage());
-		} 
-		catch (FileNotFoundException e) {
-			throw new CommandException("Map file not found.");
-		} 
-		catch (IllegalStateException e){
-			throw new CommandException("Entered map is not valid: " + e.getMessage());
-		}
+		//Create the lobby, which loads the map into the default game.
+		lobby = new Lobby(mapName, eventLoop);
+		game = lobby.getDefaultGame();
 		
 		acceptingConnections = false;
 		startListening(); //Start server
 		
+		//Let a router know how busy we are, if we are behind one.
+		String router = System.getProperty("dod.router");
+		if(router != null){
+			try{
+				loadReporter = new LoadReporter(this, lobby, router);
+			}
+			catch(IllegalArgumentException e){
+				throw new CommandException("Invalid router address: " + router);
+			}
+			
+			Thread reporterThread = new Thread(loadReporter, "dod-load-reporter");
+			reporterThread.setDaemon(true);
+			reporterThread.start();
+		}
+		
 	}
 	
 	/**
@@ -66,11 +121,16 @@ public class ServerLogic{
 	 */
 	public synchronized void stopServer(){
 		acceptingConnections = false;
+		closeListener();
 		
-		try {
-			connectionListener.close();
-		} 
-		catch (IOException e) {
+		if(nioServer != null){
+			nioServer.shutdown();
+		}
+		
+		lobby.stopGames();
+		
+		if(loadReporter != null){
+			loadReporter.stop();
 		}
 	}
 	
@@ -81,12 +141,7 @@ public class ServerLogic{
 			throws CommandException{
 		if(acceptingConnections == true){
 			acceptingConnections = false;
-			
-			try {
-				connectionListener.close();
-			} 
-			catch (IOException e) {
-			}
+			closeListener();
 		}
 		else{
 			throw new CommandException("already stopped");
@@ -101,6 +156,11 @@ public class ServerLogic{
 		if(acceptingConnections == false){
 			acceptingConnections = true;
 			
+			if(mode == ConnectionMode.NIO){
+				startNioListening();
+				return;
+			}
+			
 			//Start the listener thread.
 			(new Thread(){
 				public void run(){
@@ -118,10 +178,10 @@ public class ServerLogic{
 							//Accept connections.
 							Socket usrSocket = connectionListener.accept();
 							
-							NetworkedUser usr = new NetworkedUser(game, usrSocket);
+							NetworkedUser usr = new NetworkedUser(lobby, usrSocket, writerExecutor);
 							
-							//Start the user thread.
-							(new Thread(usr)).start();	
+							//Start the user session. Its writer is already running.
+							sessionExecutor.execute(usr);
 						} 
 						catch (SocketException e){
 							//The server has stopped listening.
@@ -141,6 +201,55 @@ public class ServerLogic{
 	
 		
 	
+	/**
+	 * Starts the non-blocking connection engine.
+	 */
+	private void startNioListening(){
+		if(nioServer == null){
+			nioServer = new NioServer(lobby, NIO_THREADS, errorHandler);
+		}
+		
+		try {
+			nioServer.startAccepting(socket);
+		}
+		catch (IOException e) {
+			errorHandler.errorOccured("Failed to start server on socket " + socket);
+			acceptingConnections = false;
+		}
+	}
+	
+	/**
+	 * Closes whichever listener is in use.
+	 */
+	private void closeListener(){
+		if(nioServer != null){
+			nioServer.stopAccepting();
+		}
+		
+		try {
+			if(connectionListener != null){
+				connectionListener.close();
+			}
+		} 
+		catch (IOException e) {
+		}
+	}
+	
+	/**
+	 * Changes the executor new NetworkedUser sessions are run on. Has no effect in NIO mode.
+	 * @param executor Executor to run each session on.
+	 */
+	public synchronized void setSessionExecutor(Executor executor){
+		sessionExecutor = executor;
+	}
+	
+	/**
+	 * @return The way this server services client connections.
+	 */
+	public ConnectionMode getConnectionMode(){
+		return mode;
+	}
+	
 	/**
 	 * Changes the port the server is running on
 	 */
@@ -158,6 +267,13 @@ public class ServerLogic{
 		socket = port;
 	}
 	
+	/**
+	 * @return The port the server listens on.
+	 */
+	public synchronized int getPort(){
+		return socket;
+	}
+	
 	/**
 	 * Gets the IP of this server
 	 */
@@ -186,6 +302,65 @@ public class ServerLogic{
     	return game.getMap();		
     }
     
+    /**
+     * Gets the cells of the map that have changed since a version, so the server interface does not need to redraw the whole map.
+     * @param sinceVersion The version last seen, or -1 for none.
+     * @return The changes since that version, or the whole map if it is too old.
+     */
+    public MapUpdate getMapChangesSince(long sinceVersion){
+    	return game.getMapChangesSince(sinceVersion);
+    }
+    
+    /**
+     * Renders part of the map for the server interface, reading only that part of a map paged from disk.
+     * @param col Column of the left of the window.
+     * @param row Row of the top of the window.
+     * @param cols Width of the window, cut down to fit the map.
+     * @param rows Height of the window, cut down to fit the map.
+     * @return The window, as [row][col].
+     */
+    public char[][] getMapWindow(int col, int row, int cols, int rows){
+    	return game.getMapWindow(col, row, cols, rows);
+    }
+    
+    /**
+     * @return True if the map is paged from disk, so getMap() cannot be used and the map is shown a window at a time.
+     */
+    public boolean isMapPaged(){
+    	return game.isMapPaged();
+    }
+    
+    /**
+     * @return The chunk cache figures of the map if it is paged from disk, otherwise null.
+     */
+    public String getChunkStats(){
+    	return game.getChunkStats();
+    }
+    
+    /**
+     * @return What the journal and snapshots of the default game have written, or null if games are not journalled.
+     */
+    public String getJournalStats(){
+    	return game.getJournalStats();
+    }
+    
+    /**
+     * Creates another game clients can JOIN.
+     * @param name Name of the game.
+     * @param mapName Name of the map to load into it.
+     */
+    public void createGame(String name, String mapName)
+    		throws CommandException{
+    	lobby.createGame(name, mapName);
+    }
+    
+    /**
+     * @return The names of every game on this server, the default game first.
+     */
+    public List<String> getGameNames(){
+    	return lobby.getGameNames();
+    }
+    
     /**
      * Add update watcher to the game
      * @param Update watcher to add.
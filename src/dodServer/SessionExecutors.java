@@ -0,0 +1,63 @@
+/**
+ * Factory methods for the executors that NetworkedUser sessions can be run on.
+ */
+
+package dodServer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dodUtil.CommandException;
+
+public final class SessionExecutors {
+
+	private SessionExecutors(){
+	}
+
+	/**
+	 * @return An executor that starts a new platform thread for every session, as the server always has.
+	 */
+	public static Executor threadPerSession(){
+		return new Executor(){
+			public void execute(Runnable session){
+				new Thread(session).start();
+			}
+		};
+	}
+
+	/**
+	 * Gets an executor that starts a platform thread of its own for every session's writer, so a client that stops
+	 * reading can only hold up its own output.
+	 * @return An executor creating a daemon writer thread per session.
+	 */
+	public static Executor writerPerSession(){
+		final AtomicInteger count = new AtomicInteger();
+		
+		return new Executor(){
+			public void execute(Runnable writer){
+				Thread t = new Thread(writer, "dod-writer-" + count.incrementAndGet());
+				t.setDaemon(true);
+				t.start();
+			}
+		};
+	}
+
+	/**
+	 * Gets an executor that runs every session on its own virtual thread. Looked up reflectively, so
+	 * the server still builds and runs on JVMs without virtual thread support.
+	 * @return An executor creating a virtual thread per session.
+	 * @throws CommandException If this JVM does not support virtual threads.
+	 */
+	public static Executor virtualThreadPerSession()
+			throws CommandException{
+		try {
+			Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new CommandException("virtual threads are not supported by this JVM");
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package dodServer.game;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends a game's shouts to its players, off the thread of whoever shouted and
+ * without holding the game, and can stop any one player shouting so much that
+ * it crowds out the game.
+ *
+ * Each game has its own broadcaster, which fans its shouts out in the order
+ * they are made on a thread of its own, so a shout to a crowded game never
+ * holds up another game's. The thread is only kept while there are shouts to
+ * send. If dod.shoutsPerSecond is set, each player may shout at that steady
+ * rate, with short bursts allowed: a token bucket holding up to BURST shouts,
+ * refilled at RATE per second. Otherwise shouting is not limited.
+ */
+final class Broadcaster {
+    private static final double RATE = Double.parseDouble(System.getProperty(
+	    "dod.shoutsPerSecond", "0"));
+    private static final int BURST = Integer.getInteger("dod.shoutBurst", 5);
+
+    // How long the fan-out thread waits for another shout before it stops
+    private static final long IDLE_SECONDS = 30;
+
+    private final ThreadPoolExecutor fanOut;
+
+    // The token bucket of each player who has shouted
+    private final Map<Player, Bucket> buckets = new IdentityHashMap<Player, Bucket>();
+
+    // Numbers the fan-out threads of the games
+    private static final AtomicInteger count = new AtomicInteger();
+
+    Broadcaster() {
+	final int number = count.incrementAndGet();
+	this.fanOut = new ThreadPoolExecutor(1, 1, IDLE_SECONDS,
+		TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, "dod-broadcast-" + number);
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	this.fanOut.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Tokens available to one player, as of a time.
+     */
+    private static class Bucket {
+	double tokens = BURST;
+	long updated = System.nanoTime();
+    }
+
+    /**
+     * Takes a token for a player to shout, if they have one.
+     *
+     * @param sender
+     *            the player who wants to shout
+     * @return false if they are shouting too much and should wait
+     */
+    synchronized boolean tryShout(Player sender) {
+	if (RATE <= 0) {
+	    return true;
+	}
+
+	Bucket bucket = this.buckets.get(sender);
+	if (bucket == null) {
+	    bucket = new Bucket();
+	    this.buckets.put(sender, bucket);
+	}
+
+	final long now = System.nanoTime();
+	bucket.tokens = Math.min(BURST, bucket.tokens + (now - bucket.updated)
+		* RATE / 1e9);
+	bucket.updated = now;
+
+	if (bucket.tokens < 1) {
+	    return false;
+	}
+	bucket.tokens--;
+	return true;
+    }
+
+    /**
+     * Forgets a player who has left the game.
+     */
+    synchronized void forget(Player player) {
+	this.buckets.remove(player);
+    }
+
+    /**
+     * Sends a shout in the background, after every shout made before it in
+     * the same game.
+     *
+     * @param delivery
+     *            sends the shout to its recipients, without taking the game
+     */
+    void broadcast(Runnable delivery) {
+	this.fanOut.execute(delivery);
+    }
+}
@@ -0,0 +1,183 @@
+package dodServer.game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+
+/**
+ * The tile types of a compiled binary map, read from the file in square
+ * chunks as they are needed rather than all at once. Recently used chunks are
+ * kept in a least recently used cache, so the chunks around players stay in
+ * memory and chunks nobody has been near for a while are dropped. This lets
+ * the server host maps far larger than the heap.
+ *
+ * Items are not held here; the map keeps those resident.
+ */
+class ChunkedTileStore {
+    // The width and height of a chunk, in cells
+    static final int CHUNK_SIZE = 64;
+
+    private final FileChannel channel;
+    private final long tilesOffset;
+    private final int width;
+    private final int height;
+    private final int chunkCols;
+    private final int tileTypes;
+
+    // The cached chunks by chunk index, least recently used first
+    private final LinkedHashMap<Integer, byte[]> chunks;
+
+    // The last chunk used, since most lookups are next to the one before
+    private int lastChunk = -1;
+    private byte[] lastTiles = null;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param channel
+     *            the open map file, which this store now owns
+     * @param tilesOffset
+     *            where the tile types start in the file
+     * @param width
+     *            the width of the map
+     * @param height
+     *            the height of the map
+     * @param tileTypes
+     *            the number of tile types; anything else in the file is
+     *            invalid
+     * @param maxChunks
+     *            the most chunks to keep in memory at once
+     */
+    ChunkedTileStore(FileChannel channel, long tilesOffset, int width,
+	    int height, int tileTypes, final int maxChunks) {
+	this.channel = channel;
+	this.tilesOffset = tilesOffset;
+	this.width = width;
+	this.height = height;
+	this.chunkCols = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	this.tileTypes = tileTypes;
+
+	this.chunks = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(
+		    java.util.Map.Entry<Integer, byte[]> eldest) {
+		if (size() > Math.max(1, maxChunks)) {
+		    ChunkedTileStore.this.evictions++;
+		    return true;
+		}
+		return false;
+	    }
+	};
+    }
+
+    /**
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the tile type ordinal of the cell
+     */
+    synchronized int typeAt(int cell) {
+	final int col = cell % this.width;
+	final int row = cell / this.width;
+	final int chunk = (row / CHUNK_SIZE) * this.chunkCols + col / CHUNK_SIZE;
+
+	byte[] tiles;
+	if (chunk == this.lastChunk) {
+	    tiles = this.lastTiles;
+	    this.hits++;
+	} else {
+	    tiles = this.chunks.get(chunk);
+
+	    if (tiles == null) {
+		tiles = loadChunk(chunk);
+		this.chunks.put(chunk, tiles);
+		this.misses++;
+	    } else {
+		this.hits++;
+	    }
+
+	    this.lastChunk = chunk;
+	    this.lastTiles = tiles;
+	}
+
+	return tiles[(row % CHUNK_SIZE) * CHUNK_SIZE + col % CHUNK_SIZE];
+    }
+
+    /**
+     * @return the number of lookups served from a cached chunk
+     */
+    synchronized long getHits() {
+	return this.hits;
+    }
+
+    /**
+     * @return the number of lookups that had to read a chunk from the file
+     */
+    synchronized long getMisses() {
+	return this.misses;
+    }
+
+    /**
+     * @return the number of chunks dropped from the cache to make room
+     */
+    synchronized long getEvictions() {
+	return this.evictions;
+    }
+
+    /**
+     * @return the number of chunks currently in memory
+     */
+    synchronized int getCachedChunks() {
+	return this.chunks.size();
+    }
+
+    /**
+     * Reads a chunk from the file, one row of the chunk at a time.
+     *
+     * @param chunk
+     *            the index of the chunk
+     * @return the tile types of the chunk, CHUNK_SIZE cells to a row
+     */
+    private byte[] loadChunk(int chunk) {
+	final int firstCol = (chunk % this.chunkCols) * CHUNK_SIZE;
+	final int firstRow = (chunk / this.chunkCols) * CHUNK_SIZE;
+	final int cols = Math.min(CHUNK_SIZE, this.width - firstCol);
+	final int rows = Math.min(CHUNK_SIZE, this.height - firstRow);
+
+	final byte[] tiles = new byte[CHUNK_SIZE * CHUNK_SIZE];
+
+	try {
+	    for (int r = 0; r < rows; r++) {
+		final ByteBuffer rowBuffer = ByteBuffer.wrap(tiles,
+			r * CHUNK_SIZE, cols);
+		long position = this.tilesOffset + (long) (firstRow + r)
+			* this.width + firstCol;
+
+		while (rowBuffer.hasRemaining()) {
+		    final int read = this.channel.read(rowBuffer, position);
+		    if (read < 0) {
+			throw new IllegalStateException(
+				"the map file is truncated");
+		    }
+		    position += read;
+		}
+
+		for (int c = 0; c < cols; c++) {
+		    if ((tiles[r * CHUNK_SIZE + c] & 0xFF) >= this.tileTypes) {
+			throw new IllegalStateException("invalid tile type at "
+				+ (firstCol + c) + "," + (firstRow + r));
+		    }
+		}
+	    }
+	} catch (final IOException e) {
+	    throw new IllegalStateException("the map file could not be read: "
+		    + e.getMessage());
+	}
+
+	return tiles;
+    }
+}
@@ -0,0 +1,44 @@
+package dodServer.game;
+
+/**
+ * Stands in for the client of a player rebuilt from a journal or snapshot,
+ * who is no longer connected. Everything sent to it is dropped.
+ */
+class DetachedPlayer implements PlayerListener {
+    public void sendMessage(String message) {
+    }
+
+    public void startTurn() {
+    }
+
+    public void endTurn() {
+    }
+
+    public void win() {
+    }
+
+    public void lose() {
+    }
+
+    public void lookChange() {
+    }
+
+    public boolean wantsViewPush() {
+	return false;
+    }
+
+    public void viewChange(LookView look) {
+    }
+
+    public void hpChange(int value) {
+    }
+
+    public void treasureChange(int value) {
+    }
+
+    public void sendName(String name) {
+    }
+
+    public void sendShout(Shout shout) {
+    }
+}
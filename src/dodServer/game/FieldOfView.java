@@ -0,0 +1,76 @@
+package dodServer.game;
+
+/**
+ * Precomputed field of view masks. A player at look distance d sees a
+ * (2d+1) by (2d+1) square, of which only the Manhattan "diamond" is visible.
+ * The masks only depend on d, so each is worked out once and shared.
+ */
+final class FieldOfView {
+    // masks[d] is the mask for look distance d, filled in as needed
+    private static volatile boolean[][] masks = new boolean[0][];
+
+    private FieldOfView() {
+    }
+
+    /**
+     * Gets the visibility mask for a look distance. The mask is stored in
+     * row-major order, so the cell at (rowOffset, colOffset) is at index
+     * (rowOffset + d) * (2d + 1) + (colOffset + d).
+     * 
+     * @param distance
+     *            the look distance
+     * @return the shared mask, which must not be modified
+     */
+    static boolean[] mask(int distance) {
+	final boolean[][] current = masks;
+
+	if (distance < current.length && current[distance] != null) {
+	    return current[distance];
+	}
+
+	return createMask(distance);
+    }
+
+    /**
+     * Checks whether a tile at the given offset is visible from a look
+     * distance. This is based on the Manhattan distance.
+     * 
+     * @return true if the tile can be seen
+     */
+    static boolean canSee(int distance, int rowOffset, int colOffset) {
+	return (Math.abs(rowOffset) + Math.abs(colOffset) <= distance + 1);
+    }
+
+    /**
+     * Works out a mask and adds it to the cache.
+     */
+    private static synchronized boolean[] createMask(int distance) {
+	boolean[][] current = masks;
+
+	if (distance < current.length && current[distance] != null) {
+	    return current[distance];
+	}
+
+	final int size = 2 * distance + 1;
+	final boolean[] mask = new boolean[size * size];
+
+	for (int rowOffset = -distance; rowOffset <= distance; ++rowOffset) {
+	    for (int colOffset = -distance; colOffset <= distance; ++colOffset) {
+		mask[(rowOffset + distance) * size + (colOffset + distance)] = canSee(
+			distance, rowOffset, colOffset);
+	    }
+	}
+
+	if (distance >= current.length) {
+	    final boolean[][] grown = new boolean[distance + 1][];
+	    System.arraycopy(current, 0, grown, 0, current.length);
+	    current = grown;
+	} else {
+	    current = current.clone();
+	}
+	current[distance] = mask;
+	masks = current;
+
+	return mask;
+    }
+}
@@ -0,0 +1,637 @@
+package dodServer.game;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import dodUtil.CommandException;
+
+/**
+ * An append-only record of everything that changed a game, from which the
+ * game can be rebuilt exactly if the server dies.
+ *
+ * Each accepted command is recorded along with the outcome of any dice it
+ * rolled, so replaying the journal against a freshly loaded map makes the
+ * same moves with the same results. The journal starts with the seed of the
+ * game's dice, and each roll records how far they have rolled, so a rebuilt
+ * game goes on to roll what the lost one would have. The game adds records in memory and a
+ * thread of the journal's own writes them, so the game never waits on the
+ * disk: while one batch is written and synced, the next builds up behind it,
+ * and is then written and synced in one go however many commands it holds.
+ *
+ * Each record is its length, a CRC32 of its body, then the body. A record
+ * cut short by a crash is dropped when the journal is next replayed.
+ */
+public final class GameJournal {
+    // Whether each batch is synced to the disk before the next is written
+    private static final boolean SYNC = Boolean.parseBoolean(System
+	    .getProperty("dod.journalSync", "true"));
+
+    // How long the writer waits for more records before writing a batch
+    private static final long COMMIT_DELAY = Long.getLong(
+	    "dod.journalCommitMicros", 1000) * 1000;
+
+    // Longest record body we will believe when reading the journal back
+    private static final int MAX_RECORD = 4096;
+
+    // Record types
+    private static final byte MAP = 0;
+    private static final byte ADD_PLAYER = 1;
+    private static final byte REMOVE_PLAYER = 2;
+    private static final byte HELLO = 3;
+    private static final byte MOVE = 4;
+    private static final byte ATTACK = 5;
+    private static final byte PICKUP = 6;
+    private static final byte END_TURN = 7;
+    private static final byte SET_POSITION = 8;
+    private static final byte REMOVE_ALL = 9;
+
+    /**
+     * Records waiting to be written. Each record is made in place, with its
+     * length and CRC filled in once its body is written.
+     */
+    private static class Batch extends ByteArrayOutputStream {
+	final DataOutputStream out = new DataOutputStream(this);
+	int records = 0;
+
+	// Where the record being made starts
+	private int start = 0;
+
+	/**
+	 * Starts a record, leaving room for its length and CRC.
+	 */
+	DataOutputStream begin(byte type) throws IOException {
+	    this.start = this.count;
+	    this.out.writeLong(0);
+	    this.out.writeByte(type);
+	    return this.out;
+	}
+
+	/**
+	 * Fills in the length and CRC of the record started by begin().
+	 *
+	 * @return the size of the record
+	 */
+	int end(CRC32 crc) {
+	    final int length = this.count - this.start - 8;
+	    crc.reset();
+	    crc.update(this.buf, this.start + 8, length);
+
+	    putInt(this.start, length);
+	    putInt(this.start + 4, (int) crc.getValue());
+	    this.records++;
+	    return length + 8;
+	}
+
+	/**
+	 * Drops the record started by begin().
+	 */
+	void cancel() {
+	    this.count = this.start;
+	}
+
+	void clear() {
+	    reset();
+	    this.records = 0;
+	}
+
+	private void putInt(int at, int value) {
+	    this.buf[at] = (byte) (value >>> 24);
+	    this.buf[at + 1] = (byte) (value >>> 16);
+	    this.buf[at + 2] = (byte) (value >>> 8);
+	    this.buf[at + 3] = (byte) value;
+	}
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final String mapName;
+    private final long seed;
+
+    private final CRC32 crc = new CRC32();
+
+    // Records are added to the filling batch while the other is written
+    private Batch filling = new Batch();
+    private Batch writing = new Batch();
+
+    private boolean open = true;
+    private boolean started = false;
+
+    // Set once nothing more will be written, after closing or a failure
+    private boolean stopped = false;
+
+    // Where the journal will end once everything added has been written,
+    // and where it ends on the disk
+    private long end = 0;
+    private long written = 0;
+
+    // Records added since the journal was opened
+    private long added = 0;
+
+    private long records = 0;
+    private long commits = 0;
+    private long bytesWritten = 0;
+
+    private GameJournal(File setFile, FileChannel setChannel,
+	    String setMapName, long setSeed) {
+	this.file = setFile;
+	this.channel = setChannel;
+	this.mapName = setMapName;
+	this.seed = setSeed;
+    }
+
+    /**
+     * Opens a journal, creating it if need be. Nothing is written to the file
+     * until the journal has been replayed into its game.
+     *
+     * @param file
+     *            the file holding the journal
+     * @param mapName
+     *            the map the game is loaded from, recorded at the start of a
+     *            new journal
+     * @param seed
+     *            the seed of the game's dice, likewise recorded at the start of
+     *            a new journal
+     * @return the journal
+     * @throws IOException
+     *             if the journal cannot be opened, or is not a journal
+     */
+    public static GameJournal open(File file, String mapName, long seed)
+	    throws IOException {
+	final FileChannel channel = FileChannel.open(file.toPath(),
+		StandardOpenOption.CREATE, StandardOpenOption.READ,
+		StandardOpenOption.WRITE);
+
+	try {
+	    if (channel.size() > 0) {
+		final byte[] first = readRecord(new DataInputStream(
+			Channels.newInputStream(channel)));
+		if (first == null || first[0] != MAP) {
+		    throw new IOException(file + " is not a game journal");
+		}
+
+		final DataInputStream in = new DataInputStream(
+			new ByteArrayInputStream(first, 1, first.length - 1));
+		return new GameJournal(file, channel, in.readUTF(), in.readLong());
+	    }
+	    if (mapName == null) {
+		throw new IOException(file + " is empty");
+	    }
+
+	    final GameJournal journal = new GameJournal(file, channel, mapName,
+		    seed);
+	    synchronized (journal) {
+		final DataOutputStream out = journal.begin(MAP);
+		out.writeUTF(mapName);
+		out.writeLong(seed);
+		journal.end();
+	    }
+	    return journal;
+	} catch (IOException e) {
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * @return the name of the map the game was loaded from
+     */
+    public String getMapName() {
+	return this.mapName;
+    }
+
+    /**
+     * @return the seed of the game's dice
+     */
+    public long getSeed() {
+	return this.seed;
+    }
+
+    /**
+     * Describes how much has been written.
+     *
+     * @return the records, the batches they were written in and the bytes
+     *         written since the journal was opened
+     */
+    public synchronized String getStats() {
+	return "records " + this.records + ", commits " + this.commits
+		+ ", bytes " + this.bytesWritten;
+    }
+
+    /**
+     * @return where the journal will end once everything recorded so far has
+     *         been written
+     */
+    synchronized long getEnd() {
+	return this.end;
+    }
+
+    /**
+     * @return the number of records added since the journal was opened
+     */
+    synchronized long getAdded() {
+	return this.added;
+    }
+
+    /**
+     * @return the size of the journal on the disk
+     */
+    long getFileSize() throws IOException {
+	return this.channel.size();
+    }
+
+    /**
+     * Waits for the journal to be written up to a point.
+     *
+     * @param offset
+     *            where the journal must be written up to, from getEnd()
+     * @return false if the journal stopped being written first
+     */
+    synchronized boolean awaitWritten(long offset) throws InterruptedException {
+	while (this.written < offset && !this.stopped) {
+	    wait();
+	}
+	return this.written >= offset;
+    }
+
+    /**
+     * Writes everything recorded so far, then closes the journal.
+     */
+    public void close() {
+	synchronized (this) {
+	    this.open = false;
+	    notifyAll();
+
+	    try {
+		while (this.started
+			&& (this.filling.records > 0 || this.writing.records > 0)) {
+		    wait();
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+
+	try {
+	    if (!this.started) {
+		// Never replayed, so nothing has been written yet
+		writeBatch(this.filling);
+	    }
+	    this.channel.close();
+	} catch (IOException e) {
+	    System.err.println("Failed to close the journal " + this.file
+		    + ": " + e.getMessage());
+	}
+
+	synchronized (this) {
+	    this.stopped = true;
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Replays the journal into a game, then starts writing new records after
+     * the last whole one. The game must be as it was when the journal reached
+     * the point replayed from: freshly loaded from the journal's map for the
+     * start of the journal, or restored from a snapshot taken at the point.
+     *
+     * @param game
+     *            the game to replay into
+     * @param from
+     *            where in the journal to start
+     * @return the number of records replayed
+     * @throws IOException
+     *             if the journal cannot be read, or does not fit the game
+     */
+    int replay(GameLogic game, long from) throws IOException {
+	if (this.started) {
+	    throw new IllegalStateException("the journal has already been replayed");
+	}
+
+	this.channel.position(from);
+	final DataInputStream in = new DataInputStream(new BufferedInputStream(
+		Channels.newInputStream(this.channel)));
+
+	final PlayerListener detached = new DetachedPlayer();
+	long validEnd = from;
+	int replayed = 0;
+
+	byte[] bytes;
+	while ((bytes = readRecord(in)) != null) {
+	    final DataInputStream record = new DataInputStream(
+		    new ByteArrayInputStream(bytes));
+	    final byte type = record.readByte();
+
+	    try {
+		switch (type) {
+		case MAP:
+		    break;
+		case ADD_PLAYER:
+		    game.addPlayer(detached, new Location(record.readInt(),
+			    record.readInt()));
+		    game.getRandom().setCounter(record.readLong());
+		    break;
+		case REMOVE_PLAYER:
+		    game.removePlayer(record.readInt());
+		    break;
+		case HELLO:
+		    game.clientHello(record.readUTF(), record.readInt());
+		    break;
+		case MOVE:
+		    game.clientMove(readDirection(record), record.readInt());
+		    break;
+		case ATTACK:
+		    final CompassDirection direction = readDirection(record);
+		    final int playerID = record.readInt();
+		    final int roll = record.readInt();
+		    game.getRandom().setCounter(record.readLong());
+		    game.attack(direction, playerID, roll);
+		    break;
+		case PICKUP:
+		    game.clientPickup(record.readInt());
+		    break;
+		case END_TURN:
+		    game.clientEndTurn(record.readInt());
+		    break;
+		case SET_POSITION:
+		    game.setPlayerPosition(record.readInt(), record.readInt(),
+			    record.readInt());
+		    break;
+		case REMOVE_ALL:
+		    game.removeAllPlayers();
+		    break;
+		default:
+		    throw new IOException("unknown record type " + type);
+		}
+	    } catch (CommandException e) {
+		// A missed attack is recorded as it still costs AP
+		if (type != ATTACK) {
+		    throw new IOException("record " + replayed
+			    + " does not fit the game: " + e.getMessage());
+		}
+	    } catch (RuntimeException e) {
+		throw new IOException("record " + replayed
+			+ " does not fit the game: " + e);
+	    }
+
+	    validEnd += 8 + bytes.length;
+	    replayed++;
+	}
+
+	// Drop anything cut short, and carry on after the last whole record
+	this.channel.truncate(validEnd);
+	this.channel.position(validEnd);
+
+	synchronized (this) {
+	    this.written = validEnd;
+	    this.end = validEnd + this.filling.size();
+	    this.started = true;
+	}
+
+	final Thread writer = new Thread(new Runnable() {
+	    public void run() {
+		writeBatches();
+	    }
+	}, "dod-journal-" + this.file.getName());
+	writer.setDaemon(true);
+	writer.start();
+
+	return replayed;
+    }
+
+    synchronized void recordAddPlayer(Location location, long randomCounter) {
+	try {
+	    final DataOutputStream out = begin(ADD_PLAYER);
+	    out.writeInt(location.getCol());
+	    out.writeInt(location.getRow());
+	    out.writeLong(randomCounter);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    synchronized void recordRemovePlayer(int playerID) {
+	recordPlayer(REMOVE_PLAYER, playerID);
+    }
+
+    synchronized void recordHello(String name, int playerID) {
+	try {
+	    final DataOutputStream out = begin(HELLO);
+	    out.writeUTF(name);
+	    out.writeInt(playerID);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    synchronized void recordMove(CompassDirection direction, int playerID) {
+	try {
+	    final DataOutputStream out = begin(MOVE);
+	    out.writeByte(direction.ordinal());
+	    out.writeInt(playerID);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    synchronized void recordAttack(CompassDirection direction, int playerID,
+	    int roll, long randomCounter) {
+	try {
+	    final DataOutputStream out = begin(ATTACK);
+	    out.writeByte(direction.ordinal());
+	    out.writeInt(playerID);
+	    out.writeInt(roll);
+	    out.writeLong(randomCounter);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    synchronized void recordPickup(int playerID) {
+	recordPlayer(PICKUP, playerID);
+    }
+
+    synchronized void recordEndTurn(int playerID) {
+	recordPlayer(END_TURN, playerID);
+    }
+
+    synchronized void recordSetPosition(int col, int row, int playerID) {
+	try {
+	    final DataOutputStream out = begin(SET_POSITION);
+	    out.writeInt(col);
+	    out.writeInt(row);
+	    out.writeInt(playerID);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    synchronized void recordRemoveAll() {
+	try {
+	    begin(REMOVE_ALL);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    private void recordPlayer(byte type, int playerID) {
+	try {
+	    begin(type).writeInt(playerID);
+	    end();
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /**
+     * Starts a record in the filling batch. Once the body has been written
+     * to the stream returned, the record is finished by end().
+     */
+    private DataOutputStream begin(byte type) throws IOException {
+	return this.filling.begin(type);
+    }
+
+    /**
+     * Finishes the record started by begin(), waking the writer if it is the
+     * first of a new batch. Once the journal has been closed, records are
+     * dropped.
+     */
+    private void end() {
+	if (!this.open) {
+	    this.filling.cancel();
+	    return;
+	}
+
+	this.end += this.filling.end(this.crc);
+	this.added++;
+	if (this.filling.records == 1) {
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Writer thread: writes each batch as it fills, until the journal is
+     * closed and everything has been written.
+     */
+    private void writeBatches() {
+	while (true) {
+	    final Batch batch;
+
+	    synchronized (this) {
+		try {
+		    while (this.filling.records == 0 && this.open) {
+			wait();
+		    }
+
+		    // Give the game a moment to add more to the batch
+		    final long until = System.nanoTime() + COMMIT_DELAY;
+		    long left = COMMIT_DELAY;
+		    while (left > 0 && this.open) {
+			wait(left / 1000000, (int) (left % 1000000));
+			left = until - System.nanoTime();
+		    }
+		} catch (InterruptedException e) {
+		    return;
+		}
+
+		if (this.filling.records == 0) {
+		    return;
+		}
+
+		batch = this.filling;
+		this.filling = this.writing;
+		this.writing = batch;
+	    }
+
+	    try {
+		writeBatch(batch);
+	    } catch (IOException e) {
+		System.err.println("Failed to write the journal " + this.file
+			+ ", so it has been stopped: " + e.getMessage());
+		synchronized (this) {
+		    this.open = false;
+		    this.stopped = true;
+		    this.filling.clear();
+		    notifyAll();
+		}
+		return;
+	    }
+
+	    synchronized (this) {
+		this.records += batch.records;
+		this.commits++;
+		this.bytesWritten += batch.size();
+		this.written += batch.size();
+		batch.clear();
+		notifyAll();
+	    }
+	}
+    }
+
+    /**
+     * Writes a batch, then syncs it to the disk.
+     */
+    private void writeBatch(Batch batch) throws IOException {
+	final OutputStream out = Channels.newOutputStream(this.channel);
+	batch.writeTo(out);
+
+	if (SYNC) {
+	    this.channel.force(false);
+	}
+    }
+
+    /**
+     * Reads the next whole record, checking its CRC.
+     *
+     * @return the body of the record, or null if there are no more whole
+     *         records
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+	final byte[] bytes;
+	final int expected;
+
+	try {
+	    final int length = in.readInt();
+	    if (length <= 0 || length > MAX_RECORD) {
+		return null;
+	    }
+
+	    expected = in.readInt();
+	    bytes = new byte[length];
+	    in.readFully(bytes);
+	} catch (EOFException e) {
+	    return null;
+	}
+
+	final CRC32 check = new CRC32();
+	check.update(bytes);
+	return ((int) check.getValue() == expected) ? bytes : null;
+    }
+
+    private static CompassDirection readDirection(DataInputStream record)
+	    throws IOException {
+	final CompassDirection[] directions = CompassDirection.values();
+	final int ordinal = record.readByte();
+
+	if (ordinal < 0 || ordinal >= directions.length) {
+	    throw new IOException("invalid direction " + ordinal);
+	}
+	return directions[ordinal];
+    }
+}
@@ -4,11 +4,18 @@
 package dodServer.game;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 import dodServer.game.items.Armour;
 import dodServer.game.items.GameItem;
@@ -24,6 +31,7 @@ public class GameLogic {
 	public static final int MAP_UPDATED = 1;
 	public static final int GAME_OVER = 2;
 	
+	
     Map map;
 
     // Has a player won already?
@@ -31,10 +39,57 @@ public class GameLogic {
 
     private final List<Player> players;
 
+    // The IDs of players who have left, so a new player can take the first
+    // of them without searching the whole list.
+    private final BitSet leftIDs = new BitSet();
+
+    // The ID of the player standing on each cell of the map, indexed by
+    // row * width + col, or -1 if the cell is empty. Dead players are off
+    // the map, so never appear here.
+    private final OccupancyIndex occupancy;
+
+    // What the server interfaces show of the map, kept up to date as players
+    // move, pick things up, die and join. Paged maps never build this, as it
+    // covers every cell; they are rendered a window at a time instead.
+    private volatile MapRenderBuffer renderBuffer = null;
+
+    // The free cells players can be spawned on, worked out from an analysis
+    // of the map at load. Paged maps are too large for this, so it is null
+    // for them.
+    private final SpawnAllocator spawns;
+
+    // Picks start locations and rolls attacks
+    private final GameRandom random;
+
     // The current player's turn, -1 indicates game not started
     private int currentPlayer = -1;
     
     private List<UpdateWatcher> updateWatchers = new ArrayList<UpdateWatcher>(); //Keeps track of things interested in map changes.
+    
+    // Guards the game state. This is a lock rather than a monitor so that sessions running on virtual
+    // threads are not pinned to their carrier while a listener blocks on network output.
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    // When set, the game is owned by this single thread and no lock is taken.
+    private GameLoop loop = null;
+    
+    // How many lockGame() calls have not yet been matched by unlockGame().
+    private int lockDepth = 0;
+    
+    // Players who want their view pushed to them and whose view has changed
+    // since the game was locked. Each is sent their view once as the game is
+    // unlocked, however many changes they saw.
+    private final LinkedHashSet<Player> changedViews = new LinkedHashSet<Player>();
+
+    // Sends shouts to everyone, and limits how often each player may shout.
+    private final Broadcaster broadcaster = new Broadcaster();
+
+    // Records every change to the game, if it is journalled. Null while a
+    // journal is being replayed, so the replay is not recorded again.
+    private volatile GameJournal journal = null;
+
+    // Keeps a snapshot of the game alongside its journal, if it has one
+    private volatile SnapshotWriter snapshots = null;
 
     /**
      * Constructor that specifies the map which the game should be played on.
@@ -46,6 +101,23 @@ public class GameLogic {
      */
     public GameLogic(String mapFile) throws FileNotFoundException,
 	    ParseException {
+	this(mapFile, new GameRandom());
+    }
+
+    /**
+     * Constructor that also gives the game its dice, so that games started
+     * with the same seed and sent the same commands play out the same.
+     * 
+     * @param mapFile
+     *            The name of the file to load the map from.
+     * @param setRandom
+     *            Picks start locations and rolls attacks.
+     * @throws FileNotFoundException
+     *             , ParseException
+     */
+    public GameLogic(String mapFile, GameRandom setRandom)
+	    throws FileNotFoundException, ParseException {
+	this.random = setRandom;
 	this.map = new Map(mapFile);
 
 	// Check if there is enough gold to win
@@ -54,7 +126,30 @@ public class GameLogic {
 		    "There isn't enough gold on this map for you to win");
 	}
 
+	this.occupancy = new OccupancyIndex(this.map.getMapWidth()
+		* this.map.getMapHeight(), this.map.isPaged());
+
+	// Check that the gold and an exit can all be reached from somewhere
+	if (this.map.isPaged()) {
+	    this.spawns = null;
+	} else {
+	    final MapAnalysis analysis = MapAnalysis.analyse(this.map);
+
+	    if (analysis.getSpawnCellCount() == 0) {
+		throw new IllegalStateException(
+			"There is nowhere on this map with enough reachable gold and an exit for you to win");
+	    }
+
+	    this.spawns = new SpawnAllocator(analysis,
+		    this.map.getMapWidth() * this.map.getMapHeight(),
+		    this.occupancy);
+	}
+
 	this.players = Collections.synchronizedList(new ArrayList<Player>());
+
+	if (!this.map.isPaged()) {
+	    this.renderBuffer = createRenderBuffer();
+	}
     }
 
     /**
@@ -66,61 +161,143 @@ public class GameLogic {
      * 
      * @return the id of the player
      */
-    public synchronized int addPlayer(PlayerListener player) {
-		final int playerID = this.players.size();
+    public int addPlayer(PlayerListener player) {
+		lockGame();
+		try {
+			return addPlayer(player, generateRandomStartLocation());
+		}
+		finally {
+			unlockGame();
+		}
+    }
+
+    /**
+     * Adds a new player to the game at a given start location.
+     * 
+     * @return the id of the player
+     */
+    int addPlayer(PlayerListener player, Location startLocation) {
+		lockGame();
+		try {
+			// A new player takes the ID of one who has left, if there is one
+			final int playerID = freePlayerID();
+			final Player newPlayer = new Player("Player " + playerID,
+					startLocation, player);
+			if (playerID == this.players.size()) {
+				this.players.add(newPlayer);
+			}
+			else {
+				this.players.set(playerID, newPlayer);
+				this.leftIDs.clear(playerID);
+			}
+			setOccupant(cellIndex(startLocation), playerID);
+			refreshCell(cellIndex(startLocation));
 		
-		Location startLocation = generateRandomStartLocation();
+			notifyPlayersOfChange(startLocation);
+			mapUpdated();
 	
-		this.players.add(new Player("Player " + playerID,
-				startLocation, player));
-		
-		notifyPlayersOfChange(startLocation);
-		mapUpdated();
+			//Changed this code so it accounts for the idea that the game might have no players in it but has started.
+			if (this.currentPlayer == -1) {
+			    startNewGame();
+			}
 	
-		//Changed this code so it accounts for the idea that the game might have no players in it but has started.
-		if (this.players.size() == 1 && this.currentPlayer == -1) {
-		    startNewGame();
+			if (this.journal != null) {
+				this.journal.recordAddPlayer(startLocation, this.random.getCounter());
+			}
+			return playerID;
 		}
-		else if (this.players.size() == 1) {
-			this.currentPlayer = playerID;
-			startTurn();
+		finally {
+			unlockGame();
 		}
-	
-		return playerID;
     }
 
     /**
-     * Removes a player from the game, physically from the map.
+     * Removes a player from the game, physically from the map. Their ID is
+     * not given to anyone else until a new player joins, so the IDs of the
+     * players still in the game do not change.
      * 
      * Rewrote to fix a bunch of stuff - Zachary Shannon
      */
-    public synchronized void removePlayer(int playerID) {
-    	killPlayer(this.players.get(playerID));
+    public void removePlayer(int playerID) {
+    	lockGame();
+    	try {
+    		assertPlayerExists(playerID);
+    		final Player player = this.players.get(playerID);
+    		
+    		//A dead player is already off the map, with nothing to drop.
+    		if(player.isDead() == false){
+    			killPlayer(player);
+    		}
     	
-    	players.remove(this.players.get(playerID));
+	    	changedViews.remove(player);
+	    	broadcaster.forget(player);
     	
-		if (this.currentPlayer == playerID && this.players.isEmpty() == false) {
-		    // Advance turn to handle death on player's turn
-		    advanceTurn(playerID);
-		}
+			if (this.currentPlayer == playerID) {
+				if (firstLivingPlayer() != -1) {
+				    // Advance turn to handle death on player's turn
+				    advanceTurn(playerID);
+				}
+				else {
+					// Whoever joins next starts the game again
+					this.currentPlayer = -1;
+				}
+			}
+			player.leave();
+			this.leftIDs.set(playerID);
+			
+			if (this.journal != null) {
+				this.journal.recordRemovePlayer(playerID);
+			}
+    	}
+    	finally {
+    		unlockGame();
+    	}
     }
 
     /**
-     * Starts a new game of the Dungeon of Dooooooooooooom.
+     * @return the ID of the first player who has left, or the next ID if no
+     *         one has
      */
-    public synchronized void startNewGame() {
-	if (this.currentPlayer != -1) {
-	    throw new RuntimeException("The game has already started.");
-	}
+    private int freePlayerID() {
+	final int playerID = this.leftIDs.nextSetBit(0);
+	return (playerID == -1) ? this.players.size() : playerID;
+    }
 
-	if (this.players.size() == 0) {
-	    throw new RuntimeException(
-		    "The game cannot be started with a single player");
+    /**
+     * @return the ID of the first player still alive, or -1 if there is none
+     */
+    private int firstLivingPlayer() {
+	for (int i = 0; i < this.players.size(); i++) {
+	    if (!this.players.get(i).isDead()) {
+		return i;
+	    }
 	}
+	return -1;
+    }
+
+    /**
+     * Starts a new game of the Dungeon of Dooooooooooooom.
+     */
+    public void startNewGame() {
+	lockGame();
+	try {
+	    if (this.currentPlayer != -1) {
+		throw new RuntimeException("The game has already started.");
+	    }
+
+	    final int firstPlayer = firstLivingPlayer();
+	    if (firstPlayer == -1) {
+		throw new RuntimeException(
+			"The game cannot be started with a single player");
+	    }
 
-	this.currentPlayer = 0;
+	    this.currentPlayer = firstPlayer;
 
-	startTurn();
+	    startTurn();
+	}
+	finally {
+	    unlockGame();
+	}
     }
 
     /**
@@ -133,10 +310,111 @@ public class GameLogic {
      */
     public void clientHello(String newName, int playerID)
 	    throws CommandException {
-	assertPlayerExists(playerID);
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
+
+	    // Change the player name and then say hello to them
+	    this.players.get(playerID).setName(newName);
+
+	    if (this.journal != null) {
+		this.journal.recordHello(newName, playerID);
+	    }
+	}
+	finally {
+	    unlockGame();
+	}
+    }
+
+    /**
+     * Hands a player left without a client, when the game was rebuilt from
+     * its journal, to the client of a new player saying HELLO with their
+     * name. The new player leaves the game.
+     * 
+     * @param name
+     *            the name the new player has given
+     * @param playerID
+     *            the ID of the new player
+     * @param listener
+     *            the client of the new player
+     * @return the ID of the player taken over, or -1 if there is none with
+     *         that name
+     * @throws CommandException
+     *             if the new player has already said HELLO
+     */
+    public int reclaimPlayer(String name, int playerID, PlayerListener listener)
+	    throws CommandException {
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
+	    if (!this.players.get(playerID).defaultName) {
+		throw new CommandException("player's name already set");
+	    }
+
+	    for (int i = 0; i < this.players.size(); i++) {
+		final Player player = this.players.get(i);
+		if (player.isDetached() && !player.defaultName
+			&& player.getName().equals(name)) {
+		    // The new player goes without telling the client
+		    this.players.get(playerID).detach();
+		    removePlayer(playerID);
+
+		    player.attach(listener);
+		    if (this.currentPlayer == i) {
+			listener.startTurn();
+		    }
+		    lookChanged(player);
+		    return i;
+		}
+	    }
+	    return -1;
+	}
+	finally {
+	    unlockGame();
+	}
+    }
+
+    /**
+     * Removes every player left without a client when the game was rebuilt
+     * from its journal, who has not been reclaimed since.
+     * 
+     * @return the number of players removed
+     */
+    public int removeDetachedPlayers() {
+	lockGame();
+	try {
+	    int removed = 0;
+	    for (int i = 0; i < this.players.size(); i++) {
+		if (this.players.get(i).isDetached()) {
+		    removePlayer(i);
+		    removed++;
+		}
+	    }
+	    return removed;
+	}
+	finally {
+	    unlockGame();
+	}
+    }
 
-	// Change the player name and then say hello to them
-	this.players.get(playerID).setName(newName);
+    /**
+     * @return the number of players left without a client when the game was
+     *         rebuilt from its journal, who have not been reclaimed
+     */
+    public int getDetachedPlayerCount() {
+	lockGame();
+	try {
+	    int count = 0;
+	    for (final Player player : this.players) {
+		if (player.isDetached()) {
+		    count++;
+		}
+	    }
+	    return count;
+	}
+	finally {
+	    unlockGame();
+	}
     }
 
     /**
@@ -146,83 +424,145 @@ public class GameLogic {
      * 
      * @return the part of the map that the player can currently see.
      */
-    public String clientLook(int playerID) {
-	assertPlayerExists(playerID);
+    public LookView clientLook(int playerID) {
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
 
-	final Player player = this.players.get(playerID);
+	    return renderLook(this.players.get(playerID));
+	}
+	finally {
+	    unlockGame();
+	}
+    }
 
+    /**
+     * Works out what a player can see. Only called while the game is held.
+     * 
+     * @param player
+     *            the player who is looking
+     * @return the view
+     */
+    private LookView renderLook(Player player) {
 	// Work out how far the player can see
 	final int distance = player.lookDistance();
+	final int size = 2 * distance + 1;
+	final boolean[] visible = FieldOfView.mask(distance);
+
+	final int playerCol = player.getLocation().getCol();
+	final int playerRow = player.getLocation().getRow();
+
+	final char[] cells = new char[size * size];
+	int cell = 0;
 
-	String lookReply = "";
 	// Iterate through the rows.
 	for (int rowOffset = -distance; rowOffset <= distance; ++rowOffset) {
-	    String line = "";
+	    final int row = playerRow + rowOffset;
 
 	    // Iterate through the columns.
 	    for (int colOffset = -distance; colOffset <= distance; ++colOffset) {
+		final int col = playerCol + colOffset;
 
-		// Work out the location
-		final Location location = player.getLocation().atOffset(
-			colOffset, rowOffset);
-
-		char content = '?';
-		if (!player.canSeeTile(rowOffset, colOffset)) {
+		char content;
+		if (!visible[cell]) {
 		    // It's outside the FoV so we don't know what it is.
 		    content = 'X';
-		} else if (!this.map.insideMap(location)) {
+		} else if (!this.map.insideMap(col, row)) {
 		    // It's outside the map, so just call it a wall.
 		    content = '#';
-		} else if (otherPlayerOnTile(location, playerID)) {
-		    content = 'P';
 		} else {
-		    // Look up and see what's on the map
-		    content = this.map.getMapCell(location).toChar();
+		    final int occupant = this.occupancy.get(row * this.map.getMapWidth() + col);
+
+		    if (occupant != -1 && this.players.get(occupant) != player) {
+			content = 'P';
+		    } else {
+			// Look up and see what's on the map
+			content = this.map.getCellChar(col, row);
+		    }
 		}
 
-		// Add to the line
-		line += content;
+		cells[cell++] = content;
 	    }
-
-	    // Send a line of the look message
-	    lookReply += line + System.getProperty("line.separator");
 	}
 
-	return lookReply;
+	return new LookView(cells, size, playerCol, playerRow);
     }
     
     /**
      * @return a 2x2 array containing a char representation of the map.
+     * @throws IllegalStateException if the map is paged from disk, which is only shown through getMapWindow().
      */
     public char[][] getMap(){
+    	return getRenderBuffer().toArray();
+    }
+    
+    /**
+     * @return the version of the map, which goes up every time a cell of getMap() changes.
+     * @throws IllegalStateException if the map is paged from disk.
+     */
+    public long getMapVersion(){
+    	return getRenderBuffer().getVersion();
+    }
+    
+    /**
+     * Gets the cells of the map that have changed since a version, or the whole map if that version is too old.
+     * @param sinceVersion The version the caller last saw, or -1 for none.
+     * @return The changes needed to bring the caller up to date.
+     * @throws IllegalStateException if the map is paged from disk.
+     */
+    public MapUpdate getMapChangesSince(long sinceVersion){
+    	return getRenderBuffer().changesSince(sinceVersion);
+    }
+    
+    /**
+     * Renders part of the map, as getMap() would show it. A paged map is rendered from its chunks there and then,
+     * row by row, so only the chunks under the window are read.
+     * @param col Column of the left of the window.
+     * @param row Row of the top of the window.
+     * @param cols Width of the window. The window is cut down to fit the map.
+     * @param rows Height of the window.
+     * @return The window, as [row][col].
+     */
+    public char[][] getMapWindow(int col, int row, int cols, int rows){
+    	final int left = Math.max(0, col);
+    	final int top = Math.max(0, row);
+    	final int windowCols = (int) Math.max(0, Math.min(this.map.getMapWidth(), (long) col + cols) - left);
+    	final int windowRows = (int) Math.max(0, Math.min(this.map.getMapHeight(), (long) row + rows) - top);
+    	if(windowCols == 0 || windowRows == 0){
+    		return new char[0][0];
+    	}
     	
-    	char[][] charMap = new char[map.getMapHeight()][map.getMapWidth()];
+    	final MapRenderBuffer buffer = this.renderBuffer;
+    	if(buffer != null){
+    		return buffer.window(left, top, windowCols, windowRows);
+    	}
     	
-    	//Iterate through, adding elements to the map.
-    	for(int rowix = 0; rowix < map.getMapHeight(); rowix++){
-    		for(int colix = 0; colix < map.getMapWidth(); colix++){
-    			
-    			Location thisLocation = new Location(colix, rowix);
-    			
-    			//Is there a player on this square?
-    			
-    			boolean isPlayer = false;
-    			
-    			for(Player p : players){
-    				if(p.getLocation().getCol() == colix && p.getLocation().getRow() == rowix){
-    					isPlayer = true;
-    					charMap[rowix][colix] = 'P';
+    	return callOnGame(new Callable<char[][]>(){
+    		public char[][] call(){
+    			lockGame();
+    			try{
+    				final int width = GameLogic.this.map.getMapWidth();
+    				final char[][] window = new char[windowRows][windowCols];
+    				
+    				for(int r = 0; r < windowRows; r++){
+    					for(int c = 0; c < windowCols; c++){
+    						window[r][c] = renderCell((top + r) * width + left + c);
+    					}
     				}
+    				return window;
     			}
-    			
-    			if(isPlayer == false){
-    				charMap[rowix][colix] = map.getMapCell(thisLocation).toChar();
+    			finally{
+    				unlockGame();
     			}
     		}
-    	}
-    	
-    	return charMap;
-    			
+    	});
+    }
+    
+    /**
+     * @return true if the map is paged in from disk, so can only be shown a window at a time.
+     */
+    public boolean isMapPaged(){
+    	return this.map.isPaged();
     }
     
     /**
@@ -238,45 +578,55 @@ public class GameLogic {
      * @return An indicator of the success or failure of the movement.
      * @throws CommandException
      */
-    public synchronized void clientMove(CompassDirection direction, int playerID)
+    public void clientMove(CompassDirection direction, int playerID)
 	    throws CommandException {
-	assertPlayerExists(playerID);
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
 
-	ensureNoWinner();
-	assertPlayersTurn(playerID);
-	assertPlayerAP(playerID);
+	    ensureNoWinner();
+	    assertPlayersTurn(playerID);
+	    assertPlayerAP(playerID);
 
-	final Player player = this.players.get(playerID);
+	    final Player player = this.players.get(playerID);
 
-	// Work out where the move would take the player
-	final Location location = player.getLocation().atCompassDirection(
-		direction);
+	    // Work out where the move would take the player
+	    final Location location = player.getLocation().atCompassDirection(
+		    direction);
 	
-	//The players current location
-	final Location curLocation = player.getLocation();
-
-	// Ensure that the movement is within the bounds of the map and not
-	// into a wall
-	if (!this.map.insideMap(location)
-		|| !this.map.getMapCell(location).isWalkable()) {
-	    throw new CommandException("can't move into a wall");
-	}
+	    //The players current location
+	    final Location curLocation = player.getLocation();
+
+	    // Ensure that the movement is within the bounds of the map and not
+	    // into a wall
+	    if (!this.map.insideMap(location)
+		    || !this.map.getMapCell(location).isWalkable()) {
+		throw new CommandException("can't move into a wall");
+	    }
 
-	if (otherPlayerOnTile(location, playerID)) {
-	    throw new CommandException("can't move into another player");
-	}
+	    if (otherPlayerOnTile(location, playerID)) {
+		throw new CommandException("can't move into another player");
+	    }
 
-	// Costs one action point
-	player.decrementAp();
+	    // Costs one action point
+	    player.decrementAp();
 
-	// Move the player
-	player.setLocation(location);
+	    // Move the player
+	    movePlayer(playerID, location);
 	
-	notifyPlayersOfMove(location, curLocation); //Notify of changes on squares.
-	mapUpdated();
+	    notifyPlayersOfMove(location, curLocation); //Notify of changes on squares.
+	    mapUpdated();
+
+	    advanceTurn(playerID);
 
-	advanceTurn(playerID);
-	return;
+	    if (this.journal != null) {
+		this.journal.recordMove(direction, playerID);
+	    }
+	    return;
+	}
+	finally {
+	    unlockGame();
+	}
     }
 
     /**
@@ -289,69 +639,92 @@ public class GameLogic {
      * @return A message indicating the success or failure of the attack
      * @throws CommandException
      */
-    public synchronized void clientAttack(CompassDirection direction, int playerID) throws CommandException {
-		assertPlayerExists(playerID);
-		ensureNoWinner();
-		assertPlayersTurn(playerID);
-		assertPlayerAP(playerID);
+    public void clientAttack(CompassDirection direction, int playerID) throws CommandException {
+		attack(direction, playerID, -1);
+	}
+
+    /**
+     * Attacks with the roll already made, so a journal can replay an attack
+     * with the roll it was made with.
+     * 
+     * @param roll
+     *            the roll of the dice, from 0 to 12, or -1 to roll them once
+     *            there is someone to attack. Over 3 hits.
+     */
+    void attack(CompassDirection direction, int playerID, int roll) throws CommandException {
+		lockGame();
+		try {
+			assertPlayerExists(playerID);
+			ensureNoWinner();
+			assertPlayersTurn(playerID);
+			assertPlayerAP(playerID);
 		
-		Player thisPlayer = this.players.get(playerID);
+			Player thisPlayer = this.players.get(playerID);
 	
-		// Work out which square we're targeting
-		Location location = thisPlayer.getLocation().atCompassDirection(direction);
+			// Work out which square we're targeting
+			Location location = thisPlayer.getLocation().atCompassDirection(direction);
 		
-		boolean someoneToAttack = false;
-		Player playerToAttack = null;
+			boolean someoneToAttack = false;
+			Player playerToAttack = null;
 		
-		//Look to see if there is a player present in the specified square.
-		for(Player p : players){
-			if(location.equals(p.getLocation())){
+			//Look to see if there is a player present in the specified square.
+			int cell = cellIndex(location);
+			if(cell != -1 && occupancy.get(cell) != -1){
 				someoneToAttack = true;
-				playerToAttack = p;
-				break;
+				playerToAttack = players.get(occupancy.get(cell));
 			}
-		}
 		
-		if(someoneToAttack==true){
-			int dmg = 1; //By default the player does 1 damage.
-			Random rand = new Random();
+			if(someoneToAttack==true){
+				if(roll < 0){
+					roll = this.random.nextInt(13);
+				}
+				
+				int dmg = 1; //By default the player does 1 damage.
 			
-			boolean attackHit = false;
+				boolean attackHit = false;
 			
-			if(rand.nextInt(13) > 3){
+				if(roll > 3){
 				
-				attackHit = true;
+					attackHit = true;
 				
-				//If the player has a sword, they should do more damage.
-				if(thisPlayer.hasItem(new Sword())){
-					dmg++;
-				}
+					//If the player has a sword, they should do more damage.
+					if(thisPlayer.hasItem(new Sword())){
+						dmg++;
+					}
 				
-				//If the enemy has armour, they should take less damage.
-				if(playerToAttack.hasItem(new Armour())){
-					dmg--;
-				}
+					//If the enemy has armour, they should take less damage.
+					if(playerToAttack.hasItem(new Armour())){
+						dmg--;
+					}
 				
-				playerToAttack.incrementHealth(-dmg);
+					playerToAttack.incrementHealth(-dmg);
 				
-				if(playerToAttack.getHp() < 1){
-					killPlayer(playerToAttack);
+					if(playerToAttack.getHp() < 1){
+						killPlayer(playerToAttack);
+					}
+				}
+				else{
+					attackHit = false;
 				}
-			}
-			else{
-				attackHit = false;
-			}
 			
-			thisPlayer.decrementAp(); //Cost the player ap.
-			advanceTurn(playerID); //advance players turn.
+				thisPlayer.decrementAp(); //Cost the player ap.
+				advanceTurn(playerID); //advance players turn.
 			
-			if(attackHit == false){
-				throw new CommandException("Attack missed.");
-			}
+				if(this.journal != null){
+					this.journal.recordAttack(direction, playerID, roll, this.random.getCounter());
+				}
 			
+				if(attackHit == false){
+					throw new CommandException("Attack missed.");
+				}
+			
+			}
+			else{
+				throw new CommandException("There is no one to attack here.");
+			}
 		}
-		else{
-			throw new CommandException("There is no one to attack here.");
+		finally {
+			unlockGame();
 		}
 	}
 
@@ -364,44 +737,93 @@ public class GameLogic {
      *         picking up.
      * @throws CommandException
      */
-    public synchronized void clientPickup(int playerID) throws CommandException {
-	assertPlayerExists(playerID);
-	ensureNoWinner();
-	assertPlayersTurn(playerID);
-	assertPlayerAP(playerID);
+    public void clientPickup(int playerID) throws CommandException {
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
+	    ensureNoWinner();
+	    assertPlayersTurn(playerID);
+	    assertPlayerAP(playerID);
 
-	final Player player = this.players.get(playerID);
+	    final Player player = this.players.get(playerID);
 
-	final Tile playersTile = this.map.getMapCell(player.getLocation());
+	    final Tile playersTile = this.map.getMapCell(player.getLocation());
 
-	// Check that there is something to pick up
-	if (!playersTile.hasItem()) {
-	    throw new CommandException("nothing to pick up");
-	}
+	    // Check that there is something to pick up
+	    if (!playersTile.hasItem()) {
+		throw new CommandException("nothing to pick up");
+	    }
 
-	// Get the item
-	final GameItem item = playersTile.getItem();
+	    // Get the item
+	    final GameItem item = playersTile.getItem();
 
-	if (player.hasItem(item)) {
-	    throw new CommandException("already have item");
-	}
+	    if (player.hasItem(item)) {
+		throw new CommandException("already have item");
+	    }
 
-	player.giveItem(item);
-	playersTile.removeItem();
+	    player.giveItem(item);
+	    playersTile.removeItem();
+	    refreshCell(cellIndex(player.getLocation()));
 	
-	advanceTurn(playerID);
+	    advanceTurn(playerID);
+
+	    if (this.journal != null) {
+		this.journal.recordPickup(playerID);
+	    }
+	}
+	finally {
+	    unlockGame();
+	}
     }
 
     /**
-     * Sends a message to all players of the game.
+     * Sends a message to all players of the game. The message is encoded once
+     * and sent in the background by the game's broadcaster, without holding
+     * the game, so this does not wait on anyone's connection.
      * 
      * @param message
      *            The message to be shouted
+     * @param from
+     *            The name of the player shouting
+     * @param playerID
+     *            The ID of the player shouting
+     * @throws CommandException
+     *             if the player is shouting too often
      */
-    public void clientShout(String message, String from) {
-	for (final Player player : this.players) {
-		player.sendName(from);
-	    player.sendMessage(message);
+    public void clientShout(String message, String from, int playerID)
+	    throws CommandException {
+	final List<Player> recipients;
+
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
+
+	    if (!this.broadcaster.tryShout(this.players.get(playerID))) {
+		throw new CommandException("you are shouting too much, slow down");
+	    }
+
+	    recipients = new ArrayList<Player>(this.players);
+	}
+	finally {
+	    unlockGame();
+	}
+
+	final Shout shout = new Shout(from, message);
+	this.broadcaster.broadcast(new Runnable() {
+	    public void run() {
+		deliverShout(shout, recipients);
+	    }
+	});
+    }
+
+    /**
+     * Sends a shout to some players. The game is not held, so a shout to
+     * thousands of players never holds up the game's commands: each player
+     * only queues the shout, on its own lock, for its connection to write.
+     */
+    private static void deliverShout(Shout shout, List<Player> recipients) {
+	for (final Player player : recipients) {
+	    player.sendShout(shout);
 	}
     }
     
@@ -415,13 +837,23 @@ public class GameLogic {
     /**
      * Handles the message ENDTURN from the client. Throws command exception if it is not the players turn.
      */
-    public synchronized void clientEndTurn(int playerID) throws CommandException{
-    	//Players can only do this if it is their turn.
-    	if(currentPlayer != playerID){
-    		throw new CommandException("it is not your turn.");
-    	}
+    public void clientEndTurn(int playerID) throws CommandException{
+    	lockGame();
+    	try {
+	    	//Players can only do this if it is their turn.
+	    	if(currentPlayer != playerID){
+	    		throw new CommandException("it is not your turn.");
+	    	}
     	
-    	endTurn(playerID);
+	    	endTurn(playerID);
+	    	
+	    	if(this.journal != null){
+	    		this.journal.recordEndTurn(playerID);
+	    	}
+    	}
+    	finally {
+    		unlockGame();
+    	}
     }
 
     /**
@@ -435,20 +867,230 @@ public class GameLogic {
      *            the row to location to put the player
      * @throws CommandException
      */
-    public synchronized void setPlayerPosition(int col, int row, int playerID)
+    public void setPlayerPosition(int col, int row, int playerID)
 	    throws CommandException {
-	assertPlayerExists(playerID);
-	final Location location = new Location(col, row);
+	lockGame();
+	try {
+	    assertPlayerExists(playerID);
+	    final Location location = new Location(col, row);
 
-	if (!this.map.insideMap(location)) {
-	    throw new CommandException("invalid position");
+	    if (!this.map.insideMap(location)) {
+		throw new CommandException("invalid position");
+	    }
+
+	    if (!this.map.getMapCell(location).isWalkable()) {
+		throw new CommandException("cannot walk on this tile");
+	    }
+
+	    if (otherPlayerOnTile(location, playerID)) {
+		throw new CommandException("cannot walk onto another player");
+	    }
+
+	    movePlayer(playerID, location);
+
+	    if (this.journal != null) {
+		this.journal.recordSetPosition(col, row, playerID);
+	    }
+	}
+	finally {
+	    unlockGame();
+	}
+    }
+
+    /**
+     * Hands the game over to a single game thread. From then on every
+     * command must be submitted through submit(), and the game no longer
+     * takes its lock. This must be called before any players are added.
+     * 
+     * @param name
+     *            the name of the game thread
+     */
+    public void startEventLoop(String name) {
+	if (this.loop != null) {
+	    throw new IllegalStateException("the event loop is already running");
+	}
+
+	this.loop = new GameLoop(name);
+    }
+
+    /**
+     * Stops the game thread, if there is one, once every queued command has
+     * been applied.
+     */
+    public void stopEventLoop() {
+	if (this.loop != null) {
+	    this.loop.shutdown();
+	}
+    }
+
+    /**
+     * Rebuilds the game from its journal, then records every change to the
+     * game in it from here on. This must be called on a freshly loaded game,
+     * before it is handed to an event loop.
+     * 
+     * Given a snapshot writer, the game is restored from its snapshot, if it
+     * has one, and only the journal after it is replayed. Snapshots are then
+     * taken as the game goes on.
+     * 
+     * The clients of any players in the journal went with the old server, so
+     * those players are kept without one, as they were, for a client to
+     * reclaim by saying HELLO with their name. Any not reclaimed in time are
+     * taken off with removeDetachedPlayers().
+     * 
+     * @param newJournal
+     *            the journal, opened for the map and seed the game was loaded
+     *            with
+     * @param newSnapshots
+     *            the snapshots of the game, or null to keep none
+     * @return the number of records replayed
+     * @throws IOException
+     *             if the journal cannot be read, or does not fit the game
+     */
+    public int recover(GameJournal newJournal, SnapshotWriter newSnapshots)
+	    throws IOException {
+	if (this.loop != null) {
+	    throw new IllegalStateException(
+		    "the journal must be replayed before the event loop is started");
+	}
+	if (this.journal != null) {
+	    throw new IllegalStateException("the game already has a journal");
+	}
+	if (newJournal.getSeed() != this.random.getSeed()) {
+	    throw new IOException("the journal was started with another seed");
+	}
+
+	lockGame();
+	try {
+	    long from = 0;
+	    if (newSnapshots != null) {
+		final GameSnapshot snapshot = newSnapshots.load(newJournal);
+		if (snapshot != null) {
+		    restore(snapshot);
+		    from = snapshot.journalOffset;
+		}
+	    }
+
+	    final int replayed = newJournal.replay(this, from);
+
+	    this.journal = newJournal;
+
+	    if (newSnapshots != null) {
+		// Snapshots only copy the items that change from here on
+		this.map.trackChanges();
+
+		final int itemCount = this.map.getItemCount();
+		final int[] cells = new int[itemCount];
+		final byte[] kinds = new byte[itemCount];
+		final int[] values = new int[itemCount];
+		this.map.copyItems(cells, kinds, values);
+
+		newSnapshots.start(cells, kinds, values);
+		this.snapshots = newSnapshots;
+	    }
+	    return replayed;
+	}
+	finally {
+	    unlockGame();
+	}
+    }
+
+    /**
+     * Writes out and closes the game's journal, if it has one, once every
+     * command queued so far has been applied.
+     */
+    public void closeJournal() {
+	final GameJournal closing = this.journal;
+	if (closing == null) {
+	    return;
+	}
+
+	submit(new Callable<Void>() {
+	    public Void call() {
+		lockGame();
+		try {
+		    GameLogic.this.journal = null;
+		    GameLogic.this.snapshots = null;
+		}
+		finally {
+		    unlockGame();
+		}
+
+		closing.close();
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * Describes how much the game's journal and snapshots have written.
+     * 
+     * @return the records, commits and bytes written, followed by the
+     *         snapshot figures if snapshots are kept, or null if the game has
+     *         no journal
+     */
+    public String getJournalStats() {
+	final GameJournal current = this.journal;
+	final SnapshotWriter currentSnapshots = this.snapshots;
+
+	if (current == null) {
+	    return null;
+	}
+	if (currentSnapshots == null) {
+	    return current.getStats();
+	}
+	return current.getStats() + "; " + currentSnapshots.getStats();
+    }
+
+    /**
+     * @return the dice of the game
+     */
+    GameRandom getRandom() {
+	return this.random;
+    }
+
+    /**
+     * Runs a task against the game. With an event loop the task is queued
+     * for the game thread, otherwise it is run straight away on the calling
+     * thread.
+     * 
+     * @param task
+     *            the task to run
+     * @return a future holding the result of the task
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+	if (this.loop != null) {
+	    return this.loop.submit(task);
 	}
 
-	if (!this.map.getMapCell(location).isWalkable()) {
-	    throw new CommandException("cannot walk on this tile");
+	final FutureTask<T> future = new FutureTask<T>(task);
+	future.run();
+	return future;
+    }
+
+    /**
+     * Safe to call from any thread, e.g. to report load, since it holds the
+     * player list rather than the game.
+     * 
+     * @return the number of players in the game
+     */
+    public int getPlayerCount() {
+	int count = 0;
+	synchronized (this.players) {
+	    for (final Player player : this.players) {
+		if (!player.hasLeft()) {
+		    count++;
+		}
+	    }
 	}
+	return count;
+    }
 
-	this.players.get(playerID).setLocation(location);
+    /**
+     * @return how long each command holds the game thread on average, in
+     *         nanoseconds, or 0 if the game has no event loop
+     */
+    public long getAverageTaskNanos() {
+	return (this.loop == null) ? 0 : this.loop.getAverageTaskNanos();
     }
 
     /**
@@ -459,6 +1101,23 @@ public class GameLogic {
     public int getGoal() {
 	return this.map.getGoal();
     }
+
+    /**
+     * Describes how well the chunk cache of a paged map is doing.
+     * 
+     * @return the chunk hits, misses, evictions and the number of chunks in
+     *         memory, or null if the map is not paged
+     */
+    public String getChunkStats() {
+	if (!this.map.isPaged()) {
+	    return null;
+	}
+
+	return "hits " + this.map.getChunkHits() + ", misses "
+		+ this.map.getChunkMisses() + ", evictions "
+		+ this.map.getChunkEvictions() + ", cached "
+		+ this.map.getCachedChunks();
+    }
     
     /**
      * Adds an update watcher to the map.
@@ -485,6 +1144,10 @@ public class GameLogic {
      * @return a random location where a player can start
      */
     private Location generateRandomStartLocation() {
+	if (this.spawns != null) {
+	    return generateSpawnLocation();
+	}
+
 	if (!atLeastOneNonWallLocation()) {
 	    throw new IllegalStateException(
 		    "There is no free tile available for the player to be placed");
@@ -492,9 +1155,8 @@ public class GameLogic {
 
 	while (true) {
 	    // Generate a random location
-	    final Random random = new Random();
-	    final int randomRow = random.nextInt(this.map.getMapHeight());
-	    final int randomCol = random.nextInt(this.map.getMapWidth());
+	    final int randomRow = this.random.nextInt(this.map.getMapHeight());
+	    final int randomCol = this.random.nextInt(this.map.getMapWidth());
 
 	    final Location location = new Location(randomCol, randomRow);
 
@@ -506,10 +1168,150 @@ public class GameLogic {
 	}
     }
     
+    /**
+     * Picks a random start location from the free spawn cells.
+     * 
+     * @return a random location where a player can start
+     */
+    private Location generateSpawnLocation() {
+	final int cell = this.spawns.randomFreeCell(this.random);
+
+	if (cell == -1) {
+	    throw new IllegalStateException(
+		    "There is no free tile available for the player to be placed");
+	}
+
+	final int width = this.map.getMapWidth();
+	return new Location(cell % width, cell / width);
+    }
+
+    /**
+     * Copies the players and the items changed since the last snapshot, and
+     * hands the copy to the snapshot writer. Called at the end of a tick,
+     * while the game is still held.
+     */
+    private void takeSnapshot() {
+	final long start = System.nanoTime();
+
+	final int[] cells = this.map.takeChangedCells();
+	final byte[] kinds = new byte[cells.length];
+	final int[] values = new int[cells.length];
+	this.map.copyItemsAt(cells, kinds, values);
+
+	final GameSnapshot.PlayerState[] states = new GameSnapshot.PlayerState[this.players
+		.size()];
+	for (int i = 0; i < states.length; i++) {
+	    final Player player = this.players.get(i);
+
+	    final byte[] items = new byte[player.items.size()];
+	    for (int j = 0; j < items.length; j++) {
+		items[j] = (byte) player.items.get(j).toChar();
+	    }
+
+	    states[i] = new GameSnapshot.PlayerState(player.getName(),
+		    player.defaultName, player.hasWon(),
+		    player.getLocation().getCol(),
+		    player.getLocation().getRow(), player.getHp(),
+		    player.remainingAp(), player.getGold(), items,
+		    player.hasLeft());
+	}
+
+	final GameSnapshot snapshot = new GameSnapshot(this.journal.getEnd(),
+		this.map.getMapWidth(), this.map.getMapHeight(),
+		this.playerWon, this.currentPlayer, this.random.getCounter(),
+		cells, kinds, values, states);
+
+	this.snapshots.write(snapshot, this.journal, this.journal.getAdded(),
+		System.nanoTime() - start);
+    }
+
+    /**
+     * Puts the game back as it was when a snapshot was taken. The game must
+     * have just been loaded from the same map.
+     * 
+     * @throws IOException
+     *             if the snapshot does not fit the map
+     */
+    private void restore(GameSnapshot snapshot) throws IOException {
+	if (snapshot.width != this.map.getMapWidth()
+		|| snapshot.height != this.map.getMapHeight()) {
+	    throw new IOException("the snapshot is of a different map");
+	}
+
+	try {
+	    this.map.restoreItems(snapshot.itemCells, snapshot.itemKinds,
+		    snapshot.itemValues);
+
+	    final PlayerListener detached = new DetachedPlayer();
+	    for (final GameSnapshot.PlayerState state : snapshot.players) {
+		final List<GameItem> items = new ArrayList<GameItem>();
+		for (final byte item : state.items) {
+		    items.add(GameItem.fromChar((char) (item & 0xFF)));
+		}
+
+		final Location location = new Location(state.col, state.row);
+		final Player player = new Player(state.name, location, detached);
+		player.restore(state.defaultName, state.won, state.hp,
+			state.ap, state.gold, items);
+		final int playerID = this.players.size();
+		this.players.add(player);
+		if (state.left) {
+		    player.leave();
+		    this.leftIDs.set(playerID);
+		}
+
+		final int cell = cellIndex(location);
+		if (cell != -1 && !player.isDead()) {
+		    setOccupant(cell, playerID);
+		}
+	    }
+	} catch (final IllegalArgumentException e) {
+	    throw new IOException("the snapshot does not fit the map: "
+		    + e.getMessage());
+	}
+
+	this.playerWon = snapshot.playerWon;
+	this.currentPlayer = snapshot.currentPlayer;
+	this.random.setCounter(snapshot.randomCounter);
+
+	// Paged maps build this when it is first asked for
+	if (!this.map.isPaged()) {
+	    this.renderBuffer = createRenderBuffer();
+	}
+    }
+
+    /**
+     * Takes every player off the map, dropping their gold where they stand,
+     * so the game starts again with whoever joins next.
+     */
+    void removeAllPlayers() {
+	lockGame();
+	try {
+	    for (final Player player : this.players) {
+		if (!player.isDead()) {
+		    killPlayer(player);
+		}
+		this.broadcaster.forget(player);
+	    }
+
+	    this.players.clear();
+	    this.leftIDs.clear();
+	    this.changedViews.clear();
+	    this.currentPlayer = -1;
+
+	    if (this.journal != null) {
+		this.journal.recordRemoveAll();
+	    }
+	}
+	finally {
+	    unlockGame();
+	}
+    }
+
     /**
      * Kills the specified player, causing them to drop all of their gold.
      */
-    private synchronized void killPlayer(Player playerToKill){
+    private void killPlayer(Player playerToKill){
     	
     	Tile playersTile = map.getMapCell(playerToKill.getLocation());
     	
@@ -547,9 +1349,15 @@ public class GameLogic {
 		playerToKill.kill();
 		
 		
-		playerToKill.setLocation(new Location(-10, -10)); //Move the player to a special dead area
+		//Move the player to a special dead area, off the map.
+		int cell = cellIndex(locationOfDeath);
+		if(cell != -1){
+			setOccupant(cell, -1);
+			refreshCell(cell);
+		}
+		playerToKill.setLocation(new Location(-10, -10));
 		
-		playerToKill.lookChange(); //Tell the current player to update their look.
+		lookChanged(playerToKill); //Tell the current player to update their look.
 		
 		//Tell everyone else to update their look.
 		notifyPlayersOfChange(locationOfDeath);
@@ -563,18 +1371,18 @@ public class GameLogic {
 
     /**
      * Searches a possible tile to use by the player, i.e. non-wall. The map is
-     * traversed from (0,0) to (maxY,MaxX).
+     * traversed a row at a time from (0,0), so a paged map reads its chunks in
+     * order.
      * 
      * @return true if there is at least one non-wall location, false otherwise
      */
     private boolean atLeastOneNonWallLocation() {
-	for (int x = 0; x < this.map.getMapWidth(); x++) {
-	    for (int y = 0; y < this.map.getMapHeight(); y++) {
+	final int cells = this.map.getMapWidth() * this.map.getMapHeight();
 
-		if (this.map.getMapCell(new Location(x, y)).isWalkable()) {
-		    // If it's not a wall then we can put them there
-		    return true;
-		}
+	for (int cell = 0; cell < cells; cell++) {
+	    if (this.map.getTileType(cell).walkable()) {
+		// If it's not a wall then we can put them there
+		return true;
 	    }
 	}
 
@@ -588,15 +1396,167 @@ public class GameLogic {
      * @return true if there is a player here, false otherwise.
      */
     private boolean otherPlayerOnTile(Location location, int currentPlayerID) {
-	for (int otherPlayerID = 0; otherPlayerID < this.players.size(); otherPlayerID++) {
-	    if ((otherPlayerID != currentPlayerID)
-		    && this.players.get(otherPlayerID).getLocation()
-			    .equals(location)) {
-		return true;
+	final int cell = cellIndex(location);
+
+	if (cell == -1) {
+	    return false;
+	}
+
+	final int occupant = this.occupancy.get(cell);
+	return (occupant != -1) && (occupant != currentPlayerID);
+    }
+
+    /**
+     * Works out where a location is in the occupancy grid.
+     * 
+     * @param location
+     *            the location to look up
+     * @return the index of the location, or -1 if it is outside the map
+     */
+    private int cellIndex(Location location) {
+	if (!this.map.insideMap(location)) {
+	    return -1;
+	}
+
+	return location.getRow() * this.map.getMapWidth() + location.getCol();
+    }
+
+    /**
+     * Records who is standing on a cell, keeping the free spawn cells up to
+     * date.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param playerID
+     *            the ID of the player on the cell, or -1 if it is now empty
+     */
+    private void setOccupant(int cell, int playerID) {
+	if (this.spawns == null) {
+	    this.occupancy.set(cell, playerID);
+	} else if (playerID != -1) {
+	    // The allocator reads the cell's mark before the player replaces it
+	    this.spawns.take(cell);
+	    this.occupancy.set(cell, playerID);
+	} else if (this.occupancy.get(cell) != -1) {
+	    this.occupancy.set(cell, -1);
+	    this.spawns.free(cell);
+	}
+    }
+
+    /**
+     * Moves a player to a new location, keeping the occupancy grid up to
+     * date.
+     * 
+     * @param playerID
+     *            the ID of the player to move
+     * @param location
+     *            the player's new location
+     */
+    private void movePlayer(int playerID, Location location) {
+	final Player player = this.players.get(playerID);
+
+	final int oldCell = cellIndex(player.getLocation());
+	if (oldCell != -1 && this.occupancy.get(oldCell) == playerID) {
+	    setOccupant(oldCell, -1);
+	    refreshCell(oldCell);
+	}
+
+	player.setLocation(location);
+
+	final int newCell = cellIndex(location);
+	if (newCell != -1) {
+	    setOccupant(newCell, playerID);
+	    refreshCell(newCell);
+	}
+    }
+
+    /**
+     * Works out what the server interfaces should show in a cell.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return 'P' if a player is there, otherwise the map tile
+     */
+    private char renderCell(int cell) {
+	if (this.occupancy.get(cell) != -1) {
+	    return 'P';
+	}
+
+	final int width = this.map.getMapWidth();
+	return this.map.getCellChar(cell % width, cell / width);
+    }
+
+    /**
+     * Brings a cell of the render buffer up to date after it may have
+     * changed.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     */
+    private void refreshCell(int cell) {
+	final MapRenderBuffer buffer = this.renderBuffer;
+
+	if (buffer != null) {
+	    buffer.set(cell, renderCell(cell));
+	}
+    }
+
+    /**
+     * Builds the render buffer from the current state of the map.
+     * 
+     * @return the new buffer
+     */
+    private MapRenderBuffer createRenderBuffer() {
+	final MapRenderBuffer buffer = new MapRenderBuffer(
+		this.map.getMapWidth(), this.map.getMapHeight());
+	final int cells = this.map.getMapWidth() * this.map.getMapHeight();
+
+	for (int cell = 0; cell < cells; cell++) {
+	    buffer.init(cell, renderCell(cell));
+	}
+	return buffer;
+    }
+
+    /**
+     * Gets the render buffer, which paged maps do not have.
+     * 
+     * @return the render buffer
+     */
+    private MapRenderBuffer getRenderBuffer() {
+	final MapRenderBuffer buffer = this.renderBuffer;
+
+	if (buffer == null) {
+	    throw new IllegalStateException(
+		    "the map is paged from disk, so can only be shown a window at a time");
+	}
+	return buffer;
+    }
+
+    /**
+     * Runs a task on the game thread, if there is one, and waits for it.
+     * 
+     * @param task
+     *            the task to run
+     * @return what the task returned
+     */
+    private <T> T callOnGame(Callable<T> task) {
+	// Waiting on the loop from its own thread would never finish
+	if (this.loop != null && this.loop.isLoopThread()) {
+	    try {
+		return task.call();
+	    } catch (final Exception e) {
+		throw new IllegalStateException(e);
 	    }
 	}
 
-	return false;
+	try {
+	    return submit(task).get();
+	} catch (final InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("interrupted waiting for the game");
+	} catch (final ExecutionException e) {
+	    throw new IllegalStateException(e.getCause());
+	}
     }
 
     /**
@@ -607,7 +1567,8 @@ public class GameLogic {
      * @throws RuntimeException
      */
     private void assertPlayerExists(int playerID) throws RuntimeException {
-	if ((playerID < 0) || (playerID >= this.players.size())) {
+	if ((playerID < 0) || (playerID >= this.players.size())
+		|| this.players.get(playerID).hasLeft()) {
 	    throw new IllegalStateException(": Player has not been added.");
 	}
     }
@@ -653,7 +1614,7 @@ public class GameLogic {
      * @param secondLocation Another location at which a change may have occurred
      * @param playerID The ID of the current player.
      */
-    private synchronized void notifyPlayersOfChange(Location changedLocation){
+    private void notifyPlayersOfChange(Location changedLocation){
     	notifyPlayersOfMove(changedLocation, changedLocation); //Save some time.
     }
     /**
@@ -663,7 +1624,7 @@ public class GameLogic {
      * @param secondLocation Another location at which a change may have occurred
      * @param playerID The ID of the current player.
      */
-    private synchronized void notifyPlayersOfMove(Location movedTo, Location movedFrom){
+    private void notifyPlayersOfMove(Location movedTo, Location movedFrom){
     	//Iterate through all the players
     	for(Player p: players){
     		Location playerLocation = p.getLocation();
@@ -711,11 +1672,36 @@ public class GameLogic {
     				
     		//Can the player see the tiles?
     		if(p.canSeeTile(toRowOffset, toColOffset) || p.canSeeTile(fromRowOffset, fromColOffset)){
-    			p.lookChange(); //Notify them.
+    			lookChanged(p); //Notify them.
     		}
     	}
     }
-    private synchronized void startTurn() {
+    
+    /**
+     * Tells a player that what they can see has changed, or, if they would rather be sent their new view, remembers to
+     * send it to them once the game is unlocked.
+     * @param player The player whose view has changed.
+     */
+    private void lookChanged(Player player){
+    	if(player.wantsViewPush()){
+    		changedViews.add(player);
+    	}
+    	else{
+    		player.lookChange();
+    	}
+    }
+    
+    /**
+     * Sends every player in changedViews their new view.
+     */
+    private void pushChangedViews(){
+    	for(Player p : changedViews){
+    		p.viewChange(renderLook(p));
+    	}
+    	changedViews.clear();
+    }
+    
+    private void startTurn() {
 	this.players.get(this.currentPlayer).startTurn();
     }
 
@@ -731,7 +1717,7 @@ public class GameLogic {
      * @param the
      *            ID of a player
      */
-    private synchronized void advanceTurn(int playerID) {
+    private void advanceTurn(int playerID) {
 	final Player player = this.players.get(playerID);
 	
 		//Check in bounds - dead players will be out of bounds.
@@ -759,10 +1745,10 @@ public class GameLogic {
 		    player.win();
 		    if(playerWon == false){
 			    // Everyone else is informed of the win.
+			    final Shout announcement = new Shout("SERVER", "Someone has won the game!!");
 			    for(Player p : players){
 			    	if(p.hasWon() == false){
-			    		p.sendName("SERVER");				    	
-			    		p.sendMessage("Someone has won the game!!");
+			    		p.sendShout(announcement);
 				    	p.lose();
 			    	}
 			    }
@@ -785,7 +1771,7 @@ public class GameLogic {
      * Ends the clients turn. The old client end turn method.
      * @param playerID ID of player to end turn of.
      */
-    private synchronized void endTurn(int playerID){
+    private void endTurn(int playerID){
     	assertPlayerExists(playerID);
 		this.players.get(playerID).endTurn();
 	
@@ -800,4 +1786,39 @@ public class GameLogic {
 	
 		startTurn();
     }
+
+    /**
+     * Takes the game lock, or checks that we are on the game thread when the
+     * game is owned by an event loop.
+     */
+    private void lockGame() {
+	if (this.loop == null) {
+	    this.lock.lock();
+	} else if (!this.loop.isLoopThread()) {
+	    throw new IllegalStateException(
+		    "the game can only be changed from its game thread");
+	}
+	this.lockDepth++;
+    }
+
+    /**
+     * Releases the game lock taken by lockGame(). The outermost release ends
+     * the tick, so any pushed views are sent first.
+     */
+    private void unlockGame() {
+	try {
+	    this.lockDepth--;
+	    if (this.lockDepth == 0 && !this.changedViews.isEmpty()) {
+		pushChangedViews();
+	    }
+	    if (this.lockDepth == 0 && this.snapshots != null
+		    && this.snapshots.isDue(this.journal.getAdded())) {
+		takeSnapshot();
+	    }
+	} finally {
+	    if (this.loop == null) {
+		this.lock.unlock();
+	    }
+	}
+    }
 }
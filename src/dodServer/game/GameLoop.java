@@ -0,0 +1,88 @@
+package dodServer.game;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A single thread which owns a game. Tasks submitted from connection threads
+ * are applied one at a time, in the order they were submitted, so the game
+ * itself does not need to take any locks.
+ */
+public class GameLoop {
+    // The executor running the game thread
+    private final ExecutorService executor;
+
+    // The game thread itself, set once the executor has created it
+    private volatile Thread loopThread;
+
+    // A moving average of how long each task holds the game thread, in
+    // nanoseconds. Only written by the game thread.
+    private volatile long averageTaskNanos = 0;
+
+    /**
+     * Creates and starts a game loop.
+     * 
+     * @param name
+     *            the name to give the game thread
+     */
+    public GameLoop(final String name) {
+	this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable r) {
+		final Thread thread = new Thread(r, name);
+		thread.setDaemon(true);
+		GameLoop.this.loopThread = thread;
+		return thread;
+	    }
+	});
+    }
+
+    /**
+     * Queues a task to be run on the game thread.
+     * 
+     * @param task
+     *            the task to run
+     * @return a future which completes once the task has been run
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+	return this.executor.submit(new Callable<T>() {
+	    @Override
+	    public T call() throws Exception {
+		final long start = System.nanoTime();
+		try {
+		    return task.call();
+		} finally {
+		    // Weight the latest task by an eighth
+		    final long average = GameLoop.this.averageTaskNanos;
+		    GameLoop.this.averageTaskNanos = average
+			    + (System.nanoTime() - start - average) / 8;
+		}
+	    }
+	});
+    }
+
+    /**
+     * @return a moving average of how long each task holds the game thread,
+     *         in nanoseconds
+     */
+    public long getAverageTaskNanos() {
+	return this.averageTaskNanos;
+    }
+
+    /**
+     * @return true if the calling thread is the game thread
+     */
+    public boolean isLoopThread() {
+	return Thread.currentThread() == this.loopThread;
+    }
+
+    /**
+     * Stops the game thread once every queued task has been run.
+     */
+    public void shutdown() {
+	this.executor.shutdown();
+    }
+}
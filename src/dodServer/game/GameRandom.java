@@ -0,0 +1,104 @@
+package dodServer.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The dice of one game. The n'th number given is the SplitMix64 hash of the
+ * seed and n, so two games with the same seed roll the same numbers, and the
+ * generator can be put back exactly where it was from its seed and how many
+ * numbers it has given.
+ *
+ * A game only rolls while it is held, so this is not thread safe.
+ */
+public final class GameRandom {
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    // Seeds games made without one, so no two get the same
+    private static final AtomicLong seeds = new AtomicLong(System.nanoTime()
+	    ^ System.currentTimeMillis() * GAMMA);
+
+    private final long seed;
+
+    // How many numbers have been given
+    private long counter = 0;
+
+    /**
+     * Creates a generator with a seed no other game has.
+     */
+    public GameRandom() {
+	this(newSeed());
+    }
+
+    /**
+     * @param setSeed
+     *            the seed, which decides every number given
+     */
+    public GameRandom(long setSeed) {
+	this.seed = setSeed;
+    }
+
+    /**
+     * @return a seed no other game in this server has been given
+     */
+    public static long newSeed() {
+	return mix(seeds.addAndGet(GAMMA));
+    }
+
+    /**
+     * @return the seed
+     */
+    public long getSeed() {
+	return this.seed;
+    }
+
+    /**
+     * @return how many numbers have been given so far
+     */
+    public long getCounter() {
+	return this.counter;
+    }
+
+    /**
+     * Puts the generator back to how it was after giving a number of numbers,
+     * e.g. when a game is rebuilt from its journal.
+     */
+    void setCounter(long setCounter) {
+	this.counter = setCounter;
+    }
+
+    /**
+     * @return the next number, with all 64 bits random
+     */
+    public long nextLong() {
+	this.counter++;
+	return mix(this.seed + this.counter * GAMMA);
+    }
+
+    /**
+     * @param bound
+     *            one more than the largest number wanted
+     * @return the next number from 0 to bound - 1, every one as likely
+     */
+    public int nextInt(int bound) {
+	if (bound <= 0) {
+	    throw new IllegalArgumentException("bound must be positive");
+	}
+
+	// Use the top 32 bits, throwing away the few at the end of their range
+	// which would make the low numbers more likely
+	final long range = 1L << 32;
+	final long limit = range - range % bound;
+	long r;
+	do {
+	    r = nextLong() >>> 32;
+	} while (r >= limit);
+
+	return (int) (r % bound);
+    }
+
+    private static long mix(long z) {
+	z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,251 @@
+package dodServer.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Everything about a game that changes as it is played, as it was at one
+ * point in its journal: the items on the map, the players, whose turn it is,
+ * whether anyone has won and how far its dice have rolled. The tiles never change, so they are left in
+ * the map file.
+ *
+ * Snapshots are taken and written by a SnapshotWriter. Items are kept in
+ * cell order and each cell is written as the gap from the one before, so
+ * most items take two or three bytes.
+ */
+final class GameSnapshot {
+    // "DODS" and a version
+    private static final int MAGIC = 0x444F4453;
+    private static final short VERSION = 3;
+
+    /**
+     * One player, as they were.
+     */
+    static final class PlayerState {
+	final String name;
+	final boolean defaultName;
+	final boolean won;
+	final int col;
+	final int row;
+	final int hp;
+	final int ap;
+	final int gold;
+	final byte[] items;
+	final boolean left;
+
+	PlayerState(String setName, boolean setDefaultName, boolean setWon,
+		int setCol, int setRow, int setHp, int setAp, int setGold,
+		byte[] setItems, boolean setLeft) {
+	    this.name = setName;
+	    this.defaultName = setDefaultName;
+	    this.won = setWon;
+	    this.col = setCol;
+	    this.row = setRow;
+	    this.hp = setHp;
+	    this.ap = setAp;
+	    this.gold = setGold;
+	    this.items = setItems;
+	    this.left = setLeft;
+	}
+    }
+
+    final long journalOffset;
+    final int width;
+    final int height;
+    final boolean playerWon;
+    final int currentPlayer;
+    final long randomCounter;
+    final int[] itemCells;
+    final byte[] itemKinds;
+    final int[] itemValues;
+    final PlayerState[] players;
+
+    GameSnapshot(long setJournalOffset, int setWidth, int setHeight,
+	    boolean setPlayerWon, int setCurrentPlayer, long setRandomCounter,
+	    int[] setItemCells, byte[] setItemKinds, int[] setItemValues,
+	    PlayerState[] setPlayers) {
+	this.journalOffset = setJournalOffset;
+	this.width = setWidth;
+	this.height = setHeight;
+	this.playerWon = setPlayerWon;
+	this.currentPlayer = setCurrentPlayer;
+	this.randomCounter = setRandomCounter;
+	this.itemCells = setItemCells;
+	this.itemKinds = setItemKinds;
+	this.itemValues = setItemValues;
+	this.players = setPlayers;
+    }
+
+    /**
+     * Encodes the snapshot, followed by a CRC32 of everything before it. The
+     * items must be in cell order.
+     *
+     * @param stream
+     *            where to write the snapshot, which is not closed
+     * @return the number of bytes written
+     */
+    long write(OutputStream stream) throws IOException {
+	final CheckedOutputStream checked = new CheckedOutputStream(
+		new BufferedOutputStream(stream, 1 << 16), new CRC32());
+	final DataOutputStream out = new DataOutputStream(checked);
+
+	out.writeInt(MAGIC);
+	out.writeShort(VERSION);
+	out.writeLong(this.journalOffset);
+	out.writeInt(this.width);
+	out.writeInt(this.height);
+	out.writeBoolean(this.playerWon);
+	out.writeInt(this.currentPlayer);
+	out.writeLong(this.randomCounter);
+
+	writeVarInt(out, this.itemCells.length);
+	int lastCell = 0;
+	for (int i = 0; i < this.itemCells.length; i++) {
+	    if (this.itemCells[i] < lastCell) {
+		throw new IllegalStateException("the items are not in cell order");
+	    }
+
+	    writeVarInt(out, this.itemCells[i] - lastCell);
+	    out.writeByte(this.itemKinds[i]);
+	    if (this.itemKinds[i] == 'G') {
+		writeVarInt(out, this.itemValues[i]);
+	    }
+	    lastCell = this.itemCells[i];
+	}
+
+	writeVarInt(out, this.players.length);
+	for (final PlayerState player : this.players) {
+	    out.writeUTF(player.name);
+	    out.writeBoolean(player.defaultName);
+	    out.writeBoolean(player.won);
+	    out.writeInt(player.col);
+	    out.writeInt(player.row);
+	    out.writeInt(player.hp);
+	    out.writeInt(player.ap);
+	    out.writeInt(player.gold);
+	    out.writeByte(player.items.length);
+	    out.write(player.items);
+	    out.writeBoolean(player.left);
+	}
+
+	out.writeInt((int) checked.getChecksum().getValue());
+	out.flush();
+	return out.size();
+    }
+
+    /**
+     * Reads a snapshot written by write().
+     *
+     * @return the snapshot
+     * @throws IOException
+     *             if the file cannot be read, or is not a whole snapshot
+     */
+    static GameSnapshot read(File file) throws IOException {
+	final InputStream stream = new FileInputStream(file);
+
+	try {
+	    final CheckedInputStream checked = new CheckedInputStream(
+		    new BufferedInputStream(stream, 1 << 16), new CRC32());
+	    final DataInputStream in = new DataInputStream(checked);
+
+	    if (in.readInt() != MAGIC) {
+		throw new IOException(file + " is not a game snapshot");
+	    }
+	    if (in.readShort() != VERSION) {
+		throw new IOException(file + " is an unsupported snapshot version");
+	    }
+
+	    final long journalOffset = in.readLong();
+	    final int width = in.readInt();
+	    final int height = in.readInt();
+	    final boolean playerWon = in.readBoolean();
+	    final int currentPlayer = in.readInt();
+	    final long randomCounter = in.readLong();
+
+	    final int itemCount = readVarInt(in);
+	    final int[] cells = new int[itemCount];
+	    final byte[] kinds = new byte[itemCount];
+	    final int[] values = new int[itemCount];
+
+	    int cell = 0;
+	    for (int i = 0; i < itemCount; i++) {
+		cell += readVarInt(in);
+		cells[i] = cell;
+		kinds[i] = in.readByte();
+		if (kinds[i] == 'G') {
+		    values[i] = readVarInt(in);
+		}
+	    }
+
+	    final PlayerState[] players = new PlayerState[readVarInt(in)];
+	    for (int i = 0; i < players.length; i++) {
+		final String name = in.readUTF();
+		final boolean defaultName = in.readBoolean();
+		final boolean won = in.readBoolean();
+		final int col = in.readInt();
+		final int row = in.readInt();
+		final int hp = in.readInt();
+		final int ap = in.readInt();
+		final int gold = in.readInt();
+		final byte[] items = new byte[in.readUnsignedByte()];
+		in.readFully(items);
+		final boolean left = in.readBoolean();
+
+		players[i] = new PlayerState(name, defaultName, won, col, row,
+			hp, ap, gold, items, left);
+	    }
+
+	    final int expected = (int) checked.getChecksum().getValue();
+	    if (in.readInt() != expected) {
+		throw new IOException(file + " is corrupt");
+	    }
+
+	    return new GameSnapshot(journalOffset, width, height, playerWon,
+		    currentPlayer, randomCounter, cells, kinds, values, players);
+	} catch (EOFException e) {
+	    throw new IOException(file + " is cut short");
+	} finally {
+	    stream.close();
+	}
+    }
+
+    /**
+     * Writes a non-negative number in as few bytes as it needs, seven bits
+     * at a time.
+     */
+    private static void writeVarInt(DataOutputStream out, int value)
+	    throws IOException {
+	while ((value & ~0x7F) != 0) {
+	    out.writeByte((value & 0x7F) | 0x80);
+	    value >>>= 7;
+	}
+	out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+	int value = 0;
+
+	for (int shift = 0; shift < 32; shift += 7) {
+	    final int b = in.readUnsignedByte();
+	    value |= (b & 0x7F) << shift;
+	    if ((b & 0x80) == 0) {
+		if (value < 0) {
+		    throw new IOException("invalid number in snapshot");
+		}
+		return value;
+	    }
+	}
+	throw new IOException("invalid number in snapshot");
+    }
+}
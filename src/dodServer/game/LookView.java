@@ -0,0 +1,82 @@
+package dodServer.game;
+
+/**
+ * What a player can see: the square of cells round them that a LOOK shows,
+ * and where they were standing. The game fills the cells in straight from
+ * the map, so a delta reply can be worked out from them, and from how far the
+ * player has moved, without parsing the text of the look.
+ */
+public final class LookView {
+    private static final String LINE_SEPARATOR = System
+	    .getProperty("line.separator");
+
+    // The cells, row by row
+    private final char[] cells;
+    private final int size;
+
+    // Where the player was standing, at the centre of the view
+    private final int col;
+    private final int row;
+
+    /**
+     * @param cells
+     *            the cells, row by row, which are not copied
+     * @param size
+     *            the number of rows, and of columns
+     * @param col
+     *            the column the player is in
+     * @param row
+     *            the row the player is in
+     */
+    LookView(char[] cells, int size, int col, int row) {
+	this.cells = cells;
+	this.size = size;
+	this.col = col;
+	this.row = row;
+    }
+
+    /**
+     * @param index
+     *            the index of the cell, row * size + col
+     * @return the character of the cell
+     */
+    public char getCell(int index) {
+	return this.cells[index];
+    }
+
+    /**
+     * @return the number of rows, and of columns
+     */
+    public int getSize() {
+	return this.size;
+    }
+
+    /**
+     * @return the column the player is in
+     */
+    public int getCol() {
+	return this.col;
+    }
+
+    /**
+     * @return the row the player is in
+     */
+    public int getRow() {
+	return this.row;
+    }
+
+    /**
+     * @return the view as a LOOK shows it, a line per row
+     */
+    @Override
+    public String toString() {
+	final StringBuilder look = new StringBuilder(this.size
+		* (this.size + LINE_SEPARATOR.length()));
+
+	for (int r = 0; r < this.size; r++) {
+	    look.append(this.cells, r * this.size, this.size);
+	    look.append(LINE_SEPARATOR);
+	}
+	return look.toString();
+    }
+}
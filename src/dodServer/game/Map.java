@@ -1,12 +1,27 @@
 package dodServer.game;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.HashMap;
 
+import dodServer.game.Tile.TileType;
+import dodServer.game.items.GameItem;
 import dodServer.game.items.Gold;
 
 /**
@@ -21,8 +36,34 @@ public class Map {
     // The name of the map
     private String name;
 
-    // The tiles of the map, stored in row-major order, i.e. [row][col]
-    private Tile map[][];
+    // The tiles of the map, stored in row-major order, i.e. row * width +
+    // col. Each byte is the ordinal of the tile type, with ITEM_FLAG set if
+    // there is an item on the tile.
+    private byte tiles[];
+    private int width;
+    private int height;
+
+    // The items on the map, by cell. Most cells have no item.
+    private final HashMap<Integer, GameItem> items = new HashMap<Integer, GameItem>();
+
+    // The cells whose item has changed since they were last taken, once
+    // changes are tracked for snapshots. A cell may appear more than once.
+    private int[] changedCells = null;
+    private int changedCount = 0;
+
+    // Marks a cell which has an entry in the item table
+    private static final int ITEM_FLAG = 0x40;
+    private static final int TYPE_MASK = 0x3F;
+
+    private static final TileType[] TILE_TYPES = TileType.values();
+
+    // Binary maps with more cells than this are paged in from the file in
+    // chunks instead of being loaded whole, in which case tiles is null
+    private static final long PAGED_MAP_CELLS = Long.getLong(
+	    "dod.pagedMapCells", 1L << 26);
+    private static final int MAP_CHUNK_CACHE = Integer.getInteger(
+	    "dod.mapChunkCache", 4096);
+    private ChunkedTileStore pagedTiles = null;
 
     // The number of gold required to win
     private int goal;
@@ -32,8 +73,18 @@ public class Map {
     private static final int GOALLINE = 1;
     private static final int MAPBEGINLINE = 2;
 
-    // Minimum number of lines
-    private static final int MINLINES = 3;
+    // The compiled binary map format starts with "DODM" and a version. The
+    // header then holds the name, goal, width and height, followed by one
+    // byte per cell (the tile type ordinal), then the item count and each
+    // item as its cell index and character.
+    private static final int BINARY_MAGIC = 0x444F444D;
+    private static final short BINARY_VERSION = 1;
+
+    // The most bytes the header can take: the fixed fields and the longest
+    // name
+    private static final int BINARY_HEADER_MAX = 4 + 2 + 2 + 0xFFFF + 12;
+
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
 
     /**
      * Creates a map from the file specified. Note that this is not robust...
@@ -44,37 +95,28 @@ public class Map {
      * @throws FileNotFoundException
      */
     public Map(String filename) throws ParseException, FileNotFoundException {
-	final List<String> lines = readFile(filename);
-
-	// Good programmers always check this...
-	if (lines.size() < MINLINES) {
-	    throw new ParseException(
-		    "a map file must contain at least three lines",
-		    lines.size());
+	// Compiled maps can be loaded much faster than text ones
+	if (isBinaryFile(filename)) {
+	    readBinaryFile(filename);
+	    return;
 	}
 
-	// The first line should always be the name of the map.
-	parseMapName(lines.get(NAMELINE));
-
-	// The second line should be the goal.
-	parseMapGoal(lines.get(GOALLINE));
-
 	// Read in the map data from the file
-	readMap(lines);
+	readTextFile(filename);
     }
 
     /**
      * @return The width of the map
      */
     public int getMapWidth() {
-	return this.map[0].length;
+	return this.width;
     }
 
     /**
      * @return The height of the map
      */
     public int getMapHeight() {
-	return this.map.length;
+	return this.height;
     }
 
     /**
@@ -83,7 +125,247 @@ public class Map {
      * @return the contents of the cell
      */
     public Tile getMapCell(Location location) {
-    	return this.map[location.getRow()][location.getCol()];
+    	return getMapCell(location.getCol(), location.getRow());
+    }
+
+    /**
+     * Returns the contents of the cell of the map at a column and row,
+     * without needing a Location.
+     * 
+     * @return the contents of the cell
+     */
+    public Tile getMapCell(int col, int row) {
+	final int cell = row * this.width + col;
+	return new MapTile(this, cell, TILE_TYPES[typeAt(cell)]);
+    }
+
+    /**
+     * Returns the character representing the cell at a column and row.
+     * 
+     * @return the character for the cell
+     */
+    public char getCellChar(int col, int row) {
+	return getCellChar(row * this.width + col);
+    }
+
+    /**
+     * Returns the character representing a cell.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the character for the cell
+     */
+    char getCellChar(int cell) {
+	final GameItem item = getItem(cell);
+
+	if (item != null) {
+	    return item.toChar();
+	}
+
+	return TILE_TYPES[typeAt(cell)].toChar();
+    }
+
+    /**
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the item on the cell, or null if there is none
+     */
+    GameItem getItem(int cell) {
+	// Paged maps have no item flags, so always check the item table
+	if (this.tiles != null && (this.tiles[cell] & ITEM_FLAG) == 0) {
+	    return null;
+	}
+
+	return this.items.get(cell);
+    }
+
+    /**
+     * Puts an item on a cell, replacing any item already there.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param item
+     *            the item to put on the cell, or null to clear it
+     */
+    void setItem(int cell, GameItem item) {
+	if (this.changedCells != null) {
+	    if (this.changedCount == this.changedCells.length) {
+		this.changedCells = Arrays.copyOf(this.changedCells,
+			this.changedCount * 2);
+	    }
+	    this.changedCells[this.changedCount++] = cell;
+	}
+
+	if (item == null) {
+	    this.items.remove(cell);
+	    if (this.tiles != null) {
+		this.tiles[cell] &= TYPE_MASK;
+	    }
+	} else {
+	    this.items.put(cell, item);
+	    if (this.tiles != null) {
+		this.tiles[cell] |= ITEM_FLAG;
+	    }
+	}
+    }
+
+    /**
+     * @return the number of items on the map
+     */
+    int getItemCount() {
+	return this.items.size();
+    }
+
+    /**
+     * Copies the item table out, for a snapshot of the map. The arrays must
+     * have room for getItemCount() items.
+     *
+     * @param cells
+     *            filled with the cell of each item
+     * @param kinds
+     *            filled with the character of each item
+     * @param values
+     *            filled with the value of each item, for gold, or 0
+     */
+    void copyItems(int[] cells, byte[] kinds, int[] values) {
+	int i = 0;
+
+	for (final java.util.Map.Entry<Integer, GameItem> item : this.items
+		.entrySet()) {
+	    cells[i] = item.getKey();
+	    copyItem(item.getValue(), i, kinds, values);
+	    i++;
+	}
+    }
+
+    /**
+     * Starts keeping track of the cells whose item changes, for snapshots.
+     */
+    void trackChanges() {
+	if (this.changedCells == null) {
+	    this.changedCells = new int[64];
+	}
+    }
+
+    /**
+     * @return the cells whose item has changed since this was last called,
+     *         or since trackChanges() was called
+     */
+    int[] takeChangedCells() {
+	final int[] cells = Arrays.copyOf(this.changedCells, this.changedCount);
+	this.changedCount = 0;
+	return cells;
+    }
+
+    /**
+     * Copies out the items of some cells, for a snapshot of the map.
+     *
+     * @param kinds
+     *            filled with the character of the item of each cell, or 0 if
+     *            the cell has no item
+     * @param values
+     *            filled with the value of the item of each cell, for gold, or
+     *            0
+     */
+    void copyItemsAt(int[] cells, byte[] kinds, int[] values) {
+	for (int i = 0; i < cells.length; i++) {
+	    final GameItem item = getItem(cells[i]);
+	    if (item != null) {
+		copyItem(item, i, kinds, values);
+	    }
+	}
+    }
+
+    private static void copyItem(GameItem item, int i, byte[] kinds,
+	    int[] values) {
+	kinds[i] = (byte) item.toChar();
+	values[i] = (item instanceof Gold) ? ((Gold) item).getValue() : 0;
+    }
+
+    /**
+     * Replaces every item on the map with those copied out by copyItems().
+     *
+     * @throws IllegalArgumentException
+     *             if an item is not valid or is outside the map
+     */
+    void restoreItems(int[] cells, byte[] kinds, int[] values) {
+	final Integer[] old = this.items.keySet().toArray(new Integer[0]);
+	for (final Integer cell : old) {
+	    setItem(cell, null);
+	}
+
+	for (int i = 0; i < cells.length; i++) {
+	    if (cells[i] < 0 || cells[i] >= (long) this.width * this.height) {
+		throw new IllegalArgumentException("item outside the map");
+	    }
+
+	    final GameItem item = GameItem.fromChar((char) (kinds[i] & 0xFF));
+	    if (item instanceof Gold) {
+		((Gold) item).setValue(values[i]);
+	    }
+	    setItem(cells[i], item);
+	}
+    }
+
+    /**
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the type of the cell
+     */
+    TileType getTileType(int cell) {
+	return TILE_TYPES[typeAt(cell)];
+    }
+
+    /**
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the ordinal of the tile type of the cell
+     */
+    private int typeAt(int cell) {
+	if (this.tiles == null) {
+	    return this.pagedTiles.typeAt(cell);
+	}
+
+	return this.tiles[cell] & TYPE_MASK;
+    }
+
+    /**
+     * @return true if the tiles of this map are paged in from the file as
+     *         they are needed, rather than all held in memory
+     */
+    public boolean isPaged() {
+	return (this.pagedTiles != null);
+    }
+
+    /**
+     * @return the number of tile lookups served from a chunk already in
+     *         memory, or 0 if the map is not paged
+     */
+    public long getChunkHits() {
+	return isPaged() ? this.pagedTiles.getHits() : 0;
+    }
+
+    /**
+     * @return the number of tile lookups that had to read a chunk from the
+     *         file, or 0 if the map is not paged
+     */
+    public long getChunkMisses() {
+	return isPaged() ? this.pagedTiles.getMisses() : 0;
+    }
+
+    /**
+     * @return the number of chunks dropped from memory to make room for
+     *         others, or 0 if the map is not paged
+     */
+    public long getChunkEvictions() {
+	return isPaged() ? this.pagedTiles.getEvictions() : 0;
+    }
+
+    /**
+     * @return the number of chunks in memory, or 0 if the map is not paged
+     */
+    public int getCachedChunks() {
+	return isPaged() ? this.pagedTiles.getCachedChunks() : 0;
     }
 
     /**
@@ -100,9 +382,17 @@ public class Map {
      * @return true if the location is valid, false otherwise
      */
     public boolean insideMap(Location location) {
-	if ((location.getCol() < 0) || (location.getCol() >= getMapWidth())
-		|| (location.getRow() < 0)
-		|| (location.getRow() >= getMapHeight())) {
+	return insideMap(location.getCol(), location.getRow());
+    }
+
+    /**
+     * Used to check if a column and row are inside the map
+     * 
+     * @return true if the position is valid, false otherwise
+     */
+    public boolean insideMap(int col, int row) {
+	if ((col < 0) || (col >= getMapWidth()) || (row < 0)
+		|| (row >= getMapHeight())) {
 	    return false;
 	}
 	return true;
@@ -121,85 +411,398 @@ public class Map {
     public int remainingGold() {
 	int goldCount = 0;
 
-	for (final Tile[] tileRow : this.map) {
-	    for (final Tile tile : tileRow) {
-		if (tile.hasItem()) {
-		    if (tile.getItem().getClass() == Gold.class) {
-			goldCount++;
-		    }
-		}
+	for (final GameItem item : this.items.values()) {
+	    if (item.getClass() == Gold.class) {
+		goldCount++;
 	    }
 	}
 	return goldCount;
     }
 
     /**
-     * Reads in a file and returns a List of Strings. This makes life slightly
-     * easier. NB, in Java 1.7 Files.ReadAllLines() will do the job.
+     * Writes this map out in the compiled binary format, which can be loaded
+     * by the constructor in place of the text format.
      * 
      * @param filename
-     *            The name of the file to read the map from
-     * @return A List of lines in the file
+     *            The name of the file to write to
+     * @throws IOException
+     */
+    public void writeBinary(String filename) throws IOException {
+	final DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+
+	try {
+	    final byte[] nameBytes = this.name.getBytes(NAME_CHARSET);
+
+	    out.writeInt(BINARY_MAGIC);
+	    out.writeShort(BINARY_VERSION);
+	    out.writeShort(nameBytes.length);
+	    out.write(nameBytes);
+	    out.writeInt(this.goal);
+	    out.writeInt(this.width);
+	    out.writeInt(this.height);
+
+	    // The item flags are not part of the file
+	    final byte[] row = new byte[this.width];
+	    for (int r = 0; r < this.height; r++) {
+		for (int c = 0; c < this.width; c++) {
+		    row[c] = (byte) typeAt(r * this.width + c);
+		}
+		out.write(row);
+	    }
+
+	    // Items are written in cell order, so checking their tiles when a
+	    // paged map is loaded reads through the file once
+	    final int[] cells = new int[this.items.size()];
+	    int i = 0;
+	    for (final Integer cell : this.items.keySet()) {
+		cells[i++] = cell;
+	    }
+	    Arrays.sort(cells);
+
+	    out.writeInt(cells.length);
+	    for (final int cell : cells) {
+		out.writeInt(cell);
+		out.writeByte(this.items.get(cell).toChar());
+	    }
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * Checks whether a file is a compiled binary map, by its first bytes.
+     * 
+     * @param filename
+     *            The name of the file to check
+     * @return true if the file is a binary map
+     * @throws FileNotFoundException
+     */
+    private static boolean isBinaryFile(String filename)
+	    throws FileNotFoundException {
+	final DataInputStream in = new DataInputStream(new FileInputStream(
+		filename));
+
+	try {
+	    return (in.readInt() == BINARY_MAGIC);
+	} catch (final IOException e) {
+	    // Too short to be a binary map
+	    return false;
+	} finally {
+	    try {
+		in.close();
+	    } catch (final IOException e) {
+	    }
+	}
+    }
+
+    /**
+     * Loads a compiled binary map. Small maps are mapped into memory and
+     * their tiles copied out in bulk; large ones are left in the file and
+     * paged in a chunk at a time as they are used.
+     * 
+     * @param filename
+     *            The name of the file to load the map from
+     * @throws ParseException
      * @throws FileNotFoundException
      */
-    private List<String> readFile(String filename) throws FileNotFoundException {
-	Scanner scanner = null;
+    private void readBinaryFile(String filename) throws ParseException,
+	    FileNotFoundException {
+	final RandomAccessFile file = new RandomAccessFile(filename, "r");
+	ByteBuffer buffer = null;
+	boolean keepOpen = false;
 
-	final List<String> lines = new ArrayList<String>();
 	try {
-	    // Use a scanner to read all the lines
-	    scanner = new Scanner(new FileReader(filename));
+	    final FileChannel channel = file.getChannel();
+	    final long fileSize = channel.size();
 
-	    // Store all the lines in the file
-	    while (scanner.hasNextLine()) {
-		lines.add(scanner.nextLine());
+	    // The header is small, and comes before everything else
+	    buffer = ByteBuffer.allocate((int) Math.min(fileSize,
+		    BINARY_HEADER_MAX));
+	    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
 	    }
+	    buffer.flip();
+	    readBinaryHeader(buffer);
+
+	    final long tilesStart = buffer.position();
+	    final long cells = (long) this.width * this.height;
+
+	    if (cells > PAGED_MAP_CELLS) {
+		// Only the items are read now
+		final long itemsStart = tilesStart + cells;
+		if (itemsStart > fileSize) {
+		    throw new ParseException("the map file is truncated",
+			    (int) Math.min(fileSize, Integer.MAX_VALUE));
+		}
+
+		// The tiles under the items are checked straight from the file,
+		// so loading does not fill the chunk cache
+		final ByteBuffer tiles = channel.map(
+			FileChannel.MapMode.READ_ONLY, tilesStart, cells);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, itemsStart,
+			fileSize - itemsStart);
+		readBinaryItems(buffer, tiles);
+
+		this.pagedTiles = new ChunkedTileStore(channel, tilesStart,
+			this.width, this.height, TILE_TYPES.length,
+			MAP_CHUNK_CACHE);
+		keepOpen = true;
+	    } else {
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+		buffer.position((int) tilesStart);
+		readBinaryTiles((MappedByteBuffer) buffer);
+		readBinaryItems(buffer, null);
+	    }
+	} catch (final BufferUnderflowException e) {
+	    throw new ParseException("the map file is truncated",
+		    buffer.position());
+	} catch (final IOException e) {
+	    throw new ParseException("the map file could not be read: "
+		    + e.getMessage(), 0);
 	} finally {
-	    if (scanner != null) {
-		scanner.close();
+	    // A paged map reads from the file for as long as it is in use
+	    if (!keepOpen) {
+		try {
+		    file.close();
+		} catch (final IOException e) {
+		}
 	    }
 	}
+    }
+
+    /**
+     * Reads the header of a compiled binary map: the name, goal and size.
+     * 
+     * @param buffer
+     *            A buffer holding at least the start of the file
+     * @throws ParseException
+     */
+    private void readBinaryHeader(ByteBuffer buffer) throws ParseException {
+	if (buffer.getInt() != BINARY_MAGIC) {
+	    throw new ParseException("not a binary map file", 0);
+	}
+
+	if (buffer.getShort() != BINARY_VERSION) {
+	    throw new ParseException("unsupported binary map version", 4);
+	}
+
+	final byte[] nameBytes = new byte[buffer.getShort() & 0xFFFF];
+	buffer.get(nameBytes);
+	this.name = new String(nameBytes, NAME_CHARSET);
 
-	return lines;
+	this.goal = buffer.getInt();
+	this.width = buffer.getInt();
+	this.height = buffer.getInt();
+
+	if (this.width <= 0 || this.height <= 0
+		|| (long) this.width * this.height > Integer.MAX_VALUE) {
+	    throw new ParseException("invalid map size", buffer.position());
+	}
     }
 
     /**
-     * Reads in the map data from the file, storing the tiles to this.map
+     * Copies the tiles of a compiled binary map into memory.
      * 
-     * @param lines
-     *            All the lines of text from the map file
+     * @param buffer
+     *            The buffer holding the whole file, positioned at the tiles
      * @throws ParseException
-     * @throws IllegalStateException
      */
-    private void readMap(List<String> lines) throws ParseException,
-	    IllegalStateException {
-	// Read the rest of the map
-	final int mapWidth = lines.get(MAPBEGINLINE).length();
-	final int mapHeight = lines.size() - MAPBEGINLINE;
+    private void readBinaryTiles(MappedByteBuffer buffer) throws ParseException {
+	final int tilesStart = buffer.position();
+	this.tiles = new byte[this.width * this.height];
+	buffer.get(this.tiles);
+
+	for (int cell = 0; cell < this.tiles.length; cell++) {
+	    if ((this.tiles[cell] & 0xFF) >= TILE_TYPES.length) {
+		throw new ParseException("invalid tile type", tilesStart + cell);
+	    }
+	}
+    }
 
-	this.map = new Tile[mapHeight][mapWidth];
+    /**
+     * Reads the item table of a compiled binary map. As in a text map, items
+     * may only be on floor tiles, one to a cell.
+     * 
+     * @param buffer
+     *            The buffer positioned at the item count
+     * @param pagedTiles
+     *            The tiles of a paged map, one byte per cell, or null if the
+     *            tiles have been read into memory
+     * @throws ParseException
+     */
+    private void readBinaryItems(ByteBuffer buffer, ByteBuffer pagedTiles)
+	    throws ParseException {
+	final int cells = this.width * this.height;
+
+	final int itemCount = buffer.getInt();
+	for (int i = 0; i < itemCount; i++) {
+	    final int offset = buffer.position();
+	    final int cell = buffer.getInt();
+	    final char character = (char) (buffer.get() & 0xFF);
+
+	    if (cell < 0 || cell >= cells) {
+		throw new ParseException("item outside the map", offset);
+	    }
+	    final int type = (pagedTiles == null) ? typeAt(cell) : (pagedTiles
+		    .get(cell) & 0xFF);
+	    if (type != TileType.FLOOR.ordinal()) {
+		throw new ParseException("item on a wall or exit", offset);
+	    }
+	    if (getItem(cell) != null) {
+		throw new ParseException("more than one item on a cell", offset);
+	    }
+
+	    try {
+		setItem(cell, GameItem.fromChar(character));
+	    } catch (final IllegalArgumentException e) {
+		throw new ParseException("invalid item", offset);
+	    }
+	}
+    }
+
+    /**
+     * Reads a text map in a single pass, checking each row as it goes and
+     * storing its tiles straight away, so that only one line of the file is
+     * held in memory at a time.
+     * 
+     * @param filename
+     *            The name of the file to read the map from
+     * @throws ParseException
+     * @throws FileNotFoundException
+     */
+    private void readTextFile(String filename) throws ParseException,
+	    FileNotFoundException {
+	final File file = new File(filename);
+	final BufferedReader reader = new BufferedReader(new FileReader(file),
+		1 << 16);
 
-	for (int row = 0; row < mapHeight; row++) {
-	    final int lineNum = row + MAPBEGINLINE;
-	    final String line = lines.get(lineNum);
+	try {
+	    readText(reader, file.length());
+	} catch (final IOException e) {
+	    throw new ParseException("the map file could not be read: "
+		    + e.getMessage(), 0);
+	} finally {
+	    try {
+		reader.close();
+	    } catch (final IOException e) {
+	    }
+	}
+    }
 
-	    if (line.length() != mapWidth) {
+    /**
+     * Reads a text map: the name line, the goal line and then the rows of
+     * tiles.
+     * 
+     * @param reader
+     *            The reader to read the map from
+     * @param sizeHint
+     *            The size of the file in bytes, used to guess how many rows
+     *            there are
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void readText(BufferedReader reader, long sizeHint)
+	    throws ParseException, IOException {
+	// Good programmers always check this...
+	final String nameLine = reader.readLine();
+	final String goalLine = (nameLine == null) ? null : reader.readLine();
+	String line = (goalLine == null) ? null : reader.readLine();
+
+	if (line == null) {
+	    final int lineCount = (nameLine == null) ? 0
+		    : ((goalLine == null) ? 1 : 2);
+	    throw new ParseException(
+		    "a map file must contain at least three lines", lineCount);
+	}
+
+	// The first line should always be the name of the map.
+	parseMapName(nameLine);
+
+	// The second line should be the goal.
+	parseMapGoal(goalLine);
+
+	// The first row of tiles sets the width of the map
+	this.width = line.length();
+	this.height = 0;
+
+	final long headerSize = nameLine.length() + goalLine.length() + 2;
+	final long rowGuess = Math.max(1, (sizeHint - headerSize)
+		/ (this.width + 1));
+	this.tiles = new byte[(int) Math.min(rowGuess * this.width,
+		Integer.MAX_VALUE - 8)];
+
+	while (line != null) {
+	    final int lineNum = this.height + MAPBEGINLINE;
+
+	    if (line.length() != this.width) {
 		throw new ParseException("all lines must be the same length",
 			lineNum);
 	    }
 
-	    for (int col = 0; col < line.length(); col++) {
+	    final int rowStart = this.height * this.width;
+	    if (rowStart + this.width > this.tiles.length) {
+		growTiles(rowStart + this.width);
+	    }
+
+	    for (int col = 0; col < this.width; col++) {
 		// Just use the character representation in the input file.
 
 		try {
-		    this.map[row][col] = Tile.fromChar(line.charAt(col));
+		    setCell(rowStart + col, line.charAt(col));
 		} catch (final IllegalArgumentException e) {
 		    throw new ParseException("Invalid character (col:" + col
 			    + ")", lineNum);
 		}
 	    }
+
+	    this.height++;
+	    line = reader.readLine();
+	}
+
+	// Drop any space left over from guessing the number of rows
+	if (this.tiles.length != this.height * this.width) {
+	    this.tiles = Arrays.copyOf(this.tiles, this.height * this.width);
+	}
+    }
+
+    /**
+     * Makes room for more rows than were guessed.
+     * 
+     * @param needed
+     *            The number of cells needed
+     */
+    private void growTiles(int needed) {
+	final long grown = Math.max(needed, (long) this.tiles.length
+		+ (this.tiles.length >> 1));
+
+	if (needed < 0 || grown > Integer.MAX_VALUE - 8) {
+	    throw new IllegalStateException("the map is too large to load");
+	}
+
+	this.tiles = Arrays.copyOf(this.tiles, (int) grown);
+    }
+
+    /**
+     * Stores the tile represented by a character of the map file.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param character
+     *            the character from the map file
+     * @throws IllegalArgumentException
+     *             if the character is not a tile or item
+     */
+    private void setCell(int cell, char character) {
+	for (final TileType type : TILE_TYPES) {
+	    if (character == type.toChar()) {
+		this.tiles[cell] = (byte) type.ordinal();
+		return;
+	    }
 	}
 
+	// If we get here, it must be a floor tile with an item
+	this.tiles[cell] = (byte) TileType.FLOOR.ordinal();
+	setItem(cell, GameItem.fromChar(character));
     }
 
     /**
@@ -0,0 +1,300 @@
+package dodServer.game;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import dodServer.game.Tile.TileType;
+import dodServer.game.items.Gold;
+
+/**
+ * Works out, when a map is loaded, which parts of it a player could actually
+ * win from. The walkable cells are split into connected regions, and a region
+ * is winnable if it has an exit and at least the goal amount of gold. Every
+ * walkable cell of a winnable region is a valid place to spawn a player.
+ *
+ * Large maps are labelled in strips of rows in parallel, and the regions that
+ * cross from one strip to the next are joined up afterwards.
+ */
+final class MapAnalysis {
+    // Maps with fewer cells than this are labelled on the calling thread
+    private static final int PARALLEL_CELLS = 1 << 20;
+
+    // The fewest rows given to one parallel task
+    private static final int MIN_STRIP_ROWS = 64;
+
+    // The label of a walkable cell that has not been reached yet
+    private static final int UNVISITED = -2;
+
+    private final int regionCount;
+    private final int[] spawnCells;
+
+    /**
+     * @param regionCount
+     *            the number of walkable regions
+     * @param spawnCells
+     *            the cells of the winnable regions, in order
+     */
+    private MapAnalysis(int regionCount, int[] spawnCells) {
+	this.regionCount = regionCount;
+	this.spawnCells = spawnCells;
+    }
+
+    /**
+     * Analyses a map.
+     *
+     * @param map
+     *            the map to analyse
+     * @return the results
+     */
+    static MapAnalysis analyse(Map map) {
+	final int width = map.getMapWidth();
+	final int height = map.getMapHeight();
+
+	// Each walkable cell is labelled with a cell of its region, and the
+	// label of that cell leads on to the root of the region; -1 is a wall
+	final int[] labels = new int[width * height];
+
+	int stripRows = height;
+	if (labels.length >= PARALLEL_CELLS) {
+	    final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+	    stripRows = Math.max(MIN_STRIP_ROWS, height / (parallelism * 4));
+	}
+
+	final int strips = (height + stripRows - 1) / stripRows;
+	if (strips == 1) {
+	    labelRows(map, labels, 0, height);
+	} else {
+	    ForkJoinPool.commonPool().invoke(
+		    new StripLabeller(map, labels, stripRows, 0, strips));
+
+	    // Join up regions that cross the edges between strips
+	    for (int strip = 1; strip < strips; strip++) {
+		final int above = (strip * stripRows - 1) * width;
+		for (int col = 0; col < width; col++) {
+		    if (labels[above + col] != -1
+			    && labels[above + width + col] != -1) {
+			union(labels, above + col, above + width + col);
+		    }
+		}
+	    }
+	}
+
+	// Find the gold and exits of each region
+	final HashMap<Integer, int[]> regions = new HashMap<Integer, int[]>();
+	int regionCount = 0;
+
+	for (int cell = 0; cell < labels.length; cell++) {
+	    if (labels[cell] == -1) {
+		continue;
+	    }
+
+	    final int root = find(labels, cell);
+	    labels[cell] = root;
+	    if (root == cell) {
+		regionCount++;
+	    }
+
+	    final boolean exit = (map.getTileType(cell) == TileType.EXIT);
+	    final boolean gold = (map.getItem(cell) != null && map.getItem(cell)
+		    .getClass() == Gold.class);
+
+	    if (exit || gold) {
+		int[] region = regions.get(root);
+		if (region == null) {
+		    // The gold in the region, and 1 if it has an exit
+		    region = new int[2];
+		    regions.put(root, region);
+		}
+
+		if (gold) {
+		    region[0]++;
+		}
+		if (exit) {
+		    region[1] = 1;
+		}
+	    }
+	}
+
+	// Collect the cells of the winnable regions
+	final int goal = map.getGoal();
+	int spawnCount = 0;
+
+	for (int cell = 0; cell < labels.length; cell++) {
+	    if (labels[cell] != -1 && isWinnable(regions.get(labels[cell]), goal)) {
+		spawnCount++;
+	    }
+	}
+
+	final int[] spawnCells = new int[spawnCount];
+	int next = 0;
+
+	for (int cell = 0; cell < labels.length; cell++) {
+	    if (labels[cell] != -1 && isWinnable(regions.get(labels[cell]), goal)) {
+		spawnCells[next++] = cell;
+	    }
+	}
+
+	return new MapAnalysis(regionCount, spawnCells);
+    }
+
+    /**
+     * @return the number of separate walkable regions of the map
+     */
+    int getRegionCount() {
+	return this.regionCount;
+    }
+
+    /**
+     * @return the number of cells a player could be spawned on
+     */
+    int getSpawnCellCount() {
+	return this.spawnCells.length;
+    }
+
+    /**
+     * @param index
+     *            which spawn cell to get, from 0 to getSpawnCellCount() - 1
+     * @return the index of the cell, row * width + col
+     */
+    int getSpawnCell(int index) {
+	return this.spawnCells[index];
+    }
+
+    /**
+     * @param region
+     *            the gold and exit of a region, or null if it has neither
+     * @param goal
+     *            the gold needed to win
+     * @return true if the game can be won from the region
+     */
+    private static boolean isWinnable(int[] region, int goal) {
+	return (region != null) && (region[1] == 1) && (region[0] >= goal);
+    }
+
+    /**
+     * Labels the walkable regions within some rows of the map, with a flood
+     * fill that does not leave those rows.
+     *
+     * @param map
+     *            the map being analysed
+     * @param labels
+     *            the labels of every cell
+     * @param firstRow
+     *            the first row to label
+     * @param endRow
+     *            the row after the last one to label
+     */
+    private static void labelRows(Map map, int[] labels, int firstRow,
+	    int endRow) {
+	final int width = map.getMapWidth();
+	final int firstCell = firstRow * width;
+	final int endCell = endRow * width;
+
+	for (int cell = firstCell; cell < endCell; cell++) {
+	    labels[cell] = map.getTileType(cell).walkable() ? UNVISITED : -1;
+	}
+
+	int[] stack = new int[64];
+
+	for (int seed = firstCell; seed < endCell; seed++) {
+	    if (labels[seed] != UNVISITED) {
+		continue;
+	    }
+
+	    labels[seed] = seed;
+	    stack[0] = seed;
+	    int size = 1;
+
+	    while (size > 0) {
+		final int cell = stack[--size];
+		final int col = cell % width;
+
+		if (stack.length < size + 4) {
+		    stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+
+		if (col > 0 && labels[cell - 1] == UNVISITED) {
+		    labels[cell - 1] = seed;
+		    stack[size++] = cell - 1;
+		}
+		if (col < width - 1 && labels[cell + 1] == UNVISITED) {
+		    labels[cell + 1] = seed;
+		    stack[size++] = cell + 1;
+		}
+		if (cell - width >= firstCell && labels[cell - width] == UNVISITED) {
+		    labels[cell - width] = seed;
+		    stack[size++] = cell - width;
+		}
+		if (cell + width < endCell && labels[cell + width] == UNVISITED) {
+		    labels[cell + width] = seed;
+		    stack[size++] = cell + width;
+		}
+	    }
+	}
+    }
+
+    /**
+     * @return the root of the region a cell is in
+     */
+    private static int find(int[] labels, int cell) {
+	while (labels[cell] != cell) {
+	    labels[cell] = labels[labels[cell]];
+	    cell = labels[cell];
+	}
+	return cell;
+    }
+
+    /**
+     * Joins the regions of two cells, keeping the lower root.
+     */
+    private static void union(int[] labels, int a, int b) {
+	final int rootA = find(labels, a);
+	final int rootB = find(labels, b);
+
+	if (rootA < rootB) {
+	    labels[rootB] = rootA;
+	} else if (rootB < rootA) {
+	    labels[rootA] = rootB;
+	}
+    }
+
+    /**
+     * Labels a range of strips, splitting it between threads.
+     */
+    private static class StripLabeller extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final Map map;
+	private final int[] labels;
+	private final int stripRows;
+	private final int firstStrip;
+	private final int endStrip;
+
+	StripLabeller(Map map, int[] labels, int stripRows, int firstStrip,
+		int endStrip) {
+	    this.map = map;
+	    this.labels = labels;
+	    this.stripRows = stripRows;
+	    this.firstStrip = firstStrip;
+	    this.endStrip = endStrip;
+	}
+
+	@Override
+	protected void compute() {
+	    if (this.endStrip - this.firstStrip == 1) {
+		labelRows(this.map, this.labels, this.firstStrip
+			* this.stripRows, Math.min(this.map.getMapHeight(),
+			this.endStrip * this.stripRows));
+		return;
+	    }
+
+	    final int middle = (this.firstStrip + this.endStrip) >>> 1;
+	    invokeAll(new StripLabeller(this.map, this.labels,
+		    this.stripRows, this.firstStrip, middle),
+		    new StripLabeller(this.map, this.labels, this.stripRows,
+			    middle, this.endStrip));
+	}
+    }
+}
@@ -0,0 +1,45 @@
+package dodServer.game;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Converts a text map (a "name" line, a "win" line and then the tiles) into
+ * the compiled binary map format, which GameLogic can load far faster.
+ * 
+ * Usage: java dodServer.game.MapCompiler textMap binaryMap
+ */
+public class MapCompiler {
+
+    /**
+     * @param args
+     *            the text map to read and the binary map to write
+     */
+    public static void main(String[] args) {
+	if (args.length != 2) {
+	    System.err.println("Usage: MapCompiler <text map> <binary map>");
+	    System.exit(1);
+	}
+
+	try {
+	    final Map map = new Map(args[0]);
+	    map.writeBinary(args[1]);
+
+	    System.out.println("Compiled " + map.getName() + " ("
+		    + map.getMapWidth() + "x" + map.getMapHeight() + ") to "
+		    + args[1]);
+	} catch (final ParseException e) {
+	    System.err.println("Syntax error on line " + e.getErrorOffset()
+		    + ": " + e.getMessage());
+	    System.exit(1);
+	} catch (final FileNotFoundException e) {
+	    System.err.println("Map file not found.");
+	    System.exit(1);
+	} catch (final IOException e) {
+	    System.err.println("Failed to write the binary map: "
+		    + e.getMessage());
+	    System.exit(1);
+	}
+    }
+}
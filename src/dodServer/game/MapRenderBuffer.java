@@ -0,0 +1,153 @@
+package dodServer.game;
+
+import java.util.Arrays;
+
+/**
+ * A maintained char representation of the whole map, as shown by the server
+ * interfaces, together with a log of the cells that have changed. Each change
+ * bumps the version, so consumers can fetch just the cells that have changed
+ * since the version they last saw.
+ */
+class MapRenderBuffer {
+    // Smallest and largest number of changes remembered
+    private static final int MIN_LOG_SIZE = 1024;
+    private static final int MAX_LOG_SIZE = 1 << 20;
+
+    private final int width;
+    private final int height;
+    private final char[] cells;
+
+    // A ring of changed cell indices; the change taking the map to version v
+    // is at changeLog[(v - 1) % length]
+    private final int[] changeLog;
+    private long version = 0;
+
+    /**
+     * @param width
+     *            the width of the map
+     * @param height
+     *            the height of the map
+     */
+    MapRenderBuffer(int width, int height) {
+	this.width = width;
+	this.height = height;
+	this.cells = new char[width * height];
+
+	final int logSize = Math.min(MAX_LOG_SIZE,
+		Math.max(MIN_LOG_SIZE, this.cells.length / 4));
+	this.changeLog = new int[logSize];
+    }
+
+    /**
+     * Sets the initial contents of a cell, without logging a change.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param content
+     *            the character shown in the cell
+     */
+    synchronized void init(int cell, char content) {
+	this.cells[cell] = content;
+    }
+
+    /**
+     * Sets the contents of a cell, logging a change if it is different.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param content
+     *            the character now shown in the cell
+     */
+    synchronized void set(int cell, char content) {
+	if (this.cells[cell] != content) {
+	    this.cells[cell] = content;
+	    this.changeLog[(int) (this.version % this.changeLog.length)] = cell;
+	    this.version++;
+	}
+    }
+
+    /**
+     * @return the current version of the buffer
+     */
+    synchronized long getVersion() {
+	return this.version;
+    }
+
+    /**
+     * @return a copy of the whole buffer, as [row][col]
+     */
+    synchronized char[][] toArray() {
+	final char[][] charMap = new char[this.height][this.width];
+
+	for (int row = 0; row < this.height; row++) {
+	    System.arraycopy(this.cells, row * this.width, charMap[row], 0,
+		    this.width);
+	}
+
+	return charMap;
+    }
+
+    /**
+     * Copies part of the buffer, which must lie within the map.
+     * 
+     * @param col
+     *            the column of the left of the window
+     * @param row
+     *            the row of the top of the window
+     * @param cols
+     *            the width of the window
+     * @param rows
+     *            the height of the window
+     * @return the window, as [row][col]
+     */
+    synchronized char[][] window(int col, int row, int cols, int rows) {
+	final char[][] window = new char[rows][cols];
+
+	for (int r = 0; r < rows; r++) {
+	    System.arraycopy(this.cells, (row + r) * this.width + col,
+		    window[r], 0, cols);
+	}
+
+	return window;
+    }
+
+    /**
+     * Gets the cells that have changed since a version. If that version is no
+     * longer in the log, the whole map is returned instead.
+     * 
+     * @param sinceVersion
+     *            the version the consumer has, or -1 for none
+     * @return the changes needed to bring the consumer up to date
+     */
+    synchronized MapUpdate changesSince(long sinceVersion) {
+	if (sinceVersion < 0 || sinceVersion > this.version
+		|| this.version - sinceVersion > this.changeLog.length) {
+	    return new MapUpdate(this.version, this.width, this.height, null,
+		    this.cells.clone());
+	}
+
+	// Collect each changed cell once, in order of index
+	final int changes = (int) (this.version - sinceVersion);
+	final int[] changed = new int[changes];
+	for (int i = 0; i < changes; i++) {
+	    changed[i] = this.changeLog[(int) ((sinceVersion + i) % this.changeLog.length)];
+	}
+	Arrays.sort(changed);
+
+	int unique = 0;
+	for (int i = 0; i < changes; i++) {
+	    if (unique == 0 || changed[unique - 1] != changed[i]) {
+		changed[unique++] = changed[i];
+	    }
+	}
+
+	final int[] cellIndices = Arrays.copyOf(changed, unique);
+	final char[] contents = new char[unique];
+	for (int i = 0; i < unique; i++) {
+	    contents[i] = this.cells[cellIndices[i]];
+	}
+
+	return new MapUpdate(this.version, this.width, this.height,
+		cellIndices, contents);
+    }
+}
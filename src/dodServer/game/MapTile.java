@@ -0,0 +1,57 @@
+package dodServer.game;
+
+import dodServer.game.items.GameItem;
+
+/**
+ * A lightweight view of one cell of a Map. The map keeps its tiles in
+ * compact arrays rather than as Tile objects, so this presents a cell through
+ * the usual Tile interface, reading and writing straight through to the map.
+ */
+class MapTile extends Tile {
+    private final Map map;
+    private final int cell;
+
+    /**
+     * @param map
+     *            the map the cell belongs to
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param type
+     *            the type of the cell
+     */
+    MapTile(Map map, int cell, TileType type) {
+	super(type);
+	this.map = map;
+	this.cell = cell;
+    }
+
+    @Override
+    public char toChar() {
+	return this.map.getCellChar(this.cell);
+    }
+
+    @Override
+    public boolean hasItem() {
+	return (this.map.getItem(this.cell) != null);
+    }
+
+    @Override
+    public GameItem getItem() {
+	return this.map.getItem(this.cell);
+    }
+
+    @Override
+    public void setItem(GameItem newItem) {
+	this.map.setItem(this.cell, newItem);
+    }
+
+    @Override
+    public void removeItem() {
+	if (this.map.getItem(this.cell) == null) {
+	    // There is no item to pick up
+	    throw new IllegalStateException("there is no item to pick up");
+	}
+
+	this.map.setItem(this.cell, null);
+    }
+}
@@ -0,0 +1,94 @@
+package dodServer.game;
+
+/**
+ * The cells of the server's view of the map which have changed since a
+ * given version. If the consumer has fallen too far behind, the update holds
+ * the whole map instead.
+ */
+public final class MapUpdate {
+    private final long version;
+    private final int width;
+    private final int height;
+
+    // The changed cells, as indices of row * width + col, or null if full
+    private final int[] cells;
+
+    // The new contents of each changed cell, or of every cell if full
+    private final char[] contents;
+
+    MapUpdate(long version, int width, int height, int[] cells,
+	    char[] contents) {
+	this.version = version;
+	this.width = width;
+	this.height = height;
+	this.cells = cells;
+	this.contents = contents;
+    }
+
+    /**
+     * @return the version of the map this update brings the consumer up to
+     */
+    public long getVersion() {
+	return this.version;
+    }
+
+    /**
+     * @return true if this update holds the whole map rather than changes
+     */
+    public boolean isFull() {
+	return (this.cells == null);
+    }
+
+    /**
+     * @return the number of cells in this update
+     */
+    public int getCellCount() {
+	return this.contents.length;
+    }
+
+    /**
+     * @return the column of the i'th cell in this update
+     */
+    public int getCol(int i) {
+	return cellIndex(i) % this.width;
+    }
+
+    /**
+     * @return the row of the i'th cell in this update
+     */
+    public int getRow(int i) {
+	return cellIndex(i) / this.width;
+    }
+
+    /**
+     * @return the character now in the i'th cell in this update
+     */
+    public char getChar(int i) {
+	return this.contents[i];
+    }
+
+    /**
+     * Applies this update to a char representation of the map, creating a new
+     * one if the update is full or the old one is the wrong size.
+     * 
+     * @param charMap
+     *            the consumer's copy of the map, may be null
+     * @return the updated copy of the map
+     */
+    public char[][] applyTo(char[][] charMap) {
+	if (isFull() || charMap == null || charMap.length != this.height
+		|| charMap[0].length != this.width) {
+	    charMap = new char[this.height][this.width];
+	}
+
+	for (int i = 0; i < this.contents.length; i++) {
+	    charMap[getRow(i)][getCol(i)] = this.contents[i];
+	}
+
+	return charMap;
+    }
+
+    private int cellIndex(int i) {
+	return (this.cells == null) ? i : this.cells[i];
+    }
+}
@@ -0,0 +1,96 @@
+package dodServer.game;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Which player is standing on each cell of the map. Normal maps use a grid
+ * with an entry for every cell, but paged maps can be far too large for that,
+ * so they only record the cells that have someone on them.
+ *
+ * In a grid, an empty cell can also carry a mark: a number kept for whoever
+ * tracks the empty cells, such as the SpawnAllocator, so it needs no grid of
+ * its own. Marks are stored as -2 - mark, so a marked cell still reads as
+ * empty.
+ */
+class OccupancyIndex {
+    // The ID of the player on each cell, -1, or a mark; null if the index is
+    // sparse
+    private final int[] grid;
+
+    // The ID of the player on each occupied cell, if the index is sparse
+    private final HashMap<Integer, Integer> occupied;
+
+    /**
+     * @param cells
+     *            the number of cells in the map
+     * @param sparse
+     *            true to only record occupied cells
+     */
+    OccupancyIndex(int cells, boolean sparse) {
+	if (sparse) {
+	    this.grid = null;
+	    this.occupied = new HashMap<Integer, Integer>();
+	} else {
+	    this.grid = new int[cells];
+	    Arrays.fill(this.grid, -1);
+	    this.occupied = null;
+	}
+    }
+
+    /**
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the ID of the player on the cell, or -1 if it is empty
+     */
+    int get(int cell) {
+	if (this.grid != null) {
+	    final int playerID = this.grid[cell];
+	    return (playerID < 0) ? -1 : playerID;
+	}
+
+	final Integer playerID = this.occupied.get(cell);
+	return (playerID == null) ? -1 : playerID;
+    }
+
+    /**
+     * Puts a player on a cell, or empties it. Either way, any mark the cell
+     * had is lost.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param playerID
+     *            the ID of the player now on the cell, or -1 to empty it
+     */
+    void set(int cell, int playerID) {
+	if (this.grid != null) {
+	    this.grid[cell] = playerID;
+	} else if (playerID == -1) {
+	    this.occupied.remove(cell);
+	} else {
+	    this.occupied.put(cell, playerID);
+	}
+    }
+
+    /**
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @return the mark on the cell, or -1 if it has none or someone is on it
+     */
+    int getMark(int cell) {
+	final int value = this.grid[cell];
+	return (value < -1) ? -2 - value : -1;
+    }
+
+    /**
+     * Marks an empty cell. Only grids have marks.
+     * 
+     * @param cell
+     *            the index of the cell, row * width + col
+     * @param mark
+     *            the mark, 0 or more
+     */
+    void setMark(int cell, int mark) {
+	this.grid[cell] = -2 - mark;
+    }
+}
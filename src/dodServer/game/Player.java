@@ -23,8 +23,13 @@ public class Player implements GameItemConsumer {
     //Has the player won?
     boolean playerHasWon = false;
 
-    // The player may be "listened to" to interpret updates
-    private final PlayerListener listener;
+    // The player may be "listened to" to interpret updates. Volatile, as
+    // shouts are sent to it without holding the game
+    private volatile PlayerListener listener;
+
+    // Has the player left the game? Their ID is kept, so no one else's changes.
+    // Volatile, as players are counted from other threads
+    private volatile boolean left = false;
 
     // Location on the map
     private Location location;
@@ -39,6 +44,9 @@ public class Player implements GameItemConsumer {
     // Items the player has
     List<GameItem> items;
 
+    // How far the player can see, worked out again whenever an item is kept
+    private int lookDistance = defaultLookDistance;
+
     // Constants
     // How many AP does a player have by default
     private static final int defaultAP = 6;
@@ -194,14 +202,7 @@ public class Player implements GameItemConsumer {
      * @return the distance visible to the player
      */
     public int lookDistance() {
-	int lookDistance = defaultLookDistance;
-
-	// Some items, e.g. the lantern, may increase the look distance
-	for (final GameItem item : this.items) {
-	    lookDistance += item.lookDistanceIncrease();
-	}
-
-	return lookDistance;
+	return this.lookDistance;
     }
 
     /**
@@ -215,8 +216,7 @@ public class Player implements GameItemConsumer {
     public boolean canSeeTile(int rowOffset, int colOffset) {
 	// This is based on the Manhattan distance
 
-	final boolean canSeeTile = (Math.abs(rowOffset) + Math.abs(colOffset) <= lookDistance() + 1);
-	return canSeeTile;
+	return FieldOfView.canSee(this.lookDistance, rowOffset, colOffset);
     }
 
     /**
@@ -255,9 +255,30 @@ public class Player implements GameItemConsumer {
 	// See if the item is retained by the player
 	if (item.isRetainable()) {
 	    this.items.add(item);
+	    updateLookDistance();
 	}
     }
 
+    /**
+     * Puts the player back as they were when a snapshot was taken, without
+     * telling the listener.
+     *
+     * @param setItems
+     *            the items the player was holding, which are all retained
+     */
+    void restore(boolean setDefaultName, boolean won, int setHp, int setAp,
+	    int setGold, List<GameItem> setItems) {
+	this.defaultName = setDefaultName;
+	this.playerHasWon = won;
+	this.hp = setHp;
+	this.ap = setAp;
+	this.gold = setGold;
+
+	this.items.clear();
+	this.items.addAll(setItems);
+	updateLookDistance();
+    }
+
     /**
      * @param message
      *            message to send to the listener
@@ -274,6 +295,14 @@ public class Player implements GameItemConsumer {
     	this.listener.sendName(name);
     }
 
+    /**
+     * @param shout
+     *            shout to send to the listener
+     */
+    public void sendShout(Shout shout) {
+	this.listener.sendShout(shout);
+    }
+
     /**
      * Handle the start of a player's turn
      */
@@ -310,6 +339,44 @@ public class Player implements GameItemConsumer {
     	this.listener.lose();
     }
 
+    /**
+     * Marks the player as having left the game. Nothing more is sent to
+     * their client, and their ID may be given to a new player.
+     */
+    void leave() {
+	this.listener = new DetachedPlayer();
+	this.left = true;
+    }
+
+    /**
+     * Gives the player a client again, e.g. one reconnecting after the game
+     * was rebuilt from its journal.
+     */
+    void attach(PlayerListener newListener) {
+	this.listener = newListener;
+    }
+
+    /**
+     * Stops sending anything to the player's client, which is going.
+     */
+    void detach() {
+	this.listener = new DetachedPlayer();
+    }
+
+    /**
+     * @return true if the player is still in the game, but has no client
+     */
+    boolean isDetached() {
+	return !this.left && this.listener instanceof DetachedPlayer;
+    }
+
+    /**
+     * @return true if the player has left the game
+     */
+    public boolean hasLeft() {
+	return this.left;
+    }
+
     /**
      * Kills the player, effectively setting their hp to zero.
      */
@@ -324,6 +391,21 @@ public class Player implements GameItemConsumer {
     	this.listener.lookChange();
     }
     
+    /**
+     * @return true if the player should be sent their new view rather than told it has changed.
+     */
+    boolean wantsViewPush(){
+    	return this.listener.wantsViewPush();
+    }
+    
+    /**
+     * Sends the player their new view.
+     * @param look The view, as it would be returned by a LOOK.
+     */
+    void viewChange(LookView look){
+    	this.listener.viewChange(look);
+    }
+    
     /**
      * Tells the player that their attack failed.
      */
@@ -331,6 +413,20 @@ public class Player implements GameItemConsumer {
     	
     }
 
+    /**
+     * Works out the look distance again from the items the player holds.
+     */
+    private void updateLookDistance() {
+	int distance = defaultLookDistance;
+
+	// Some items, e.g. the lantern, may increase the look distance
+	for (final GameItem item : this.items) {
+	    distance += item.lookDistanceIncrease();
+	}
+
+	this.lookDistance = distance;
+    }
+
     /**
      * Reset the player's AP to the initial value.
      */
@@ -41,6 +41,22 @@ public interface PlayerListener {
      */
     public void lookChange();
 
+    /**
+     * @return true if the listener would rather be sent the player's new view
+     *         with viewChange() than be told of changes with lookChange()
+     */
+    public boolean wantsViewPush();
+
+    /**
+     * Gives the listener what the player can now see, in place of
+     * lookChange(). Sent at most once per change to the game, however many
+     * things the player saw change.
+     * 
+     * @param look
+     *            the view, as it would be returned by a LOOK
+     */
+    public void viewChange(LookView look);
+
     /**
      * Informs the listener that the player has had a change in HP
      * 
@@ -63,5 +79,14 @@ public interface PlayerListener {
      * @param name
      */
 	public void sendName(String name);
+
+    /**
+     * Sends the player a shout, which is both the name of whoever shouted and
+     * their message.
+     * 
+     * @param shout
+     *            the shout, already encoded for sending
+     */
+    public void sendShout(Shout shout);
  
 }
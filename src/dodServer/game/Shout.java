@@ -0,0 +1,75 @@
+package dodServer.game;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import dodUtil.BinaryProtocol;
+
+/**
+ * A message shouted to every player. It is encoded once, both as the text
+ * lines "FROM name" and "MESSAGE text" and as a single binary frame, and the
+ * same bytes are then shared by every connection it is sent to.
+ */
+public final class Shout {
+    private static final String LINE_SEPARATOR = System
+	    .getProperty("line.separator");
+
+    private final String from;
+    private final String message;
+
+    private final byte[] text;
+    private final byte[] frame;
+
+    /**
+     * @param from
+     *            the name of whoever is shouting
+     * @param message
+     *            what they are shouting
+     */
+    public Shout(String from, String message) {
+	this.from = from;
+	this.message = message;
+
+	// Encoded as a PrintWriter on the platform charset would
+	this.text = ("FROM " + from + LINE_SEPARATOR + "MESSAGE " + message + LINE_SEPARATOR)
+		.getBytes();
+	this.frame = BinaryProtocol.encodeShout(from, message);
+    }
+
+    /**
+     * @return the name of whoever is shouting
+     */
+    public String getFrom() {
+	return this.from;
+    }
+
+    /**
+     * @return what they are shouting
+     */
+    public String getMessage() {
+	return this.message;
+    }
+
+    /**
+     * Writes the shout to a stream.
+     *
+     * @param out
+     *            the stream to write to
+     * @param binary
+     *            true to write the binary frame rather than text lines
+     */
+    public void writeTo(OutputStream out, boolean binary) throws IOException {
+	out.write(binary ? this.frame : this.text);
+    }
+
+    /**
+     * @param binary
+     *            true for the binary frame rather than text lines
+     * @return a read only buffer over the shared encoded shout
+     */
+    public ByteBuffer toBuffer(boolean binary) {
+	return ByteBuffer.wrap(binary ? this.frame : this.text)
+		.asReadOnlyBuffer();
+    }
+}
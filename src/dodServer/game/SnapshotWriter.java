@@ -0,0 +1,304 @@
+package dodServer.game;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps a snapshot of a journalled game, so the game can be rebuilt from the
+ * snapshot and the end of its journal rather than replaying the whole
+ * journal.
+ *
+ * A snapshot is taken once SNAPSHOT_RECORDS records have been journalled
+ * since the last one. The writer keeps its own copy of the items on the map,
+ * taken when the game was recovered, so to take a snapshot the game only
+ * pauses to copy its players and the items that have changed since the last
+ * one. Everything else is done by one thread shared by every game: the
+ * changes are merged into the copy, and the snapshot is written once the
+ * journal has been written up to the point it was taken. Each snapshot is
+ * written to a new file which then replaces the old one, so there is always
+ * a whole snapshot to load.
+ */
+public final class SnapshotWriter {
+    private static final long SNAPSHOT_RECORDS = Long.getLong(
+	    "dod.snapshotRecords", 10000);
+
+    private static final ExecutorService writer = Executors
+	    .newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    final Thread t = new Thread(r, "dod-snapshot");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+
+    /**
+     * Items on the map, in cell order.
+     */
+    private static class Items {
+	final int[] cells;
+	final byte[] kinds;
+	final int[] values;
+
+	Items(int[] setCells, byte[] setKinds, int[] setValues) {
+	    this.cells = setCells;
+	    this.kinds = setKinds;
+	    this.values = setValues;
+	}
+    }
+
+    private final File file;
+    private final File temp;
+
+    // The items on the map as of the last snapshot. Only used by the
+    // snapshot thread.
+    private Items items = null;
+
+    // Whether a snapshot is waiting to be written
+    private boolean writing = false;
+
+    // The journal records added when the last snapshot was taken
+    private long takenAt = 0;
+
+    private long written = 0;
+    private long lastBytes = 0;
+    private long lastCaptureNanos = 0;
+    private long lastWriteNanos = 0;
+
+    /**
+     * @param setFile
+     *            the file the snapshot is kept in
+     */
+    public SnapshotWriter(File setFile) {
+	this.file = setFile;
+	this.temp = new File(setFile.getPath() + ".new");
+    }
+
+    /**
+     * Describes the snapshots written.
+     *
+     * @return how many have been written, and the size, capture pause and
+     *         writing time of the last
+     */
+    public synchronized String getStats() {
+	return "snapshots " + this.written + ", last " + this.lastBytes
+		+ " bytes, captured in " + this.lastCaptureNanos / 1000
+		+ "us, written in " + this.lastWriteNanos / 1000000 + "ms";
+    }
+
+    /**
+     * Loads the snapshot, if there is one that fits the journal.
+     *
+     * @return the snapshot, or null if the whole journal must be replayed
+     *         instead
+     */
+    GameSnapshot load(GameJournal journal) {
+	if (!this.file.exists()) {
+	    return null;
+	}
+
+	try {
+	    final GameSnapshot snapshot = GameSnapshot.read(this.file);
+
+	    if (snapshot.journalOffset > journal.getFileSize()) {
+		System.err.println("Ignoring " + this.file
+			+ ", which is newer than its journal");
+		return null;
+	    }
+	    return snapshot;
+	} catch (IOException e) {
+	    System.err.println("Ignoring the snapshot " + this.file + ": "
+		    + e.getMessage());
+	    return null;
+	}
+    }
+
+    /**
+     * Starts keeping a copy of the items on the map of a game. From here on,
+     * only the items changed since the last snapshot are handed over.
+     *
+     * @param cells
+     *            the cell of every item on the map
+     * @param kinds
+     *            the character of each item
+     * @param values
+     *            the value of each item, for gold, or 0
+     */
+    void start(final int[] cells, final byte[] kinds, final int[] values) {
+	writer.execute(new Runnable() {
+	    public void run() {
+		SnapshotWriter.this.items = sortItems(cells, kinds, values);
+	    }
+	});
+    }
+
+    /**
+     * @param added
+     *            the records added to the journal so far
+     * @return true if a snapshot should be taken now
+     */
+    synchronized boolean isDue(long added) {
+	return !this.writing && added - this.takenAt >= SNAPSHOT_RECORDS;
+    }
+
+    /**
+     * Writes a snapshot in the background.
+     *
+     * @param snapshot
+     *            the snapshot, holding only the items changed since the last
+     *            one, which must not be changed from here on
+     * @param journal
+     *            the journal the snapshot was taken from
+     * @param added
+     *            the records added to the journal when it was taken
+     * @param captureNanos
+     *            how long the game paused to take it
+     */
+    void write(final GameSnapshot snapshot, final GameJournal journal,
+	    long added, long captureNanos) {
+	synchronized (this) {
+	    this.writing = true;
+	    this.takenAt = added;
+	    this.lastCaptureNanos = captureNanos;
+	}
+
+	writer.execute(new Runnable() {
+	    public void run() {
+		try {
+		    final Items merged = mergeItems(SnapshotWriter.this.items,
+			    sortItems(snapshot.itemCells, snapshot.itemKinds,
+				    snapshot.itemValues));
+		    SnapshotWriter.this.items = merged;
+
+		    // A snapshot must not get ahead of the journal on the disk
+		    if (journal.awaitWritten(snapshot.journalOffset)) {
+			writeFile(new GameSnapshot(snapshot.journalOffset,
+				snapshot.width, snapshot.height,
+				snapshot.playerWon, snapshot.currentPlayer,
+				snapshot.randomCounter, merged.cells, merged.kinds, merged.values,
+				snapshot.players));
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		} catch (IOException e) {
+		    System.err.println("Failed to write the snapshot "
+			    + SnapshotWriter.this.file + ": " + e.getMessage());
+		} finally {
+		    synchronized (SnapshotWriter.this) {
+			SnapshotWriter.this.writing = false;
+		    }
+		}
+	    }
+	});
+    }
+
+    /**
+     * Writes a snapshot to a new file, syncs it, then puts it in place of
+     * the last one.
+     */
+    private void writeFile(GameSnapshot snapshot) throws IOException {
+	final long start = System.nanoTime();
+	final FileOutputStream out = new FileOutputStream(this.temp);
+	final long bytes;
+
+	try {
+	    bytes = snapshot.write(out);
+	    out.getChannel().force(true);
+	} finally {
+	    out.close();
+	}
+
+	Files.move(this.temp.toPath(), this.file.toPath(),
+		StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+
+	synchronized (this) {
+	    this.written++;
+	    this.lastBytes = bytes;
+	    this.lastWriteNanos = System.nanoTime() - start;
+	}
+    }
+
+    /**
+     * Puts items into cell order. Where a cell appears more than once, the
+     * last is kept.
+     */
+    private static Items sortItems(int[] cells, byte[] kinds, int[] values) {
+	final long[] order = new long[cells.length];
+	for (int i = 0; i < order.length; i++) {
+	    order[i] = ((long) cells[i] << 32) | i;
+	}
+	Arrays.sort(order);
+
+	final int[] sortedCells = new int[order.length];
+	final byte[] sortedKinds = new byte[order.length];
+	final int[] sortedValues = new int[order.length];
+	int count = 0;
+
+	for (int j = 0; j < order.length; j++) {
+	    final int cell = (int) (order[j] >>> 32);
+	    if (j + 1 < order.length && (int) (order[j + 1] >>> 32) == cell) {
+		continue;
+	    }
+
+	    final int i = (int) order[j];
+	    sortedCells[count] = cell;
+	    sortedKinds[count] = kinds[i];
+	    sortedValues[count] = values[i];
+	    count++;
+	}
+
+	return new Items(Arrays.copyOf(sortedCells, count), Arrays.copyOf(
+		sortedKinds, count), Arrays.copyOf(sortedValues, count));
+    }
+
+    /**
+     * Applies changes to items, where a kind of 0 means the cell is now
+     * empty.
+     *
+     * @return the items once changed
+     */
+    private static Items mergeItems(Items base, Items changes) {
+	final int most = base.cells.length + changes.cells.length;
+	final int[] cells = new int[most];
+	final byte[] kinds = new byte[most];
+	final int[] values = new int[most];
+	int count = 0;
+
+	int b = 0;
+	int c = 0;
+	while (b < base.cells.length || c < changes.cells.length) {
+	    final Items from;
+	    final int i;
+
+	    if (c == changes.cells.length
+		    || (b < base.cells.length && base.cells[b] < changes.cells[c])) {
+		from = base;
+		i = b++;
+	    } else {
+		// A change replaces whatever was on its cell
+		if (b < base.cells.length && base.cells[b] == changes.cells[c]) {
+		    b++;
+		}
+		from = changes;
+		i = c++;
+	    }
+
+	    if (from.kinds[i] != 0) {
+		cells[count] = from.cells[i];
+		kinds[count] = from.kinds[i];
+		values[count] = from.values[i];
+		count++;
+	    }
+	}
+
+	return new Items(Arrays.copyOf(cells, count), Arrays.copyOf(kinds,
+		count), Arrays.copyOf(values, count));
+    }
+}
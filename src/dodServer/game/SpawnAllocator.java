@@ -0,0 +1,108 @@
+package dodServer.game;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of which spawn cells are free, so a player can be given a
+ * random free start location in constant time however crowded the map is.
+ *
+ * The free spawn cells are held in one array. A cell is taken by moving the
+ * last free cell into its place, and freed by adding it to the end. Where
+ * each free cell is in the array is kept as its mark in the occupancy grid,
+ * which has an entry for every cell anyway, so this never needs a search and
+ * costs only a bit per cell of the map, to know which are spawn cells.
+ */
+final class SpawnAllocator {
+    // The free spawn cells; only the first freeCount are in use
+    private final int[] cells;
+    private int freeCount;
+
+    // Which cells of the map are spawn cells
+    private final BitSet spawnCells;
+
+    // Marks each free spawn cell with where it is in cells
+    private final OccupancyIndex occupancy;
+
+    /**
+     * Creates an allocator with every spawn cell free.
+     *
+     * @param analysis
+     *            the analysis of the map, giving the spawn cells
+     * @param mapCells
+     *            the number of cells in the map
+     * @param occupancy
+     *            the occupancy grid of the map, with nobody on it yet
+     */
+    SpawnAllocator(MapAnalysis analysis, int mapCells, OccupancyIndex occupancy) {
+	this.cells = new int[analysis.getSpawnCellCount()];
+	this.freeCount = this.cells.length;
+	this.spawnCells = new BitSet(mapCells);
+	this.occupancy = occupancy;
+
+	for (int i = 0; i < this.cells.length; i++) {
+	    this.cells[i] = analysis.getSpawnCell(i);
+	    this.spawnCells.set(this.cells[i]);
+	    this.occupancy.setMark(this.cells[i], i);
+	}
+    }
+
+    /**
+     * @return the number of spawn cells nobody is standing on
+     */
+    int getFreeCount() {
+	return this.freeCount;
+    }
+
+    /**
+     * Picks a free spawn cell uniformly at random. The cell stays free until
+     * it is taken.
+     *
+     * @param random
+     *            the source of randomness
+     * @return the index of the cell, row * width + col, or -1 if there are no
+     *         free spawn cells
+     */
+    int randomFreeCell(GameRandom random) {
+	if (this.freeCount == 0) {
+	    return -1;
+	}
+
+	return this.cells[random.nextInt(this.freeCount)];
+    }
+
+    /**
+     * Marks a cell as having someone on it. Must be called before the player
+     * is put on the cell in the occupancy grid, which loses the cell's mark.
+     * Cells which are not spawn cells, or are already taken, are ignored.
+     *
+     * @param cell
+     *            the index of the cell, row * width + col
+     */
+    void take(int cell) {
+	final int position = this.occupancy.getMark(cell);
+
+	if (position != -1) {
+	    this.freeCount--;
+	    final int last = this.cells[this.freeCount];
+	    this.cells[position] = last;
+	    this.occupancy.setMark(last, position);
+	}
+    }
+
+    /**
+     * Marks a cell as empty. Must be called after the cell is emptied in the
+     * occupancy grid. Cells which are not spawn cells, or are already free,
+     * are ignored.
+     *
+     * @param cell
+     *            the index of the cell, row * width + col
+     */
+    void free(int cell) {
+	if (this.spawnCells.get(cell) && this.occupancy.getMark(cell) == -1
+		&& this.occupancy.get(cell) == -1) {
+	    this.cells[this.freeCount] = cell;
+	    this.occupancy.setMark(cell, this.freeCount);
+	    this.freeCount++;
+	}
+    }
+}
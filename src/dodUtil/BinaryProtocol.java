@@ -0,0 +1,363 @@
+/**
+ * A compact binary encoding of the messages the server sends to a client, used in place of text lines
+ * once a client has asked for it by sending NEGOTIATE. Commands from the client stay as text lines.
+ *
+ * Each frame is a varint length, followed by that many bytes: an opcode and its payload. Numbers are
+ * varints (zigzag encoded where they can be negative), and look replies are packed two cells to a byte.
+ * Anything without an opcode of its own is sent as a TEXT frame holding the original line.
+ */
+
+package dodUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+public final class BinaryProtocol {
+
+	/** The command a client sends to switch to this protocol, which is also the server's reply. */
+	public static final String NEGOTIATE = "PROTOCOL BINARY";
+
+	//Opcodes.
+	private static final int TEXT = 0;
+	private static final int GOLD = 1;
+	private static final int STARTTURN = 2;
+	private static final int ENDTURN = 3;
+	private static final int WIN = 4;
+	private static final int LOSE = 5;
+	private static final int CHANGE = 6;
+	private static final int HITMOD = 7;
+	private static final int TREASUREMOD = 8;
+	private static final int SUCCESS = 9;
+	private static final int AP = 10;
+	private static final int LOOKREPLY = 11;
+	private static final int SHOUT = 12;
+
+	//Every character a look reply can contain, by its packed value.
+	private static final String LOOK_CHARS = "X#.EPGSAHL";
+
+	//Longest frame we will accept.
+	private static final int MAX_FRAME_LENGTH = 1 << 20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private BinaryProtocol(){
+	}
+
+	/**
+	 * Encodes a message, as it would be sent as text, into a frame.
+	 * @param message The text message. Look replies are "LOOKREPLY" followed by a line per row.
+	 * @return The frame, including its length.
+	 */
+	public static byte[] encode(String message){
+		ByteArrayOutputStream body = new ByteArrayOutputStream(16);
+
+		if(!encodeBody(message, body)){
+			body.reset();
+			body.write(TEXT);
+			byte[] text = message.getBytes(UTF8);
+			body.write(text, 0, text.length);
+		}
+
+		return frame(body);
+	}
+
+	/**
+	 * Encodes a shout, which would be sent as text as FROM and then MESSAGE, into a single frame.
+	 * @param from Name of the player shouting.
+	 * @param message What they shouted.
+	 * @return The frame, including its length.
+	 */
+	public static byte[] encodeShout(String from, String message){
+		byte[] name = from.getBytes(UTF8);
+		byte[] text = message.getBytes(UTF8);
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(name.length + text.length + 4);
+		body.write(SHOUT);
+		writeVarint(body, name.length);
+		body.write(name, 0, name.length);
+		body.write(text, 0, text.length);
+
+		return frame(body);
+	}
+
+	/**
+	 * Reads one frame and decodes it back into the text lines it stands for.
+	 * @param in Stream to read the frame from.
+	 * @param lines List the decoded lines are added to.
+	 * @throws IOException If the stream ends or the frame is malformed.
+	 */
+	public static void decode(InputStream in, List<String> lines)
+			throws IOException{
+		int length = readVarint(in);
+		if(length < 1 || length > MAX_FRAME_LENGTH){
+			throw new IOException("Invalid frame length " + length);
+		}
+
+		byte[] body = new byte[length];
+		int read = 0;
+		while(read < length){
+			int n = in.read(body, read, length - read);
+			if(n < 0){
+				throw new EOFException("Connection closed part way through a frame");
+			}
+			read += n;
+		}
+
+		int[] pos = {1};
+
+		switch(body[0]){
+		case TEXT:
+			//A text frame may hold several lines, e.g. a look reply we could not pack.
+			for(String line : new String(body, 1, length - 1, UTF8).split("\r?\n")){
+				lines.add(line);
+			}
+			break;
+		case GOLD:
+			lines.add("GOLD " + readVarint(body, pos));
+			break;
+		case STARTTURN:
+			lines.add("STARTTURN");
+			break;
+		case ENDTURN:
+			lines.add("ENDTURN");
+			break;
+		case WIN:
+			lines.add("WIN");
+			break;
+		case LOSE:
+			lines.add("LOSE");
+			break;
+		case CHANGE:
+			lines.add("CHANGE");
+			break;
+		case HITMOD:
+			lines.add("HITMOD " + unzigzag(readVarint(body, pos)));
+			break;
+		case TREASUREMOD:
+			lines.add("TREASUREMOD " + unzigzag(readVarint(body, pos)));
+			break;
+		case SUCCESS:
+			lines.add("SUCCESS");
+			break;
+		case AP:
+			lines.add("AP " + readVarint(body, pos));
+			break;
+		case LOOKREPLY:
+			decodeLook(body, pos, lines);
+			break;
+		case SHOUT:
+			int nameLength = readVarint(body, pos);
+			if(nameLength < 0 || nameLength > length - pos[0]){
+				throw new IOException("Shout is too short");
+			}
+			lines.add("FROM " + new String(body, pos[0], nameLength, UTF8));
+			lines.add("MESSAGE " + new String(body, pos[0] + nameLength, length - pos[0] - nameLength, UTF8));
+			break;
+		default:
+			throw new IOException("Unknown opcode " + body[0]);
+		}
+	}
+
+	/**
+	 * @return The frame holding a body, which starts with its length.
+	 */
+	private static byte[] frame(ByteArrayOutputStream body){
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 3);
+		writeVarint(frame, body.size());
+		frame.write(body.toByteArray(), 0, body.size());
+		return frame.toByteArray();
+	}
+
+	/**
+	 * Writes the opcode and payload of a message, if it has an opcode of its own.
+	 * @return False if the message should be sent as text instead.
+	 */
+	private static boolean encodeBody(String message, ByteArrayOutputStream body){
+		String[] parts = message.split(" ", 2);
+		String arg = (parts.length == 2) ? parts[1] : null;
+
+		try{
+			if(message.startsWith("LOOKREPLY")){
+				return encodeLook(message, body);
+			}
+			else if(arg == null){
+				int opcode = noArgumentOpcode(parts[0]);
+				if(opcode == -1){
+					return false;
+				}
+				body.write(opcode);
+			}
+			else if(parts[0].equals("GOLD")){
+				body.write(GOLD);
+				writeVarint(body, Integer.parseInt(arg));
+			}
+			else if(parts[0].equals("AP")){
+				body.write(AP);
+				writeVarint(body, Integer.parseInt(arg));
+			}
+			else if(parts[0].equals("HITMOD")){
+				body.write(HITMOD);
+				writeVarint(body, zigzag(Integer.parseInt(arg)));
+			}
+			else if(parts[0].equals("TREASUREMOD")){
+				body.write(TREASUREMOD);
+				writeVarint(body, zigzag(Integer.parseInt(arg)));
+			}
+			else{
+				return false;
+			}
+		}
+		catch(NumberFormatException e){
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The opcode of a message with no argument, or -1 if it does not have one.
+	 */
+	private static int noArgumentOpcode(String message){
+		if(message.equals("STARTTURN")){
+			return STARTTURN;
+		}
+		else if(message.equals("ENDTURN")){
+			return ENDTURN;
+		}
+		else if(message.equals("WIN")){
+			return WIN;
+		}
+		else if(message.equals("LOSE")){
+			return LOSE;
+		}
+		else if(message.equals("CHANGE")){
+			return CHANGE;
+		}
+		else if(message.equals("SUCCESS")){
+			return SUCCESS;
+		}
+		return -1;
+	}
+
+	/**
+	 * Packs a look reply as its size and then two cells to a byte.
+	 * @return False if the reply has a character that cannot be packed.
+	 */
+	private static boolean encodeLook(String message, ByteArrayOutputStream body){
+		String[] rows = message.split("\r?\n");
+		int size = rows.length - 1;
+
+		//Look replies with a sequence number, in delta mode, are left as text.
+		if(!rows[0].equals("LOOKREPLY")){
+			return false;
+		}
+
+		body.write(LOOKREPLY);
+		writeVarint(body, size);
+
+		int pending = -1;
+		for(int rowix = 1; rowix <= size; rowix++){
+			if(rows[rowix].length() != size){
+				return false;
+			}
+
+			for(int colix = 0; colix < size; colix++){
+				int packed = LOOK_CHARS.indexOf(rows[rowix].charAt(colix));
+				if(packed == -1){
+					return false;
+				}
+
+				if(pending == -1){
+					pending = packed;
+				}
+				else{
+					body.write((pending << 4) | packed);
+					pending = -1;
+				}
+			}
+		}
+		if(pending != -1){
+			body.write(pending << 4);
+		}
+		return true;
+	}
+
+	/**
+	 * Unpacks a look reply into "LOOKREPLY" and a line per row.
+	 */
+	private static void decodeLook(byte[] body, int[] pos, List<String> lines)
+			throws IOException{
+		int size = readVarint(body, pos);
+		if(size < 0 || (long) size * size > 2L * (body.length - pos[0])){
+			throw new IOException("Look reply is too short");
+		}
+
+		lines.add("LOOKREPLY");
+
+		char[] row = new char[size];
+		int cell = 0;
+		for(int rowix = 0; rowix < size; rowix++){
+			for(int colix = 0; colix < size; colix++){
+				int b = body[pos[0] + cell / 2] & 0xFF;
+				int packed = (cell % 2 == 0) ? (b >> 4) : (b & 0x0F);
+				if(packed >= LOOK_CHARS.length()){
+					throw new IOException("Invalid look cell");
+				}
+				row[colix] = LOOK_CHARS.charAt(packed);
+				cell++;
+			}
+			lines.add(new String(row));
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value){
+		while((value & ~0x7F) != 0){
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(InputStream in)
+			throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			int b = in.read();
+			if(b < 0){
+				throw new EOFException("Connection closed");
+			}
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Varint is too long");
+	}
+
+	private static int readVarint(byte[] body, int[] pos)
+			throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			if(pos[0] >= body.length){
+				throw new IOException("Frame is too short");
+			}
+			int b = body[pos[0]++];
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Varint is too long");
+	}
+
+	private static int zigzag(int value){
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+}